@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.benchmarks;
+
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import de.iisys.smbcmis.extern.folderHandler.CMISTreeLoader;
+import de.iisys.smbcmis.extern.io.ContentStreams;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.SessionParameter;
+import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.enums.BindingType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading folder trees and content from the OpenCMIS InMemory repository, which runs in-process with the local
+ * binding. The repository has the layout of the {@link FakeShare} with 500 small documents and one document of 1 MB.
+ * <p>
+ * Without http the numbers show the client side cost: object conversion of {@link CMISTreeLoader} (which replaced
+ * convertFolder) and the base64 encoding of getContentAsBase64.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CMISBenchmark {
+
+    private static final String REPOSITORY_ID = "bench";
+
+    private Session session;
+    private String rootId;
+    private String largeDocumentId;
+
+    @Setup
+    public void setUp() {
+        session = createInMemorySession();
+        Folder root = session.getRootFolder();
+        rootId = root.getId();
+
+        Random random = new Random(42);
+        byte[] small = new byte[4096];
+        random.nextBytes(small);
+        FakeShare share = new FakeShare(10, 10, 5);
+        Map<String, Folder> folders = new HashMap<>();
+        folders.put("", root);
+        for (String path : share.getFolderPaths()) {
+            int slash = path.lastIndexOf('/');
+            Folder parent = folders.get(slash < 0 ? "" : path.substring(0, slash));
+            Folder folder = parent.createFolder(properties(BaseTypeId.CMIS_FOLDER, path.substring(slash + 1)));
+            folders.put(path, folder);
+            if (slash >= 0) {
+                for (FileIdBothDirectoryInformation f : share.list(path)) {
+                    if (!f.getFileName().startsWith("."))
+                        createDocument(folder, f.getFileName(), small);
+                }
+            }
+        }
+
+        byte[] large = new byte[1024 * 1024];
+        random.nextBytes(large);
+        largeDocumentId = createDocument(root, "large.pdf", large).getId();
+    }
+
+    @Benchmark
+    public DocumentFolder loadTree() {
+        return new CMISTreeLoader(session).load(rootId);
+    }
+
+    @Benchmark
+    public String contentAsBase64() throws IOException {
+        Document document = (Document) session.getObject(largeDocumentId);
+        try (InputStream in = document.getContentStream().getStream()) {
+            return ContentStreams.toBase64(in);
+        }
+    }
+
+    private static Session createInMemorySession() {
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(SessionParameter.BINDING_TYPE, BindingType.LOCAL.value());
+        parameter.put(SessionParameter.LOCAL_FACTORY, "org.apache.chemistry.opencmis.inmemory.server.InMemoryServiceFactoryImpl");
+        parameter.put(SessionParameter.REPOSITORY_ID, REPOSITORY_ID);
+        parameter.put(SessionParameter.USER, "admin");
+        parameter.put(SessionParameter.PASSWORD, "admin");
+        // Passed on to the InMemory factory
+        parameter.put("InMemoryServer.RepositoryId", REPOSITORY_ID);
+        parameter.put("InMemoryServer.TypesCreatorClass", "org.apache.chemistry.opencmis.inmemory.types.DefaultTypeSystemCreator");
+        return SessionFactoryImpl.newInstance().createSession(parameter);
+    }
+
+    private Document createDocument(Folder folder, String name, byte[] content) {
+        ContentStream stream = session.getObjectFactory().createContentStream(name, content.length,
+                "application/octet-stream", new ByteArrayInputStream(content));
+        return folder.createDocument(properties(BaseTypeId.CMIS_DOCUMENT, name), stream, null);
+    }
+
+    private static Map<String, Object> properties(BaseTypeId type, String name) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PropertyIds.OBJECT_TYPE_ID, type.value());
+        properties.put(PropertyIds.NAME, name);
+        return properties;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.benchmarks;
+
+import com.hierynomus.msdtyp.FileTime;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import de.iisys.smbcmis.extern.folderHandler.SMBTreeBuilder;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Share in memory with the layout of a production share: one folder per machine, one folder per order and tool below
+ * it and the files of the order, e.g. {@code M0012/Auftrag_004711_WZ-000815/M0012_WZ-000815_rev2.pdf}. The content is generated
+ * from a fixed seed, so every run sees the same share.
+ * <p>
+ * Serves the listings to {@link SMBTreeBuilder} as a {@link SMBTreeBuilder.DirectoryLister}, without network.
+ */
+public class FakeShare implements SMBTreeBuilder.DirectoryLister {
+
+    private static final Constructor<FileIdBothDirectoryInformation> ENTRY;
+
+    static {
+        // The constructor is package private, smbj only creates entries while decoding a listing
+        try {
+            ENTRY = FileIdBothDirectoryInformation.class.getDeclaredConstructor(long.class, long.class, String.class,
+                    FileTime.class, FileTime.class, FileTime.class, FileTime.class, long.class, long.class, long.class,
+                    long.class, String.class, byte[].class);
+            ENTRY.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported smbj version", e);
+        }
+    }
+
+    private final Map<String, List<FileIdBothDirectoryInformation>> listings = new HashMap<>();
+    private final List<String> fileNames = new ArrayList<>();
+    private final List<String> folderPaths = new ArrayList<>();
+    private final List<String> machines = new ArrayList<>();
+    private final List<String> tools = new ArrayList<>();
+
+    /**
+     * @param machines         Number of machine folders
+     * @param ordersPerMachine Number of order folders per machine
+     * @param filesPerOrder    Number of files per order folder
+     */
+    public FakeShare(int machines, int ordersPerMachine, int filesPerOrder) {
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        List<FileIdBothDirectoryInformation> root = newListing("", now);
+        for (int m = 0; m < machines; m++) {
+            String machine = String.format("M%04d", m);
+            this.machines.add(machine);
+            root.add(directory(machine, now));
+            folderPaths.add(machine);
+            List<FileIdBothDirectoryInformation> machineListing = newListing(machine, now);
+            for (int o = 0; o < ordersPerMachine; o++) {
+                String tool = String.format("WZ-%06d", random.nextInt(1000000));
+                if (tools.size() < 1000)
+                    tools.add(tool);
+                String order = String.format("Auftrag_%06d_%s", random.nextInt(1000000), tool);
+                String orderPath = machine + "/" + order;
+                machineListing.add(directory(order, now));
+                folderPaths.add(orderPath);
+                List<FileIdBothDirectoryInformation> orderListing = newListing(orderPath, now);
+                for (int f = 0; f < filesPerOrder; f++) {
+                    String name = f % 4 == 3
+                            ? machine + "_" + tool + "_Protokoll" + f + ".txt"
+                            : machine + "_" + tool + "_rev" + f + ".pdf";
+                    orderListing.add(file(name, random.nextInt(10 * 1024 * 1024), now - random.nextInt(1000000000)));
+                    fileNames.add(name);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<FileIdBothDirectoryInformation> list(String path) {
+        List<FileIdBothDirectoryInformation> listing = listings.get(path);
+        if (listing == null)
+            throw new IllegalArgumentException("No directory " + path);
+        return listing;
+    }
+
+    /**
+     * @return Names of all files
+     */
+    public List<String> getFileNames() {
+        return Collections.unmodifiableList(fileNames);
+    }
+
+    /**
+     * @return Paths of all folders, relative to the share
+     */
+    public List<String> getFolderPaths() {
+        return Collections.unmodifiableList(folderPaths);
+    }
+
+    public List<String> getMachines() {
+        return Collections.unmodifiableList(machines);
+    }
+
+    /**
+     * @return Tools of the orders, at most 1000
+     */
+    public List<String> getTools() {
+        return Collections.unmodifiableList(tools);
+    }
+
+    private List<FileIdBothDirectoryInformation> newListing(String path, long time) {
+        List<FileIdBothDirectoryInformation> listing = new ArrayList<>();
+        listing.add(directory(".", time));
+        listing.add(directory("..", time));
+        listings.put(path, listing);
+        return listing;
+    }
+
+    private static FileIdBothDirectoryInformation directory(String name, long time) {
+        return entry(name, 0, time, FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue());
+    }
+
+    private static FileIdBothDirectoryInformation file(String name, long size, long time) {
+        return entry(name, size, time, FileAttributes.FILE_ATTRIBUTE_ARCHIVE.getValue());
+    }
+
+    private static FileIdBothDirectoryInformation entry(String name, long size, long time, long attributes) {
+        FileTime fileTime = FileTime.ofEpochMillis(time);
+        try {
+            return ENTRY.newInstance(0L, 0L, name, fileTime, fileTime, fileTime, fileTime, size, size, attributes,
+                    0L, "", new byte[8]);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
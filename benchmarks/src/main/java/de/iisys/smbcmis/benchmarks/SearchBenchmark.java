@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.benchmarks;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.strategy.SearchWithMachineAndOrder;
+import de.iisys.smbcmis.extern.strategy.SearchWithTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching of {@link SearchWithMachineAndOrder} and {@link SearchWithTool} over all names of a share with 20000 files.
+ * Every operation is one scan, as done by the search of a crawled tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+    /**
+     * Search patterns of typical config.xml files, the first line is the empty line after the tag.
+     */
+    private static final String[] FILE_PATTERN = {"", ".*", ".*", ".*", ".*\\.pdf"};
+    private static final String[] FOLDER_PATTERN = {"", ".*", ".*", ".*", ".*"};
+
+    @Param({"FILENAME", "FOLDER"})
+    public Configuration.SearchForMachineAndOrderStrategy strategy;
+
+    private List<String> fileNames;
+    private List<String> folderPaths;
+    private SearchWithMachineAndOrder machineAndOrder;
+    private SearchWithTool tool;
+
+    @Setup
+    public void setUp() {
+        Configuration.setSearchStrategy(strategy);
+        Configuration.setSearchPattern(strategy == Configuration.SearchForMachineAndOrderStrategy.FILENAME
+                ? FILE_PATTERN.clone() : FOLDER_PATTERN.clone());
+        FakeShare share = new FakeShare(50, 40, 10);
+        fileNames = share.getFileNames();
+        folderPaths = share.getFolderPaths();
+        // The tool of an order of the 8th machine
+        String someTool = share.getTools().get(7 * 40 + 3);
+        machineAndOrder = new SearchWithMachineAndOrder(share.getMachines().get(7), someTool);
+        tool = new SearchWithTool(someTool);
+    }
+
+    @Benchmark
+    public int machineAndOrderFiles() {
+        int matches = 0;
+        for (String name : fileNames) {
+            if (machineAndOrder.isFileRequired(name))
+                matches++;
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int machineAndOrderFolders() {
+        int matches = 0;
+        for (String path : folderPaths) {
+            if (machineAndOrder.isFolderRequired("/" + path))
+                matches++;
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int toolFiles() {
+        int matches = 0;
+        for (String name : fileNames) {
+            if (tool.isFileRequired(name))
+                matches++;
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int toolFolders() {
+        int matches = 0;
+        for (String path : folderPaths) {
+            if (tool.isFolderRequired("/" + path))
+                matches++;
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.iisys.smbcmis.extern.folderHandler.SMBTreeBuilder;
+import de.iisys.smbcmis.extern.io.TreeReader;
+import de.iisys.smbcmis.extern.io.TreeWriter;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a {@link DocumentFolder} tree with 20000 files: data binding as done by the REST layer, and the
+ * streaming {@link TreeWriter} and {@link TreeReader} with JSON and Smile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4 * 1024 * 1024);
+    private DocumentFolder tree;
+    private byte[] json;
+    private byte[] smile;
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = new SMBTreeBuilder(new FakeShare(50, 40, 10), "/").build("", new SearchWithIgnoreList());
+        json = writeJson();
+        smile = writeSmile();
+    }
+
+    @Benchmark
+    public byte[] dataBinding() throws IOException {
+        return mapper.writeValueAsBytes(tree);
+    }
+
+    @Benchmark
+    public int streamedJson() throws IOException {
+        out.reset();
+        try (TreeWriter writer = TreeWriter.json(out)) {
+            writer.write(tree);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int streamedSmile() throws IOException {
+        out.reset();
+        try (TreeWriter writer = TreeWriter.smile(out)) {
+            writer.write(tree);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public DocumentFolder readJson() throws IOException {
+        try (TreeReader reader = TreeReader.json(new ByteArrayInputStream(json))) {
+            return reader.readTree();
+        }
+    }
+
+    @Benchmark
+    public DocumentFolder readSmile() throws IOException {
+        try (TreeReader reader = TreeReader.smile(new ByteArrayInputStream(smile))) {
+            return reader.readTree();
+        }
+    }
+
+    private byte[] writeJson() throws IOException {
+        streamedJson();
+        return out.toByteArray();
+    }
+
+    private byte[] writeSmile() throws IOException {
+        streamedSmile();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.benchmarks;
+
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import de.iisys.smbcmis.extern.folderHandler.SMBTreeBuilder;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the tree of a share from its listings with {@link SMBTreeBuilder} and the path handling of
+ * {@link SMBTreeBuilder#setFolderMetaData(DocumentFolder, String)} and
+ * {@link SMBTreeBuilder#setFileMetadata(DocumentFile, String, String)}. The listings come from the {@link FakeShare},
+ * so only the client side work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TreeBuildBenchmark {
+
+    /**
+     * Number of machine folders, each with 40 orders of 10 files
+     */
+    @Param({"5", "50"})
+    public int machines;
+
+    private FakeShare share;
+
+    @Setup
+    public void setUp() {
+        share = new FakeShare(machines, 40, 10);
+    }
+
+    @Benchmark
+    public DocumentFolder buildTree() {
+        return new SMBTreeBuilder(share, "/").build("", new SearchWithIgnoreList());
+    }
+
+    @Benchmark
+    public void metadata(Blackhole blackhole) {
+        for (String path : share.getFolderPaths()) {
+            DocumentFolder folder = new DocumentFolder();
+            SMBTreeBuilder.setFolderMetaData(folder, path);
+            blackhole.consume(folder);
+            for (FileIdBothDirectoryInformation f : share.list(path)) {
+                if (SMBTreeBuilder.isDirectory(f))
+                    continue;
+                DocumentFile file = new DocumentFile();
+                SMBTreeBuilder.setFileMetadata(file, path, f.getFileName());
+                blackhole.consume(file);
+            }
+        }
+    }
+}
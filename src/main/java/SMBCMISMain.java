@@ -18,15 +18,18 @@ import de.iisys.smbcmis.extern.config.Configuration;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandler;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForSMB;
 import de.iisys.smbcmis.extern.model.DocumentFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SMBCMISMain {
+    private static final Logger logger = LoggerFactory.getLogger(SMBCMISMain.class);
+
     public static void main(String [ ] args) {
-        System.out.println(Configuration.getSmbPassword());
-        System.out.println(Configuration.getSmbUser());
+        logger.info("Searching as " + Configuration.getSmbUser() + ".");
         FolderHandler fh = new FolderHandlerForSMB();
         DocumentFolder rootFolder = fh.getFolderByTool("809688");
 
-       System.out.println(rootFolder.getDocumentList());
+        logger.info("Found " + rootFolder.getDocumentList());
 
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.metrics.MeteredHttpInvoker;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.metrics.NoopMetricsRegistry;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.api.SessionFactory;
+import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.SessionParameter;
+import org.apache.chemistry.opencmis.commons.enums.BindingType;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisUnauthorizedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one cmis session per repository and credentials for the whole application.
+ * <p>
+ * Creating a session fetches the repository info and starts with empty object and type caches, so sessions are
+ * created once and shared by all requests; OpenCMIS sessions are thread safe. Sessions which were idle for
+ * {@link Configuration#getCmisKeepAlive()} seconds are pinged, a session which fails the ping or a call with
+ * {@link CmisUnauthorizedException} is dropped and created again on the next call.
+ */
+@Named
+@ApplicationScoped
+public class CMISSessionProvider {
+    private static final Logger logger = LoggerFactory.getLogger(CMISSessionProvider.class);
+
+    private static final String REPOSITORY_ID = "default";
+
+    private final Map<Key, PooledSession> sessions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService keepAlive;
+
+    /**
+     * @return The session of the repository and user of the {@link Configuration}
+     */
+    public Session getSession() {
+        return getSession(Configuration.getCmisHost(), Configuration.getCmisUser(), Configuration.getCmisPassword(), REPOSITORY_ID);
+    }
+
+    /**
+     * @return The shared session of the repository and user, created on first use
+     */
+    public Session getSession(String host, String user, String password, String repositoryId) {
+        startKeepAlive();
+        Key key = new Key(host, user, password, repositoryId);
+        PooledSession pooled = sessions.computeIfAbsent(key, k -> new PooledSession(createSession(k)));
+        pooled.lastUsed = System.currentTimeMillis();
+        return pooled.session;
+    }
+
+    /**
+     * Runs the callback with the session of the {@link Configuration}. If the server rejects the credentials of the
+     * session, e.g. because its authentication expired, the session is created again and the callback is retried once.
+     *
+     * @param callback Operation with the session
+     *
+     * @return The result of the callback
+     */
+    public <T> T withSession(SessionCallback<T> callback) {
+        Session session = getSession();
+        try {
+            return callback.doWithSession(session);
+        } catch (CmisUnauthorizedException e) {
+            logger.debug("Cmis session was rejected, creating a new one.", e);
+            invalidate(session);
+            return callback.doWithSession(getSession());
+        } catch (CmisConnectionException e) {
+            invalidate(session);
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the session, the next call creates a new one.
+     */
+    public void invalidate(Session session) {
+        sessions.values().removeIf(pooled -> pooled.session == session);
+    }
+
+    /**
+     * Stops the keep-alive and drops all sessions.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (keepAlive != null) {
+            keepAlive.shutdownNow();
+            keepAlive = null;
+        }
+        sessions.clear();
+    }
+
+    private Session createSession(Key key) {
+        logger.debug("Create cmis session for " + key.host + ".");
+        SessionFactory factory = SessionFactoryImpl.newInstance();
+        Map<String, String> parameter = new HashMap<>();
+
+        parameter.put(SessionParameter.BINDING_TYPE, BindingType.BROWSER.value());
+        parameter.put(SessionParameter.USER, key.user);
+        parameter.put(SessionParameter.PASSWORD, key.password);
+        parameter.put(SessionParameter.BROWSER_URL, key.host);
+
+        parameter.put(SessionParameter.COOKIES, "true");
+        parameter.put(SessionParameter.COMPRESSION, "true");
+        parameter.put(SessionParameter.CLIENT_COMPRESSION, "false");
+        parameter.put(SessionParameter.REPOSITORY_ID, key.repositoryId);
+
+        // The caches live as long as the session, so they pay off across requests
+        parameter.put(SessionParameter.CACHE_SIZE_OBJECTS, String.valueOf(Configuration.getCmisCacheObjects()));
+        parameter.put(SessionParameter.CACHE_SIZE_PATHTOID, String.valueOf(Configuration.getCmisCachePaths()));
+        parameter.put(SessionParameter.CACHE_TTL_OBJECTS, String.valueOf(TimeUnit.SECONDS.toMillis(Configuration.getCmisCacheTtl())));
+        parameter.put(SessionParameter.CACHE_TTL_PATHTOID, String.valueOf(TimeUnit.SECONDS.toMillis(Configuration.getCmisCacheTtl())));
+
+        if (Metrics.getRegistry() != NoopMetricsRegistry.INSTANCE)
+            parameter.put(SessionParameter.HTTP_INVOKER_CLASS, MeteredHttpInvoker.class.getName());
+
+        long start = Metrics.start();
+        Session session = factory.createSession(parameter);
+        Metrics.record(Metrics.CMIS_SESSION, start);
+        return session;
+    }
+
+    private synchronized void startKeepAlive() {
+        if (keepAlive != null || Configuration.getCmisKeepAlive() <= 0)
+            return;
+        keepAlive = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cmis-keep-alive");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, Configuration.getCmisKeepAlive() / 2);
+        keepAlive.scheduleWithFixedDelay(this::pingIdleSessions, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pings sessions which were idle for the keep-alive time.
+     */
+    private void pingIdleSessions() {
+        long idleMillis = TimeUnit.SECONDS.toMillis(Configuration.getCmisKeepAlive());
+        for (Map.Entry<Key, PooledSession> entry : sessions.entrySet()) {
+            PooledSession pooled = entry.getValue();
+            if (System.currentTimeMillis() - pooled.lastUsed < idleMillis)
+                continue;
+            try {
+                // The repository info is cached by the binding, listing one child of the root is always a request
+                Session session = pooled.session;
+                session.getBinding().getNavigationService().getChildren(entry.getKey().repositoryId,
+                        session.getRepositoryInfo().getRootFolderId(), PropertyIds.OBJECT_ID, null, false,
+                        IncludeRelationships.NONE, "cmis:none", false, BigInteger.ONE, BigInteger.ZERO, null);
+                pooled.lastUsed = System.currentTimeMillis();
+            } catch (CmisBaseException e) {
+                logger.debug("Keep-alive of cmis session failed, it is created again on the next call.", e);
+                sessions.remove(entry.getKey(), pooled);
+            }
+        }
+    }
+
+    /**
+     * Operation which is executed with a cmis session.
+     */
+    public interface SessionCallback<T> {
+        T doWithSession(Session session);
+    }
+
+    private static class PooledSession {
+        private final Session session;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    private static class Key {
+        private final String host;
+        private final String user;
+        private final String password;
+        private final String repositoryId;
+
+        Key(String host, String user, String password, String repositoryId) {
+            this.host = host;
+            this.user = user;
+            this.password = password;
+            this.repositoryId = repositoryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key key = (Key) o;
+            return Objects.equals(host, key.host) && Objects.equals(user, key.user)
+                    && Objects.equals(password, key.password) && Objects.equals(repositoryId, key.repositoryId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, user, password, repositoryId);
+        }
+    }
+}
@@ -17,64 +17,30 @@
 package de.iisys.smbcmis.extern;
 
 
-import de.iisys.smbcmis.extern.config.Configuration;
 import org.apache.chemistry.opencmis.client.api.Session;
-import org.apache.chemistry.opencmis.client.api.SessionFactory;
-import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
-import org.apache.chemistry.opencmis.commons.SessionParameter;
-import org.apache.chemistry.opencmis.commons.enums.BindingType;
 
 import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
 import javax.inject.Named;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Created by Alexander Schmid on 25.11.16.
+ * <p>
+ * Gives the session of the {@link CMISSessionProvider} to existing injection points. The session is shared by all
+ * requests, it is not created per request anymore.
  */
 @SuppressWarnings("Duplicates")
 @Named
 @RequestScoped
 public class DocumentConnector {
 
-
-    private Session session;
-
-
-    /**
-     * Create a session with the cmis-dms-server with the given {@link Configuration}.
-     */
-    private void createSession(){
-
-        SessionFactory factory = SessionFactoryImpl.newInstance();
-        Map<String, String> parameter = new HashMap<>();
-
-        parameter.put(SessionParameter.BINDING_TYPE, BindingType.BROWSER.value());
-        //from de.iisys.smbcmis.extern.config
-        parameter.put(SessionParameter.USER, Configuration.getCmisUser());
-        parameter.put(SessionParameter.PASSWORD, Configuration.getCmisPassword());
-        parameter.put(SessionParameter.BROWSER_URL, Configuration.getCmisHost());
-
-        parameter.put(SessionParameter.COOKIES, "true");
-        //parameter.put(SessionParameter.AUTH_SOAP_USERNAMETOKEN, "true");
-        //parameter.put(SessionParameter.AUTH_HTTP_BASIC, "true");
-        //parameter.put(SessionParameter.AUTH_OAUTH_BEARER, "false");
-        parameter.put(SessionParameter.COMPRESSION, "true");
-        parameter.put(SessionParameter.CLIENT_COMPRESSION, "false");
-        parameter.put(SessionParameter.REPOSITORY_ID, "default");
-
-        //create session
-        session = factory.createSession(parameter);
-    }
+    @Inject
+    private CMISSessionProvider sessionProvider;
 
     /**
-     * The session object is a singleton.
-     * @return Return the singleton session. If session is null, a new one is created.
+     * @return The shared session of the {@link de.iisys.smbcmis.extern.config.Configuration}
      */
     public Session getSession() {
-        if(session == null) {
-            createSession();
-        }
-        return session;
+        return sessionProvider.getSession();
     }
 }
@@ -18,10 +18,12 @@ package de.iisys.smbcmis.extern;
 
 import de.iisys.smbcmis.extern.fileHandler.FileHandler;
 import de.iisys.smbcmis.extern.fileHandler.FileHandlerForCMIS;
+import de.iisys.smbcmis.extern.fileHandler.FileHandlerForLocal;
 import de.iisys.smbcmis.extern.fileHandler.FileHandlerForSMB;
 import de.iisys.smbcmis.extern.fileHandler.FileHandlerType;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandler;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForCMIS;
+import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForLocal;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForSMB;
 import de.iisys.smbcmis.extern.folderHandler.FolderHandlerType;
 
@@ -33,16 +35,21 @@ public class HandlerFactory {
     private FileHandlerForCMIS cmisFileHandler;
     @Inject
     private FileHandlerForSMB smbFileHandler;
+    @Inject
+    private FileHandlerForLocal localFileHandler;
 
     @Inject
     private FolderHandlerForCMIS cmisFolderHandler;
     @Inject
     private FolderHandlerForSMB smbFolderHandler;
+    @Inject
+    private FolderHandlerForLocal localFolderHandler;
 
     public FileHandler fileHandlerForType(FileHandlerType type) {
         switch(type) {
             case CMIS: return cmisFileHandler;
             case SMB: return smbFileHandler;
+            case LOCAL: return localFileHandler;
             default:
                 throw new IllegalArgumentException();
         }
@@ -52,6 +59,7 @@ public class HandlerFactory {
         switch(type) {
             case CMIS: return cmisFolderHandler;
             case SMB: return smbFolderHandler;
+            case LOCAL: return localFolderHandler;
             default:
                 throw new IllegalArgumentException();
         }
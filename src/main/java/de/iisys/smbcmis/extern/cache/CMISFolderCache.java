@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.cache;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.runtime.ObjectIdImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisContentAlreadyExistsException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisNameConstraintViolationException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps folder paths of the cmis repository to folder ids, so uploads into the same folders do not look up every
+ * folder of the path again. Missing folders are created.
+ * <p>
+ * Folder ids do not change, an id only becomes wrong if the folder is deleted or moved. A caller which gets a
+ * {@link CmisObjectNotFoundException} for a cached id calls {@link #invalidate(String)} and resolves the path again.
+ * The least recently used paths are dropped beyond {@link Configuration#getCmisCachePaths()} entries.
+ */
+public class CMISFolderCache {
+    private static final Logger logger = LoggerFactory.getLogger(CMISFolderCache.class);
+
+    private static CMISFolderCache instance;
+
+    private final int maxSize;
+    private final LinkedHashMap<String, String> ids;
+
+    public CMISFolderCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.ids = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CMISFolderCache.this.maxSize;
+            }
+        };
+    }
+
+    public static synchronized CMISFolderCache getInstance() {
+        if (instance == null)
+            instance = new CMISFolderCache(Configuration.getCmisCachePaths());
+        return instance;
+    }
+
+    /**
+     * Looks up the id of the folder, missing folders of the path are created.
+     *
+     * @param session The cmis session
+     * @param path    Absolute path of the folder, "/" or "" is the root folder
+     *
+     * @return Id of the folder
+     *
+     * @throws IllegalStateException If an element of the path is no folder
+     */
+    public String getFolderId(Session session, String path) {
+        return getFolderId(session, path, null);
+    }
+
+    /**
+     * Like {@link #getFolderId(Session, String)}, but reports every folder it creates.
+     *
+     * @param created Called once per created folder, may be null
+     */
+    public String getFolderId(Session session, String path, Runnable created) {
+        path = normalize(path);
+        String id = get(path);
+        if (id != null)
+            return id;
+
+        if (path.equals("/")) {
+            id = session.getRepositoryInfo().getRootFolderId();
+        } else {
+            id = lookup(session, path);
+            if (id == null) {
+                int i = path.lastIndexOf('/');
+                String parentId = getFolderId(session, i == 0 ? "/" : path.substring(0, i), created);
+                id = create(session, parentId, path, path.substring(i + 1), created);
+            }
+        }
+        put(path, id);
+        return id;
+    }
+
+    /**
+     * Drops the path and all paths below it.
+     */
+    public synchronized void invalidate(String path) {
+        String normalized = normalize(path);
+        Iterator<String> it = ids.keySet().iterator();
+        while (it.hasNext()) {
+            String next = it.next();
+            if (next.equals(normalized) || next.startsWith(normalized.endsWith("/") ? normalized : normalized + "/"))
+                it.remove();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        ids.clear();
+    }
+
+    private synchronized String get(String path) {
+        return ids.get(path);
+    }
+
+    private synchronized void put(String path, String id) {
+        ids.put(path, id);
+    }
+
+    private String lookup(Session session, String path) {
+        try {
+            CmisObject object = session.getObjectByPath(path, createContext(session));
+            if (object.getBaseTypeId() != BaseTypeId.CMIS_FOLDER)
+                throw new IllegalStateException(path + " exists, but is no folder.");
+            return object.getId();
+        } catch (CmisObjectNotFoundException e) {
+            return null;
+        }
+    }
+
+    private String create(Session session, String parentId, String path, String name, Runnable created) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_FOLDER.value());
+        properties.put(PropertyIds.NAME, name);
+        try {
+            logger.debug("Create cmis folder " + path + ".");
+            String id = session.createFolder(properties, new ObjectIdImpl(parentId)).getId();
+            if (created != null)
+                created.run();
+            return id;
+        } catch (CmisContentAlreadyExistsException | CmisNameConstraintViolationException e) {
+            // Created by another upload in the meantime
+            String id = lookup(session, path);
+            if (id == null)
+                throw e;
+            return id;
+        }
+    }
+
+    private static OperationContext createContext(Session session) {
+        OperationContext context = session.createOperationContext();
+        context.setFilterString(PropertyIds.OBJECT_ID + "," + PropertyIds.BASE_TYPE_ID);
+        context.setIncludeAcls(false);
+        context.setIncludeAllowableActions(false);
+        context.setIncludePolicies(false);
+        context.setRenditionFilterString("cmis:none");
+        context.setCacheEnabled(false);
+        return context;
+    }
+
+    private static String normalize(String path) {
+        path = path.replace('\\', '/');
+        if (!path.startsWith("/"))
+            path = "/" + path;
+        while (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+}
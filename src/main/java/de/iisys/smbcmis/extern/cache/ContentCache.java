@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.cache;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.io.ContentStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache of document content on the local disk, shared by all requests.
+ * <p>
+ * An entry is keyed by the document id and a version marker, e.g. the cmis change token or the smb last write time
+ * and size; a request with another version drops the entry. The least recently used files are deleted once the
+ * cache holds more than {@link Configuration#getContentCacheSize()} megabytes. Hits are read through memory mapped
+ * files, see {@link #transfer(Path, OutputStream)}.
+ * <p>
+ * The files are kept in the sub directory "content-cache" of the configured directory, marked by the file
+ * ".smbcmis-content-cache". Only the files of the cache in it are deleted on start, the cache does not survive a
+ * restart.
+ */
+public class ContentCache {
+    private static final Logger logger = LoggerFactory.getLogger(ContentCache.class);
+
+    private static final String SUB_DIRECTORY = "content-cache";
+    private static final String MARKER = ".smbcmis-content-cache";
+    private static final String TEMP_PREFIX = "content";
+    private static final String TEMP_SUFFIX = ".part";
+
+    private static ContentCache instance;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param directory Directory the cache creates its sub directory in
+     * @param maxBytes  Size of all cached files, 0 disables the cache
+     */
+    public ContentCache(Path directory, long maxBytes) {
+        this.directory = directory.resolve(SUB_DIRECTORY);
+        this.maxBytes = maxBytes;
+        if (maxBytes > 0)
+            prepareDirectory();
+    }
+
+    public static synchronized ContentCache getInstance() {
+        if (instance == null) {
+            instance = new ContentCache(Paths.get(Configuration.getContentCacheDir()),
+                    Configuration.getContentCacheSize() * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @param id      Id of the document
+     * @param version Version marker of the document
+     *
+     * @return The cached file or null if the document is not cached in this version
+     */
+    public synchronized Path get(String id, String version) {
+        CachedFile entry = entries.get(id);
+        if (entry != null && entry.version.equals(version)) {
+            hits++;
+            return entry.file;
+        }
+        if (entry != null)
+            remove(id);
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores the content. The stream is read to its end, but not closed.
+     *
+     * @param id      Id of the document
+     * @param version Version marker of the document
+     * @param length  Length of the content if known, otherwise a negative value
+     * @param in      The content
+     *
+     * @return The cached file or null if the cache is disabled or the content is too big, the stream is not read then
+     *
+     * @throws IOException If reading the stream or writing the file fails
+     */
+    public Path put(String id, String version, long length, InputStream in) throws IOException {
+        if (!isEnabled() || length > maxBytes)
+            return null;
+
+        Path file = directory.resolve(fileName(id, version));
+        Path temp = Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+        long size;
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                size = ContentStreams.copy(in, out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        synchronized (this) {
+            CachedFile old = entries.put(id, new CachedFile(version, file, size));
+            if (old != null) {
+                bytes -= old.size;
+                if (!old.file.equals(file))
+                    delete(old.file);
+            }
+            bytes += size;
+            evict(id);
+        }
+        return file;
+    }
+
+    /**
+     * Reads a cached file through a memory mapping and encodes it as base64 string.
+     */
+    public String readBase64(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer encoded = Base64.getEncoder().encode(mapped);
+            return new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Copies a cached file to the stream without closing it. A {@link FileOutputStream} gets it with
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which the kernel copies without the heap. Other
+     * streams, e.g. those of a servlet response, get the mapped file through {@link Channels#newChannel(OutputStream)},
+     * which copies it in small chunks; the file is never read into the heap as a whole.
+     *
+     * @return Number of copied bytes
+     */
+    public long transfer(Path file, OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream)
+            return transfer(file, ((FileOutputStream) out).getChannel());
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (mapped.hasRemaining()) {
+                target.write(mapped);
+            }
+            return channel.size();
+        }
+    }
+
+    private static long transfer(Path file, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Bytes of all cached files
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits, the file just added is kept.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, CachedFile>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, CachedFile> next = it.next();
+            if (next.getKey().equals(keep))
+                continue;
+            it.remove();
+            bytes -= next.getValue().size;
+            delete(next.getValue().file);
+            evictions++;
+        }
+    }
+
+    private void remove(String id) {
+        CachedFile entry = entries.remove(id);
+        if (entry != null) {
+            bytes -= entry.size;
+            delete(entry.file);
+        }
+    }
+
+    /**
+     * Readers which still map the file keep its content, the name is gone at once on unix systems.
+     */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Cannot delete cached content " + file, e);
+        }
+    }
+
+    /**
+     * Creates the sub directory with its marker or deletes the files the cache left in it. A sub directory without
+     * marker is not the cache's, it is left alone and the cache refuses to start.
+     */
+    private void prepareDirectory() {
+        Path marker = directory.resolve(MARKER);
+        try {
+            if (Files.isDirectory(directory) && !Files.exists(marker))
+                throw new IllegalStateException(directory + " exists but was not created by the content cache.");
+            Files.createDirectories(directory);
+            if (!Files.exists(marker))
+                Files.createFile(marker);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, ContentCache::isCacheFile)) {
+                for (Path file : files) {
+                    delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot prepare content cache directory " + directory, e);
+        }
+    }
+
+    private static boolean isCacheFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.matches("[0-9a-f]{64}") || (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX));
+    }
+
+    private static String fileName(String id, String version) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((id + '\n' + version).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedFile {
+        private final String version;
+        private final Path file;
+        private final long size;
+
+        CachedFile(String version, Path file, long size) {
+            this.version = version;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.cache;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of documents or folders without content, shared by all requests.
+ * <p>
+ * The least recently used entries are evicted once the cached entries weigh more than
+ * {@link Configuration#getMetadataCacheSize()}, a document weighs one and a folder tree the number of its folders and
+ * files. Entries expire after {@link Configuration#getMetadataCacheTtl()} seconds. Handlers which learn the current
+ * state of an entry, e.g. from a listing or a change notification, call {@link #validate(String, DocumentEntry)} and
+ * the entry is dropped if its modification times differ. An entry can be put with a version, e.g. a change token,
+ * which {@link #get(String, Supplier)} compares with the current one before it returns the entry.
+ * <p>
+ * Every backend has caches of its own, see {@link Backend}, so smb paths and cmis ids never meet.
+ * <p>
+ * Documents are copied on the way in and out. Copying a folder tree costs as much as it saves, so the cached trees are
+ * handed out themselves and must not be changed, neither by the caller who put them nor by those who get them.
+ *
+ * @param <T> {@link DocumentFile} or {@link DocumentFolder}
+ */
+public class MetadataCache<T extends DocumentEntry> {
+
+    private static final EnumMap<Backend, MetadataCache<DocumentFile>> documents = new EnumMap<>(Backend.class);
+    private static final EnumMap<Backend, MetadataCache<DocumentFolder>> folders = new EnumMap<>(Backend.class);
+
+    private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final UnaryOperator<T> copier;
+    private final ToIntFunction<T> weigher;
+    private final int maxWeight;
+    private final long ttlMillis;
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    /**
+     * @param copier     Copies an entry, see {@link DocumentFile#copy()}, or hands it out as it is
+     * @param weigher    Weight of an entry
+     * @param maxWeight  Total weight of the entries, 0 disables the cache
+     * @param ttlSeconds Seconds an entry is valid, 0 to keep it until it is evicted or invalidated
+     */
+    public MetadataCache(UnaryOperator<T> copier, ToIntFunction<T> weigher, int maxWeight, int ttlSeconds) {
+        this.copier = copier;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * @return The cache of the documents of the backend, keyed by document id
+     */
+    public static synchronized MetadataCache<DocumentFile> documents(Backend backend) {
+        return documents.computeIfAbsent(backend, b -> new MetadataCache<>(DocumentFile::copy, document -> 1,
+                Configuration.getMetadataCacheSize(), Configuration.getMetadataCacheTtl()));
+    }
+
+    /**
+     * @return The cache of the folder trees of the backend, keyed by folder id. The trees are not copied.
+     */
+    public static synchronized MetadataCache<DocumentFolder> folders(Backend backend) {
+        return folders.computeIfAbsent(backend, b -> new MetadataCache<>(UnaryOperator.identity(),
+                MetadataCache::countNodes, Configuration.getMetadataCacheSize(), Configuration.getMetadataCacheTtl()));
+    }
+
+    /**
+     * Key of a cmis object, the version label of a versioned id like "abc;1.0" is cut off, so all versions of a
+     * document share one entry. The version an entry belongs to is checked with its change token.
+     */
+    public static String cmisKey(String objectId) {
+        int i = objectId.indexOf(';');
+        return i < 0 ? objectId : objectId.substring(0, i);
+    }
+
+    /**
+     * @return Number of folders and files of the tree, the folder itself included
+     */
+    static int countNodes(DocumentFolder folder) {
+        int nodes = 0;
+        Deque<DocumentFolder> pending = new ArrayDeque<>();
+        pending.push(folder);
+        while (!pending.isEmpty()) {
+            DocumentFolder next = pending.pop();
+            nodes += 1 + next.getDocumentList().size();
+            for (DocumentFolder child : next.getFolderList()) {
+                pending.push(child);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @param id Id of the entry
+     *
+     * @return The cached entry, copied for documents, or null if it is not cached or expired
+     */
+    public T get(String id) {
+        return get(id, null);
+    }
+
+    /**
+     * Like {@link #get(String)}, but a hit is only returned if it was put with the current version. Otherwise it is
+     * dropped.
+     *
+     * @param id      Id of the entry
+     * @param version Loads the current version on a hit, may be null to skip the check
+     *
+     * @return The cached entry, copied for documents, or null if it is not cached, expired or outdated
+     */
+    public T get(String id, Supplier<String> version) {
+        Entry<T> hit;
+        synchronized (this) {
+            Entry<T> entry = entries.get(id);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            if (ttlMillis > 0 && System.currentTimeMillis() - entry.created > ttlMillis) {
+                remove(id);
+                expirations++;
+                misses++;
+                return null;
+            }
+            hit = entry;
+        }
+        // Asked without the lock, the server may take a while
+        if (version != null && !Objects.equals(hit.version, version.get())) {
+            synchronized (this) {
+                if (entries.get(id) == hit && remove(id))
+                    invalidations++;
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return copier.apply(hit.value);
+    }
+
+    /**
+     * Caches the entry, documents are copied. Entries which weigh more than the whole cache are not cached.
+     *
+     * @param id    Id of the entry
+     * @param value The loaded entry, null is not cached
+     */
+    public void put(String id, T value) {
+        put(id, value, null);
+    }
+
+    /**
+     * Caches the entry with its version, see {@link #get(String, Supplier)}.
+     *
+     * @param version Version of the entry when it was loaded, e.g. the change token
+     */
+    public void put(String id, T value, String version) {
+        if (maxWeight <= 0 || id == null || value == null)
+            return;
+        int entryWeight = weigher.applyAsInt(value);
+        if (entryWeight > maxWeight)
+            return;
+        T copy = copier.apply(value);
+        synchronized (this) {
+            remove(id);
+            entries.put(id, new Entry<>(copy, version, entryWeight, System.currentTimeMillis()));
+            weight += entryWeight;
+            Iterator<Entry<T>> it = entries.values().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                weight -= it.next().weight;
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached entry if its modification times differ from those of the current state.
+     *
+     * @param id      Id the entry is cached with
+     * @param current The current state of the entry
+     */
+    public synchronized void validate(String id, DocumentEntry current) {
+        Entry<T> entry = entries.get(id);
+        if (entry == null)
+            return;
+        if (!sameTime(entry.value.getLastModified(), current.getLastModified())
+                || !sameTime(entry.value.getChangeTime(), current.getChangeTime())) {
+            remove(id);
+            invalidations++;
+        }
+    }
+
+    public synchronized void invalidate(String id) {
+        if (remove(id))
+            invalidations++;
+    }
+
+    /**
+     * Drops the entry of a path and of all folders above it, e.g. after a change below a cached folder tree.
+     *
+     * @param path Path with "/" as separator, the root is ""
+     */
+    public synchronized void invalidatePath(String path) {
+        invalidate(path);
+        for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+            invalidate(path.substring(0, i));
+        }
+        invalidate("");
+        invalidate("root");
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations += entries.size();
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return Snapshot of the hit and miss counters
+     */
+    public synchronized Stats getStats() {
+        return new Stats(entries.size(), weight, hits, misses, evictions, expirations, invalidations);
+    }
+
+    private boolean remove(String id) {
+        Entry<T> entry = entries.remove(id);
+        if (entry == null)
+            return false;
+        weight -= entry.weight;
+        return true;
+    }
+
+    /**
+     * Only times known on both sides are compared, a listing may not know every time of an entry.
+     */
+    private static boolean sameTime(Date cached, Date current) {
+        return cached == null || current == null || Objects.equals(cached, current);
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final String version;
+        private final int weight;
+        private final long created;
+
+        Entry(T value, String version, int weight, long created) {
+            this.value = value;
+            this.version = version;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Backends with caches of their own.
+     */
+    public enum Backend {SMB, CMIS}
+
+    /**
+     * Counters of a {@link MetadataCache}.
+     */
+    public static class Stats {
+        private final int size;
+        private final long weight;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+
+        Stats(int size, long weight, long hits, long misses, long evictions, long expirations, long invalidations) {
+            this.size = size;
+            this.weight = weight;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{size=" + size + ", weight=" + weight + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", expirations=" + expirations + ", invalidations=" + invalidations + '}';
+        }
+    }
+}
@@ -18,6 +18,7 @@ package de.iisys.smbcmis.extern.config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -40,6 +41,20 @@ public class Configuration {
     private static String cmisHost;
     private static String cmisPassword;
 
+    private static int cmisTreeDepth;
+    private static int cmisPageSize;
+    private static int cmisTreeParallelism;
+    private static String cmisSearchRoot;
+    private static boolean cmisTreeCache;
+    private static int cmisSyncInterval;
+    private static int cmisFullReloadInterval;
+    private static int cmisCacheObjects;
+    private static int cmisCachePaths;
+    private static int cmisCacheTtl;
+    private static int cmisKeepAlive;
+    private static int cmisUploadChunkSize;
+    private static int cmisUploadRetries;
+
     private static String smbUser;
     private static String smbPassword;
     private static String smbHost;
@@ -47,6 +62,43 @@ public class Configuration {
     private static String smbSystem;
     private static String smbDomain;
 
+    private static int smbPoolSize;
+    private static int smbPoolIdleTimeout;
+    private static int smbPoolBorrowTimeout;
+    private static int smbPoolValidateAfter;
+    private static int smbWriteParallelism;
+    private static int smbCrawlShares;
+    private static int smbCrawlRequestsPerShare;
+    private static int smbIndexMaxAge;
+    private static SmbWatchMode smbWatchMode;
+    private static int smbWatchBufferSize;
+    private static int smbWatchMaxFolders;
+
+    private static int smbReadAhead;
+    private static String smbDialects;
+    private static boolean smbSigningRequired;
+    private static int smbReadBufferSize;
+    private static int smbWriteBufferSize;
+    private static int smbTimeout;
+    private static int smbSoTimeout;
+
+    private static AsyncExecutorType asyncExecutor;
+    private static int asyncThreads;
+
+    private static int metadataCacheSize;
+    private static int metadataCacheTtl;
+    private static String contentCacheDir;
+    private static int contentCacheSize;
+
+    private static int mirrorParallelism;
+    private static MirrorCompare mirrorCompare;
+
+    private static MetricsType metrics;
+
+    private static String localRoot;
+    private static int localMapThreshold;
+    private static int localIndexMaxAge;
+
     private static String[] ignoredResources;
     private static SearchForMachineAndOrderStrategy searchStrategy;
     private static String[] searchPattern;
@@ -55,7 +107,6 @@ public class Configuration {
 
 
     static {
-        System.out.println("STATIC");
         if (!loaded) {
             loadConfig();
         }
@@ -64,6 +115,19 @@ public class Configuration {
 	
     public static void loadConfig() {
 		//Todo: needs to be outsourced to config file
+        cmisTreeDepth = 4;
+        cmisPageSize = 1000;
+        cmisTreeParallelism = 4;
+        cmisTreeCache = true;
+        cmisSyncInterval = 30;
+        cmisFullReloadInterval = 3600;
+        cmisCacheObjects = 1000;
+        cmisCachePaths = 1000;
+        cmisCacheTtl = 600;
+        cmisKeepAlive = 300;
+        cmisUploadChunkSize = 8;
+        cmisUploadRetries = 3;
+
         smbUser = "your-user";
         smbPassword = "your-password";
         smbHost = "your-host";
@@ -71,6 +135,43 @@ public class Configuration {
         smbSystem = "WINDOWS";
         smbDomain = "your-domain";
 
+        smbPoolSize = 8;
+        smbPoolIdleTimeout = 300;
+        smbPoolBorrowTimeout = 30;
+        smbPoolValidateAfter = 60;
+        smbWriteParallelism = 4;
+        smbCrawlShares = 2;
+        smbCrawlRequestsPerShare = 4;
+        smbIndexMaxAge = 600;
+        smbWatchMode = SmbWatchMode.NONE;
+        smbWatchBufferSize = 65536;
+        smbWatchMaxFolders = 16;
+
+        smbReadAhead = 4;
+        smbDialects = "";
+        smbSigningRequired = false;
+        smbReadBufferSize = 0;
+        smbWriteBufferSize = 0;
+        smbTimeout = 0;
+        smbSoTimeout = 0;
+
+        asyncExecutor = AsyncExecutorType.FIXED;
+        asyncThreads = 16;
+
+        metadataCacheSize = 10000;
+        metadataCacheTtl = 300;
+        contentCacheDir = System.getProperty("java.io.tmpdir") + File.separator + "smbcmis-content";
+        contentCacheSize = 512;
+
+        mirrorParallelism = 4;
+        mirrorCompare = MirrorCompare.SIZE_AND_DATE;
+
+        metrics = MetricsType.NONE;
+
+        localRoot = "";
+        localMapThreshold = 1024;
+        localIndexMaxAge = 600;
+
         ignoredResources =  new String[2];
         ignoredResources[0] = ".DS_Store";
         ignoredResources[1] = "._";
@@ -122,6 +223,51 @@ public class Configuration {
             smbSystem = doc.getElementsByTagName("system").item(0).getTextContent();
             ignoredResources = doc.getElementsByTagName("ignored-resources").item(0).getTextContent().split(" ");
 
+            // Optional pool settings, the defaults from loadConfig() stay if a tag is missing
+            smbPoolSize = Integer.parseInt(getOptionalValue(doc, "pool-size", String.valueOf(smbPoolSize)));
+            smbPoolIdleTimeout = Integer.parseInt(getOptionalValue(doc, "pool-idle-timeout", String.valueOf(smbPoolIdleTimeout)));
+            smbPoolBorrowTimeout = Integer.parseInt(getOptionalValue(doc, "pool-borrow-timeout", String.valueOf(smbPoolBorrowTimeout)));
+            smbPoolValidateAfter = Integer.parseInt(getOptionalValue(doc, "pool-validate-after", String.valueOf(smbPoolValidateAfter)));
+            smbWriteParallelism = Integer.parseInt(getOptionalValue(doc, "write-parallelism", String.valueOf(smbWriteParallelism)));
+            smbCrawlShares = Integer.parseInt(getOptionalValue(doc, "crawl-shares", String.valueOf(smbCrawlShares)));
+            smbCrawlRequestsPerShare = Integer.parseInt(getOptionalValue(doc, "crawl-requests-per-share", String.valueOf(smbCrawlRequestsPerShare)));
+            smbIndexMaxAge = Integer.parseInt(getOptionalValue(doc, "index-max-age", String.valueOf(smbIndexMaxAge)));
+            smbWatchMode = SmbWatchMode.valueOf(getOptionalValue(doc, "watch-mode", smbWatchMode.name()));
+            smbWatchBufferSize = Integer.parseInt(getOptionalValue(doc, "watch-buffer-size", String.valueOf(smbWatchBufferSize)));
+            smbWatchMaxFolders = Integer.parseInt(getOptionalValue(doc, "watch-max-folders", String.valueOf(smbWatchMaxFolders)));
+            smbReadAhead = Integer.parseInt(getOptionalValue(doc, "read-ahead", String.valueOf(smbReadAhead)));
+            smbDialects = getOptionalValue(doc, "dialects", smbDialects);
+            smbSigningRequired = Boolean.parseBoolean(getOptionalValue(doc, "signing-required", String.valueOf(smbSigningRequired)));
+            smbReadBufferSize = Integer.parseInt(getOptionalValue(doc, "read-buffer-size", String.valueOf(smbReadBufferSize)));
+            smbWriteBufferSize = Integer.parseInt(getOptionalValue(doc, "write-buffer-size", String.valueOf(smbWriteBufferSize)));
+            smbTimeout = Integer.parseInt(getOptionalValue(doc, "timeout", String.valueOf(smbTimeout)));
+            smbSoTimeout = Integer.parseInt(getOptionalValue(doc, "so-timeout", String.valueOf(smbSoTimeout)));
+            cmisTreeDepth = Integer.parseInt(getOptionalValue(doc, "cmis-tree-depth", String.valueOf(cmisTreeDepth)));
+            cmisPageSize = Integer.parseInt(getOptionalValue(doc, "cmis-page-size", String.valueOf(cmisPageSize)));
+            cmisTreeParallelism = Integer.parseInt(getOptionalValue(doc, "cmis-tree-parallelism", String.valueOf(cmisTreeParallelism)));
+            cmisSearchRoot = getOptionalValue(doc, "cmis-search-root", cmisSearchRoot);
+            cmisTreeCache = Boolean.parseBoolean(getOptionalValue(doc, "cmis-tree-cache", String.valueOf(cmisTreeCache)));
+            cmisSyncInterval = Integer.parseInt(getOptionalValue(doc, "cmis-sync-interval", String.valueOf(cmisSyncInterval)));
+            cmisFullReloadInterval = Integer.parseInt(getOptionalValue(doc, "cmis-full-reload-interval", String.valueOf(cmisFullReloadInterval)));
+            cmisCacheObjects = Integer.parseInt(getOptionalValue(doc, "cmis-cache-objects", String.valueOf(cmisCacheObjects)));
+            cmisCachePaths = Integer.parseInt(getOptionalValue(doc, "cmis-cache-paths", String.valueOf(cmisCachePaths)));
+            cmisCacheTtl = Integer.parseInt(getOptionalValue(doc, "cmis-cache-ttl", String.valueOf(cmisCacheTtl)));
+            cmisKeepAlive = Integer.parseInt(getOptionalValue(doc, "cmis-keep-alive", String.valueOf(cmisKeepAlive)));
+            cmisUploadChunkSize = Integer.parseInt(getOptionalValue(doc, "cmis-upload-chunk-size", String.valueOf(cmisUploadChunkSize)));
+            cmisUploadRetries = Integer.parseInt(getOptionalValue(doc, "cmis-upload-retries", String.valueOf(cmisUploadRetries)));
+            asyncExecutor = AsyncExecutorType.valueOf(getOptionalValue(doc, "async-executor", asyncExecutor.name()));
+            asyncThreads = Integer.parseInt(getOptionalValue(doc, "async-threads", String.valueOf(asyncThreads)));
+            metadataCacheSize = Integer.parseInt(getOptionalValue(doc, "metadata-cache-size", String.valueOf(metadataCacheSize)));
+            metadataCacheTtl = Integer.parseInt(getOptionalValue(doc, "metadata-cache-ttl", String.valueOf(metadataCacheTtl)));
+            contentCacheDir = getOptionalValue(doc, "content-cache-dir", contentCacheDir);
+            contentCacheSize = Integer.parseInt(getOptionalValue(doc, "content-cache-size", String.valueOf(contentCacheSize)));
+            mirrorParallelism = Integer.parseInt(getOptionalValue(doc, "mirror-parallelism", String.valueOf(mirrorParallelism)));
+            mirrorCompare = MirrorCompare.valueOf(getOptionalValue(doc, "mirror-compare", mirrorCompare.name()));
+            metrics = MetricsType.valueOf(getOptionalValue(doc, "metrics", metrics.name()));
+            localRoot = getOptionalValue(doc, "local-root", localRoot);
+            localMapThreshold = Integer.parseInt(getOptionalValue(doc, "local-map-threshold", String.valueOf(localMapThreshold)));
+            localIndexMaxAge = Integer.parseInt(getOptionalValue(doc, "local-index-max-age", String.valueOf(localIndexMaxAge)));
+
             searchStrategy = SearchForMachineAndOrderStrategy.valueOf(doc.getElementsByTagName("search-strategy").item(0).getTextContent());
             String searchString = doc.getElementsByTagName("search-pattern").item(0).getTextContent();
             searchPattern = searchString.split("\n");
@@ -137,6 +283,22 @@ public class Configuration {
         }
     }
 
+    /**
+     * Reads an optional tag of the config file.
+     *
+     * @param doc          The parsed config file
+     * @param tagName      Name of the tag
+     * @param defaultValue Value which is used if the tag is not present
+     *
+     * @return The trimmed text content of the tag or the default value
+     */
+    private static String getOptionalValue(Document doc, String tagName, String defaultValue) {
+        NodeList nodes = doc.getElementsByTagName(tagName);
+        if (nodes.getLength() == 0)
+            return defaultValue;
+        return nodes.item(0).getTextContent().trim();
+    }
+
     public static String getCmisUser() {
         return cmisUser;
     }
@@ -161,6 +323,141 @@ public class Configuration {
         Configuration.cmisPassword = cmisPassword;
     }
 
+    public static int getCmisTreeDepth() {
+        return cmisTreeDepth;
+    }
+
+    public static void setCmisTreeDepth(int cmisTreeDepth) {
+        Configuration.cmisTreeDepth = cmisTreeDepth;
+    }
+
+    public static int getCmisPageSize() {
+        return cmisPageSize;
+    }
+
+    public static void setCmisPageSize(int cmisPageSize) {
+        Configuration.cmisPageSize = cmisPageSize;
+    }
+
+    public static int getCmisTreeParallelism() {
+        return cmisTreeParallelism;
+    }
+
+    public static void setCmisTreeParallelism(int cmisTreeParallelism) {
+        Configuration.cmisTreeParallelism = cmisTreeParallelism;
+    }
+
+    /**
+     * @return Id of the cmis folder the searches are restricted to, null for the whole repository
+     */
+    public static String getCmisSearchRoot() {
+        return cmisSearchRoot;
+    }
+
+    public static void setCmisSearchRoot(String cmisSearchRoot) {
+        Configuration.cmisSearchRoot = cmisSearchRoot;
+    }
+
+    /**
+     * @return True if the cmis tree is cached and synchronized instead of loaded on every request
+     */
+    public static boolean isCmisTreeCache() {
+        return cmisTreeCache;
+    }
+
+    public static void setCmisTreeCache(boolean cmisTreeCache) {
+        Configuration.cmisTreeCache = cmisTreeCache;
+    }
+
+    /**
+     * @return Seconds between two synchronizations of the cached cmis tree, 0 to synchronize on every request
+     */
+    public static int getCmisSyncInterval() {
+        return cmisSyncInterval;
+    }
+
+    public static void setCmisSyncInterval(int cmisSyncInterval) {
+        Configuration.cmisSyncInterval = cmisSyncInterval;
+    }
+
+    /**
+     * @return Seconds after which the cached cmis tree is loaded again completely if the repository has no change
+     * log, 0 to never reload it
+     */
+    public static int getCmisFullReloadInterval() {
+        return cmisFullReloadInterval;
+    }
+
+    public static void setCmisFullReloadInterval(int cmisFullReloadInterval) {
+        Configuration.cmisFullReloadInterval = cmisFullReloadInterval;
+    }
+
+    /**
+     * @return Number of objects the shared cmis session caches
+     */
+    public static int getCmisCacheObjects() {
+        return cmisCacheObjects;
+    }
+
+    public static void setCmisCacheObjects(int cmisCacheObjects) {
+        Configuration.cmisCacheObjects = cmisCacheObjects;
+    }
+
+    /**
+     * @return Number of path to id mappings the shared cmis session caches
+     */
+    public static int getCmisCachePaths() {
+        return cmisCachePaths;
+    }
+
+    public static void setCmisCachePaths(int cmisCachePaths) {
+        Configuration.cmisCachePaths = cmisCachePaths;
+    }
+
+    /**
+     * @return Seconds objects and paths stay in the cache of the shared cmis session
+     */
+    public static int getCmisCacheTtl() {
+        return cmisCacheTtl;
+    }
+
+    public static void setCmisCacheTtl(int cmisCacheTtl) {
+        Configuration.cmisCacheTtl = cmisCacheTtl;
+    }
+
+    /**
+     * @return Seconds after which an idle cmis session is pinged, 0 disables the keep-alive
+     */
+    public static int getCmisKeepAlive() {
+        return cmisKeepAlive;
+    }
+
+    public static void setCmisKeepAlive(int cmisKeepAlive) {
+        Configuration.cmisKeepAlive = cmisKeepAlive;
+    }
+
+    /**
+     * @return Megabytes per upload request, larger files are appended chunk by chunk
+     */
+    public static int getCmisUploadChunkSize() {
+        return cmisUploadChunkSize;
+    }
+
+    public static void setCmisUploadChunkSize(int cmisUploadChunkSize) {
+        Configuration.cmisUploadChunkSize = cmisUploadChunkSize;
+    }
+
+    /**
+     * @return Number of times a failed upload chunk is sent again
+     */
+    public static int getCmisUploadRetries() {
+        return cmisUploadRetries;
+    }
+
+    public static void setCmisUploadRetries(int cmisUploadRetries) {
+        Configuration.cmisUploadRetries = cmisUploadRetries;
+    }
+
     public static String getSmbUser() {
         return smbUser;
     }
@@ -209,6 +506,319 @@ public class Configuration {
         Configuration.smbDomain = smbDomain;
     }
 
+    public static int getSmbPoolSize() {
+        return smbPoolSize;
+    }
+
+    public static void setSmbPoolSize(int smbPoolSize) {
+        Configuration.smbPoolSize = smbPoolSize;
+    }
+
+    public static int getSmbPoolIdleTimeout() {
+        return smbPoolIdleTimeout;
+    }
+
+    public static void setSmbPoolIdleTimeout(int smbPoolIdleTimeout) {
+        Configuration.smbPoolIdleTimeout = smbPoolIdleTimeout;
+    }
+
+    public static int getSmbPoolBorrowTimeout() {
+        return smbPoolBorrowTimeout;
+    }
+
+    public static void setSmbPoolBorrowTimeout(int smbPoolBorrowTimeout) {
+        Configuration.smbPoolBorrowTimeout = smbPoolBorrowTimeout;
+    }
+
+    public static int getSmbPoolValidateAfter() {
+        return smbPoolValidateAfter;
+    }
+
+    public static void setSmbPoolValidateAfter(int smbPoolValidateAfter) {
+        Configuration.smbPoolValidateAfter = smbPoolValidateAfter;
+    }
+
+    public static int getSmbWriteParallelism() {
+        return smbWriteParallelism;
+    }
+
+    public static void setSmbWriteParallelism(int smbWriteParallelism) {
+        Configuration.smbWriteParallelism = smbWriteParallelism;
+    }
+
+    public static int getSmbCrawlShares() {
+        return smbCrawlShares;
+    }
+
+    public static void setSmbCrawlShares(int smbCrawlShares) {
+        Configuration.smbCrawlShares = smbCrawlShares;
+    }
+
+    public static int getSmbCrawlRequestsPerShare() {
+        return smbCrawlRequestsPerShare;
+    }
+
+    public static void setSmbCrawlRequestsPerShare(int smbCrawlRequestsPerShare) {
+        Configuration.smbCrawlRequestsPerShare = smbCrawlRequestsPerShare;
+    }
+
+    /**
+     * @return Seconds after which the name index of the smb share is rebuilt with a new crawl, 0 to never rebuild it
+     */
+    public static int getSmbIndexMaxAge() {
+        return smbIndexMaxAge;
+    }
+
+    public static void setSmbIndexMaxAge(int smbIndexMaxAge) {
+        Configuration.smbIndexMaxAge = smbIndexMaxAge;
+    }
+
+    /**
+     * @return Whether the smb tree is cached and kept up to date with change notifications
+     */
+    public static SmbWatchMode getSmbWatchMode() {
+        return smbWatchMode;
+    }
+
+    public static void setSmbWatchMode(SmbWatchMode smbWatchMode) {
+        Configuration.smbWatchMode = smbWatchMode;
+    }
+
+    /**
+     * @return Size of the buffer the server collects change notifications in before it reports an overflow
+     */
+    public static int getSmbWatchBufferSize() {
+        return smbWatchBufferSize;
+    }
+
+    public static void setSmbWatchBufferSize(int smbWatchBufferSize) {
+        Configuration.smbWatchBufferSize = smbWatchBufferSize;
+    }
+
+    /**
+     * @return Max number of top-level folders with an own subscription in {@link SmbWatchMode#TOP_LEVEL}, with more
+     * folders the share is watched recursively
+     */
+    public static int getSmbWatchMaxFolders() {
+        return smbWatchMaxFolders;
+    }
+
+    public static void setSmbWatchMaxFolders(int smbWatchMaxFolders) {
+        Configuration.smbWatchMaxFolders = smbWatchMaxFolders;
+    }
+
+    /**
+     * @return Number of READ requests kept in flight while a large file is read, 1 reads one chunk after the other
+     */
+    public static int getSmbReadAhead() {
+        return smbReadAhead;
+    }
+
+    public static void setSmbReadAhead(int smbReadAhead) {
+        Configuration.smbReadAhead = smbReadAhead;
+    }
+
+    /**
+     * @return Comma separated smb dialects offered to the server, e.g. "SMB_3_0_2, SMB_2_1", empty for the smbj defaults
+     */
+    public static String getSmbDialects() {
+        return smbDialects;
+    }
+
+    public static void setSmbDialects(String smbDialects) {
+        Configuration.smbDialects = smbDialects;
+    }
+
+    /**
+     * @return True if every message has to be signed, otherwise signing is used if the server requires it
+     */
+    public static boolean isSmbSigningRequired() {
+        return smbSigningRequired;
+    }
+
+    public static void setSmbSigningRequired(boolean smbSigningRequired) {
+        Configuration.smbSigningRequired = smbSigningRequired;
+    }
+
+    /**
+     * @return Kilobytes of the largest READ request, further limited by the server; 0 for the smbj default
+     */
+    public static int getSmbReadBufferSize() {
+        return smbReadBufferSize;
+    }
+
+    public static void setSmbReadBufferSize(int smbReadBufferSize) {
+        Configuration.smbReadBufferSize = smbReadBufferSize;
+    }
+
+    /**
+     * @return Kilobytes of the largest WRITE request, further limited by the server; 0 for the smbj default
+     */
+    public static int getSmbWriteBufferSize() {
+        return smbWriteBufferSize;
+    }
+
+    public static void setSmbWriteBufferSize(int smbWriteBufferSize) {
+        Configuration.smbWriteBufferSize = smbWriteBufferSize;
+    }
+
+    /**
+     * @return Seconds to wait for the answer of a read, write or transact request; 0 for the smbj default
+     */
+    public static int getSmbTimeout() {
+        return smbTimeout;
+    }
+
+    public static void setSmbTimeout(int smbTimeout) {
+        Configuration.smbTimeout = smbTimeout;
+    }
+
+    /**
+     * @return Socket timeout in seconds, 0 for none
+     */
+    public static int getSmbSoTimeout() {
+        return smbSoTimeout;
+    }
+
+    public static void setSmbSoTimeout(int smbSoTimeout) {
+        Configuration.smbSoTimeout = smbSoTimeout;
+    }
+
+    /**
+     * @return Executor the asynchronous handler methods run on, see {@link HandlerExecutor}
+     */
+    public static AsyncExecutorType getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public static void setAsyncExecutor(AsyncExecutorType asyncExecutor) {
+        Configuration.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @return Number of threads of the FIXED executor
+     */
+    public static int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public static void setAsyncThreads(int asyncThreads) {
+        Configuration.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * @return Number of documents and of folders and files of the folder trees kept by the
+     * {@link de.iisys.smbcmis.extern.cache.MetadataCache}, 0 disables it
+     */
+    public static int getMetadataCacheSize() {
+        return metadataCacheSize;
+    }
+
+    public static void setMetadataCacheSize(int metadataCacheSize) {
+        Configuration.metadataCacheSize = metadataCacheSize;
+    }
+
+    /**
+     * @return Seconds an entry of the metadata cache is valid, 0 to keep it until it is evicted or invalidated. A
+     * cached folder tree is checked against the times or change token of its top folder only, changes deeper in the
+     * tree by other clients are seen after this time at the latest
+     */
+    public static int getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    public static void setMetadataCacheTtl(int metadataCacheTtl) {
+        Configuration.metadataCacheTtl = metadataCacheTtl;
+    }
+
+    /**
+     * @return Directory of the {@link de.iisys.smbcmis.extern.cache.ContentCache}, the cache keeps its files in a sub
+     * directory of it which is emptied on start
+     */
+    public static String getContentCacheDir() {
+        return contentCacheDir;
+    }
+
+    public static void setContentCacheDir(String contentCacheDir) {
+        Configuration.contentCacheDir = contentCacheDir;
+    }
+
+    /**
+     * @return Megabytes of content cached on the local disk, 0 disables the content cache
+     */
+    public static int getContentCacheSize() {
+        return contentCacheSize;
+    }
+
+    public static void setContentCacheSize(int contentCacheSize) {
+        Configuration.contentCacheSize = contentCacheSize;
+    }
+
+    /**
+     * @return Number of documents the {@link de.iisys.smbcmis.extern.mirror.SMBToCMISMirror} transfers at the same
+     * time, each holds a share of the smb pool
+     */
+    public static int getMirrorParallelism() {
+        return mirrorParallelism;
+    }
+
+    public static void setMirrorParallelism(int mirrorParallelism) {
+        Configuration.mirrorParallelism = mirrorParallelism;
+    }
+
+    public static MirrorCompare getMirrorCompare() {
+        return mirrorCompare;
+    }
+
+    public static void setMirrorCompare(MirrorCompare mirrorCompare) {
+        Configuration.mirrorCompare = mirrorCompare;
+    }
+
+    /**
+     * @return Where round trips, latencies and bytes of the backends are recorded, read once on first use, see
+     * {@link de.iisys.smbcmis.extern.metrics.Metrics}
+     */
+    public static MetricsType getMetrics() {
+        return metrics;
+    }
+
+    public static void setMetrics(MetricsType metrics) {
+        Configuration.metrics = metrics;
+    }
+
+    /**
+     * @return Directory the LOCAL handlers serve, e.g. the mount point of the share; ids are relative to it
+     */
+    public static String getLocalRoot() {
+        return localRoot;
+    }
+
+    public static void setLocalRoot(String localRoot) {
+        Configuration.localRoot = localRoot;
+    }
+
+    /**
+     * @return Kilobytes from which the LOCAL handlers read files memory-mapped instead of through a heap buffer
+     */
+    public static int getLocalMapThreshold() {
+        return localMapThreshold;
+    }
+
+    public static void setLocalMapThreshold(int localMapThreshold) {
+        Configuration.localMapThreshold = localMapThreshold;
+    }
+
+    /**
+     * @return Seconds after which the name index of the LOCAL handlers is rebuilt with a new walk, 0 to never rebuild it
+     */
+    public static int getLocalIndexMaxAge() {
+        return localIndexMaxAge;
+    }
+
+    public static void setLocalIndexMaxAge(int localIndexMaxAge) {
+        Configuration.localIndexMaxAge = localIndexMaxAge;
+    }
+
     public static String[] getIgnoredResources() {
         return ignoredResources;
     }
@@ -233,5 +843,35 @@ public class Configuration {
         Configuration.searchPattern = searchPattern;
     }
 
+    /**
+     * FILENAME returns the matching files of all sub folders. FOLDER and FOLDER_AND_FILENAME return every matching
+     * folder which is not within another matching folder; earlier versions stopped at the first match of a folder
+     * level, which depended on the listing order of the backend.
+     */
     public enum SearchForMachineAndOrderStrategy {FOLDER, FOLDER_AND_FILENAME, FILENAME}
+
+    /**
+     * NONE crawls the share on every request, RECURSIVE watches the whole share with one subscription and TOP_LEVEL
+     * with one subscription per top-level folder, so an overflow only re-lists that folder. Shares with more than
+     * {@link #getSmbWatchMaxFolders()} top-level folders are watched like RECURSIVE.
+     */
+    public enum SmbWatchMode {NONE, RECURSIVE, TOP_LEVEL}
+
+    /**
+     * FIXED runs the calls on a pool with {@link #getAsyncThreads()} threads, CACHED on as many threads as calls are
+     * running and VIRTUAL on a virtual thread per call (Java 21 or newer).
+     */
+    public enum AsyncExecutorType {FIXED, CACHED, VIRTUAL}
+
+    /**
+     * How the mirror detects unchanged documents: SIZE compares the length only, SIZE_AND_DATE also requires the cmis
+     * document to be modified after the smb file and HASH compares the content hash of the repository with the hash of
+     * the streamed smb file. Repositories without cmis:contentStreamHash are compared by SIZE_AND_DATE.
+     */
+    public enum MirrorCompare {SIZE, SIZE_AND_DATE, HASH}
+
+    /**
+     * NONE records nothing, JMX publishes operation latencies and byte counters as MBeans of the platform server.
+     */
+    public enum MetricsType {NONE, JMX}
 }
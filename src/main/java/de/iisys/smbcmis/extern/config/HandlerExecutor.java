@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executor the asynchronous handler methods run on, see {@link Configuration#getAsyncExecutor()}.
+ * <p>
+ * The handler methods block while they wait for the server. With VIRTUAL every call gets a virtual thread, which
+ * costs no platform thread while it waits. Virtual threads are looked up by reflection, so the code still runs on
+ * Java 8; older JDKs fall back to FIXED. Another executor can be set with {@link #setExecutor(ExecutorService)}.
+ */
+public class HandlerExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(HandlerExecutor.class);
+
+    private static ExecutorService executor;
+
+    private HandlerExecutor() {
+    }
+
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createExecutor(Configuration.getAsyncExecutor(), Configuration.getAsyncThreads());
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the executor, e.g. with a managed executor of the application server. The previous executor is not
+     * shut down.
+     */
+    public static synchronized void setExecutor(ExecutorService executor) {
+        HandlerExecutor.executor = executor;
+    }
+
+    /**
+     * Runs the call on the executor.
+     *
+     * @param call The blocking call
+     *
+     * @return Future which is completed with the result of the call or the exception it threw
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, getExecutor());
+    }
+
+    /**
+     * Shuts down the executor, running calls are finished. The next call creates a new one.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static ExecutorService createExecutor(Configuration.AsyncExecutorType type, int threads) {
+        switch (type) {
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null)
+                    return virtual;
+                logger.warn("Virtual threads need Java 21 or newer, using a fixed thread pool.");
+                return Executors.newFixedThreadPool(Math.max(1, threads), daemonThreads());
+            case CACHED:
+                return Executors.newCachedThreadPool(daemonThreads());
+            case FIXED:
+            default:
+                return Executors.newFixedThreadPool(Math.max(1, threads), daemonThreads());
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.debug("No virtual threads available.", e);
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "handler-async-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Resolves the ids of the LOCAL handlers against {@link Configuration#getLocalRoot()}.
+ * <p>
+ * Ids are the same as for the smb share: the path relative to the root with "/" as separator, with or without a
+ * leading "/". Ids which point outside of the root, e.g. with "..", are rejected.
+ */
+public class LocalFileSystem {
+
+    private LocalFileSystem() {
+    }
+
+    /**
+     * @return The configured root directory, absolute and normalized
+     *
+     * @throws IllegalStateException If no root is configured
+     */
+    public static Path getRoot() {
+        String root = Configuration.getLocalRoot();
+        if (root == null || root.trim().isEmpty())
+            throw new IllegalStateException("No local-root configured.");
+        return Paths.get(root.trim()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * @param id Id of a file or folder, "" or "/" for the root
+     *
+     * @return The path of the file or folder
+     *
+     * @throws IllegalArgumentException If the id points outside of the root
+     */
+    public static Path resolve(String id) {
+        Path root = getRoot();
+        String relative = toRelativePath(id);
+        Path path = relative.isEmpty() ? root : root.resolve(relative).normalize();
+        if (!path.startsWith(root))
+            throw new IllegalArgumentException("Path outside of the local root: " + id);
+        return path;
+    }
+
+    /**
+     * @return The id without leading "/" and with "/" as separator
+     */
+    public static String toRelativePath(String id) {
+        String relative = id.replace('\\', '/');
+        while (relative.startsWith("/"))
+            relative = relative.substring(1);
+        return relative;
+    }
+}
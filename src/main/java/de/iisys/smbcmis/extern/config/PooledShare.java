@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.config;
+
+import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.DiskShare;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DiskShare} borrowed from the {@link SMB} pool. Closing it gives the share back to the pool,
+ * the underlying share, session and connection stay open.
+ */
+public class PooledShare implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PooledShare.class);
+
+    private final SMB pool;
+    private final DiskShare share;
+    private volatile long releasedAt = System.currentTimeMillis();
+    private volatile boolean borrowed;
+    private volatile boolean invalid;
+
+    PooledShare(SMB pool, DiskShare share) {
+        this.pool = pool;
+        this.share = share;
+    }
+
+    public DiskShare getShare() {
+        return share;
+    }
+
+    /**
+     * Marks the share as broken. It will be closed instead of given back to the pool.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    boolean isInvalid() {
+        return invalid;
+    }
+
+    boolean isConnected() {
+        return share.isConnected() && share.getTreeConnect().getSession().getConnection().isConnected();
+    }
+
+    long getIdleMillis() {
+        return System.currentTimeMillis() - releasedAt;
+    }
+
+    void markBorrowed() {
+        borrowed = true;
+    }
+
+    void markReleased() {
+        releasedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the share and logs off its session.
+     */
+    void destroy() {
+        Session session = share.getTreeConnect().getSession();
+        try {
+            share.close();
+        } catch (Exception e) {
+            logger.debug("Cannot close SMB share.", e);
+        }
+        try {
+            session.close();
+        } catch (Exception e) {
+            logger.debug("Cannot close SMB session.", e);
+        }
+    }
+
+    /**
+     * Gives the share back to the pool.
+     */
+    @Override
+    public void close() {
+        if (!borrowed)
+            return;
+        borrowed = false;
+        pool.release(this);
+    }
+}
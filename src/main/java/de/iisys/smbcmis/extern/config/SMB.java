@@ -16,40 +16,222 @@
 
 package de.iisys.smbcmis.extern.config;
 
+import com.hierynomus.mserref.NtStatus;
+import com.hierynomus.mssmb2.SMB2Dialect;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.protocol.transport.TransportException;
 import com.hierynomus.smbj.SMBClient;
 import com.hierynomus.smbj.SmbConfig;
 import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.connection.Connection;
 import com.hierynomus.smbj.session.Session;
 import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Holds the {@link SMBClient} and a pool of authenticated {@link DiskShare}s.
+ * <p>
+ * Connecting, authenticating and connecting the share is done once per pooled share, handlers borrow a share with
+ * {@link #borrowShare()} or {@link #withShare(ShareCallback)} and give it back afterwards. The pool is bounded by
+ * {@link Configuration#getSmbPoolSize()}, idle shares are closed after {@link Configuration#getSmbPoolIdleTimeout()}
+ * seconds and broken shares are replaced transparently.
+ */
 public class SMB {
+    private static final Logger logger = LoggerFactory.getLogger(SMB.class);
+
     private static SMB instance;
     private SMBClient client;
 
+    private final BlockingDeque<PooledShare> idleShares = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
     public SMB() {
-        SmbConfig cfg = SmbConfig.builder().build();
+        SmbConfig cfg = createConfig();
 
         client = new SMBClient(cfg);
+        permits = new Semaphore(Configuration.getSmbPoolSize(), true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smb-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, Configuration.getSmbPoolIdleTimeout() / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleShares, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Builds the client config from the transport profile of the {@link Configuration}, settings which are not set
+     * keep the smbj defaults.
+     */
+    static SmbConfig createConfig() {
+        SmbConfig.Builder builder = SmbConfig.builder()
+                .withSigningRequired(Configuration.isSmbSigningRequired());
+        List<SMB2Dialect> dialects = new ArrayList<>();
+        for (String dialect : Configuration.getSmbDialects().split(",")) {
+            if (!dialect.trim().isEmpty())
+                dialects.add(SMB2Dialect.valueOf(dialect.trim()));
+        }
+        if (!dialects.isEmpty())
+            builder.withDialects(dialects);
+        if (Configuration.getSmbReadBufferSize() > 0)
+            builder.withReadBufferSize(Configuration.getSmbReadBufferSize() * 1024);
+        if (Configuration.getSmbWriteBufferSize() > 0)
+            builder.withWriteBufferSize(Configuration.getSmbWriteBufferSize() * 1024);
+        if (Configuration.getSmbTimeout() > 0)
+            builder.withTimeout(Configuration.getSmbTimeout(), TimeUnit.SECONDS);
+        if (Configuration.getSmbSoTimeout() > 0)
+            builder.withSoTimeout(Configuration.getSmbSoTimeout(), TimeUnit.SECONDS);
+        SmbConfig config = builder.build();
+        logger.info("SMB dialects " + config.getSupportedDialects() + ", signing required " + config.isSigningRequired()
+                + ", read buffer " + config.getReadBufferSize() + ", write buffer " + config.getWriteBufferSize() + ".");
+        return config;
     }
 
-    public static SMB getInstance() {
+    public static synchronized SMB getInstance() {
         if (SMB.instance == null) {
             SMB.instance = new SMB();
         }
         return SMB.instance;
     }
 
-    public DiskShare getDiskshare() {
-        Connection connection = null;
+    /**
+     * Borrows a share from the pool. A new share is connected if no healthy idle share is available.
+     * The returned share has to be closed to give it back to the pool.
+     *
+     * @return A connected {@link PooledShare}
+     */
+    public PooledShare borrowShare() {
+        try {
+            if (!permits.tryAcquire(Configuration.getSmbPoolBorrowTimeout(), TimeUnit.SECONDS))
+                throw new SMBRuntimeException("No SMB share available after " + Configuration.getSmbPoolBorrowTimeout() + " seconds.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SMBRuntimeException("Interrupted while waiting for a SMB share.", e);
+        }
+
+        return takeShare();
+    }
+
+    /**
+     * Borrows a share from the pool without waiting.
+     *
+     * @return A connected {@link PooledShare} or null if all shares of the pool are borrowed
+     */
+    public PooledShare tryBorrowShare() {
+        if (!permits.tryAcquire())
+            return null;
+        return takeShare();
+    }
+
+    /**
+     * Takes a healthy idle share or connects a new one. The caller must hold a permit.
+     */
+    private PooledShare takeShare() {
+        try {
+            PooledShare pooled;
+            while ((pooled = idleShares.pollFirst()) != null) {
+                if (isHealthy(pooled)) {
+                    pooled.markBorrowed();
+                    return pooled;
+                }
+                logger.debug("Discard broken SMB share.");
+                pooled.destroy();
+            }
+            pooled = new PooledShare(this, connectShare());
+            pooled.markBorrowed();
+            return pooled;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the callback with a borrowed share. If the connection or session got lost the share is replaced
+     * and the callback is run once again. Other failures, e.g. a timeout or an error of the server, are thrown
+     * without a retry, the callback may have done its work already.
+     *
+     * @param callback Operation on the share
+     * @param <T>      Result type of the operation
+     *
+     * @return The result of the callback
+     */
+    public <T> T withShare(ShareCallback<T> callback) {
+        try (PooledShare pooled = borrowShare()) {
+            try {
+                return callback.doWithShare(pooled.getShare());
+            } catch (SMBRuntimeException e) {
+                if (!isConnectionLost(e, pooled))
+                    throw e;
+                logger.debug("SMB connection lost, reconnecting.", e);
+                pooled.invalidate();
+            }
+        }
+        try (PooledShare pooled = borrowShare()) {
+            return callback.doWithShare(pooled.getShare());
+        }
+    }
+
+    /**
+     * Gives a share back to the pool. Invalidated or disconnected shares are closed.
+     */
+    void release(PooledShare pooled) {
+        try {
+            if (!pooled.isInvalid() && pooled.isConnected()) {
+                pooled.markReleased();
+                idleShares.offerFirst(pooled);
+            } else {
+                pooled.destroy();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleShares.size();
+    }
+
+    public int getBorrowedCount() {
+        return Configuration.getSmbPoolSize() - permits.availablePermits();
+    }
+
+    /**
+     * Closes all idle shares and stops the eviction.
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        PooledShare pooled;
+        while ((pooled = idleShares.pollFirst()) != null) {
+            pooled.destroy();
+        }
+    }
+
+    private DiskShare connectShare() {
+        long start = Metrics.start();
+        Connection connection;
         try {
             connection = client.connect(Configuration.getSmbHost());
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new SMBRuntimeException("Cannot connect to " + Configuration.getSmbHost(), e);
         }
 
         AuthenticationContext ac = new AuthenticationContext(Configuration.getSmbUser(),Configuration.getSmbPassword().toCharArray(), Configuration.getSmbDomain());
@@ -57,8 +239,65 @@ public class SMB {
 
         // Connect to Share
         DiskShare share = (DiskShare) session.connectShare(Configuration.getSmbSharename());
+        Metrics.record(Metrics.SMB_CONNECT, start);
+        logger.debug("Connected new SMB share.");
+        return share;
+    }
 
+    /**
+     * Cheap local check on every borrow, a round trip to the server only if the share was idle for a while.
+     */
+    private boolean isHealthy(PooledShare pooled) {
+        if (!pooled.isConnected())
+            return false;
+        if (pooled.getIdleMillis() < TimeUnit.SECONDS.toMillis(Configuration.getSmbPoolValidateAfter()))
+            return true;
+        try {
+            pooled.getShare().getShareInformation();
+            return true;
+        } catch (SMBRuntimeException e) {
+            logger.debug("Health check of SMB share failed.", e);
+            return false;
+        }
+    }
 
-        return share;
+    private void evictIdleShares() {
+        long timeout = TimeUnit.SECONDS.toMillis(Configuration.getSmbPoolIdleTimeout());
+        Iterator<PooledShare> it = idleShares.descendingIterator();
+        while (it.hasNext()) {
+            PooledShare pooled = it.next();
+            if (pooled.getIdleMillis() > timeout && idleShares.removeFirstOccurrence(pooled)) {
+                logger.debug("Evict idle SMB share.");
+                pooled.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return True if the server dropped the session or tree, or the transport failed or is disconnected
+     */
+    private static boolean isConnectionLost(SMBRuntimeException e, PooledShare pooled) {
+        if (e instanceof SMBApiException) {
+            NtStatus status = ((SMBApiException) e).getStatus();
+            return status == NtStatus.STATUS_NETWORK_SESSION_EXPIRED
+                    || status == NtStatus.STATUS_USER_SESSION_DELETED
+                    || status == NtStatus.STATUS_NETWORK_NAME_DELETED
+                    || status == NtStatus.STATUS_CONNECTION_DISCONNECTED
+                    || status == NtStatus.STATUS_CONNECTION_RESET;
+        }
+        if (!pooled.isConnected())
+            return true;
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransportException || cause instanceof SocketException || cause instanceof EOFException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Operation which is executed with a borrowed {@link DiskShare}.
+     */
+    public interface ShareCallback<T> {
+        T doWithShare(DiskShare share);
     }
 }
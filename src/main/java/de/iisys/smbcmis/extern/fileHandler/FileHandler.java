@@ -18,8 +18,14 @@
 
 package de.iisys.smbcmis.extern.fileHandler;
 
+import de.iisys.smbcmis.extern.config.HandlerExecutor;
 import de.iisys.smbcmis.extern.model.DocumentFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface is used for all file entities
  */
@@ -38,6 +44,69 @@ public interface FileHandler {
      */
     DocumentFile getDocumentContent(String id);
 
+    /**
+     * Opens the content of a document as stream. Nothing is buffered beyond the read buffers, so this also works
+     * for big files. The caller has to close the stream.
+     * @param id ID of DocumentFile
+     * @return Stream with the content of the document
+     */
+    InputStream getContentStream(String id);
+
+    /**
+     * Copies the content of a document to the given stream with a constant amount of memory.
+     * The given stream is not closed.
+     * @param id ID of DocumentFile
+     * @param out Target of the content
+     * @return Number of bytes copied
+     * @throws IOException If reading the content or writing to the stream fails
+     */
+    long transferContent(String id, OutputStream out) throws IOException;
+
     boolean writeFile(String base64Content, String path);
     boolean writeFile(String base64Content, String path, String filename);
+
+    /**
+     * Writes the content of the stream to a file. Missing folders of the path are created.
+     * The content is written in chunks, so the memory needed does not depend on the file size.
+     * @param content Stream with the content, it is not closed
+     * @param path Path of the folder
+     * @param filename Name of the file
+     * @return True if the file was written
+     */
+    boolean writeFile(InputStream content, String path, String filename);
+
+    /**
+     * Runs {@link #getDocument(String)} on the {@link HandlerExecutor}.
+     * @param id ID of DocumentFile
+     * @return Future with the DocumentFile without content
+     */
+    default CompletableFuture<DocumentFile> getDocumentAsync(String id) {
+        return HandlerExecutor.supply(() -> getDocument(id));
+    }
+
+    /**
+     * Runs {@link #getDocumentContent(String)} on the {@link HandlerExecutor}.
+     * @param id ID of DocumentFile
+     * @return Future with the DocumentFile with content
+     */
+    default CompletableFuture<DocumentFile> getDocumentContentAsync(String id) {
+        return HandlerExecutor.supply(() -> getDocumentContent(id));
+    }
+
+    /**
+     * Runs {@link #writeFile(String, String, String)} on the {@link HandlerExecutor}.
+     * @return Future which is true if the file was written
+     */
+    default CompletableFuture<Boolean> writeFileAsync(String base64Content, String path, String filename) {
+        return HandlerExecutor.supply(() -> writeFile(base64Content, path, filename));
+    }
+
+    /**
+     * Runs {@link #writeFile(InputStream, String, String)} on the {@link HandlerExecutor}.
+     * The stream is read by another thread and must not be closed before the future is completed.
+     * @return Future which is true if the file was written
+     */
+    default CompletableFuture<Boolean> writeFileAsync(InputStream content, String path, String filename) {
+        return HandlerExecutor.supply(() -> writeFile(content, path, filename));
+    }
 }
@@ -18,24 +18,42 @@
 
 package de.iisys.smbcmis.extern.fileHandler;
 
-import de.iisys.smbcmis.extern.DocumentConnector;
+import de.iisys.smbcmis.extern.CMISSessionProvider;
+import de.iisys.smbcmis.extern.cache.CMISFolderCache;
+import de.iisys.smbcmis.extern.cache.ContentCache;
+import de.iisys.smbcmis.extern.cache.MetadataCache;
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.io.ChunkedCMISWriter;
+import de.iisys.smbcmis.extern.io.ContentStreams;
+import de.iisys.smbcmis.extern.metrics.Metrics;
 import de.iisys.smbcmis.extern.model.DocumentFile;
 import org.apache.chemistry.opencmis.client.api.CmisObject;
 import org.apache.chemistry.opencmis.client.api.Document;
 import org.apache.chemistry.opencmis.client.api.ObjectId;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
 import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.chemistry.opencmis.client.runtime.ObjectIdImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
 import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
-import org.apache.commons.codec.binary.Base64;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisUnauthorizedException;
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 
 /**
  * @author Alexander Schmid <alexander.schmid@hof-university.de>
@@ -49,7 +67,7 @@ public class FileHandlerForCMIS implements FileHandler {
     private static final Logger logger = LoggerFactory.getLogger(FileHandlerForCMIS.class);
 
     @Inject
-    private DocumentConnector documentConnector;
+    private CMISSessionProvider sessionProvider;
 
     /**
      * Loads the document without content as cmisObject from cmis-server with the given id. Converts it to {@link DocumentFile}.
@@ -58,19 +76,30 @@ public class FileHandlerForCMIS implements FileHandler {
      */
     @Override
     public DocumentFile getDocument(String id) {
-        logger.debug("Start loading document without content.");
-        DocumentFile document = new DocumentFile();
         logger.debug("Get cmis session.");
-        Session session = documentConnector.getSession();
+        return sessionProvider.withSession(session -> getDocument(session, id));
+    }
+
+    private DocumentFile getDocument(Session session, String id) {
+        DocumentFile document = MetadataCache.documents(MetadataCache.Backend.CMIS).get(MetadataCache.cmisKey(id),
+                () -> version(session.getObject(new ObjectIdImpl(id), createVersionContext(session))));
+        if (document != null)
+            return document;
+
+        logger.debug("Start loading document without content.");
+        document = new DocumentFile();
         ObjectId objectId = new ObjectIdImpl(id);
         logger.debug("Loading cmisObject from cmisSession.");
-        CmisObject cmisObject = session.getObject(objectId);
+        // Not from the session cache, the change token is cached with the document
+        CmisObject cmisObject = session.getObject(objectId, createUncachedContext(session));
         logger.debug("Converting cmisObject to DocumentFile.");
         Document rawDocument = getCmisObjectAsDocument(cmisObject);
         if(rawDocument == null) {
             logger.error("Loading cmisObject failed. Creating an empty document.");
         } else {
             document = loadMetadata(document, rawDocument);
+            MetadataCache.documents(MetadataCache.Backend.CMIS).put(MetadataCache.cmisKey(id), document,
+                    version(rawDocument));
         }
 
         logger.debug("End loading document without content.");
@@ -84,19 +113,24 @@ public class FileHandlerForCMIS implements FileHandler {
      */
     @Override
     public DocumentFile getDocumentContent(String id) {
+        logger.debug("Get cmis session.");
+        return sessionProvider.withSession(session -> getDocumentContent(session, id));
+    }
+
+    private DocumentFile getDocumentContent(Session session, String id) {
         logger.debug("Start loading document with content.");
         DocumentFile document = new DocumentFile();
-        logger.debug("Get cmis session.");
-        Session session = documentConnector.getSession();
         ObjectId objectId = new ObjectIdImpl(id);
         logger.debug("Loading cmisObject from cmisSession.");
-        CmisObject cmisObject = session.getObject(objectId);
+        // The change token decides if the cached content is current, so the object is not taken from the session cache
+        CmisObject cmisObject = session.getObject(objectId, createUncachedContext(session));
         logger.debug("Converting cmisObject to FullDocument.");
         Document rawDocument = getCmisObjectAsDocument(cmisObject);
         if(rawDocument == null) {
             logger.error("Loading cmisObject failed. Creating an empty document.");
         } else {
             document = loadMetadata(document, rawDocument);
+            MetadataCache.documents(MetadataCache.Backend.CMIS).validate(MetadataCache.cmisKey(id), document);
             document = loadContent(document, rawDocument);
         }
 
@@ -126,6 +160,9 @@ public class FileHandlerForCMIS implements FileHandler {
         }
         logger.debug("Setting id.");
         document.setId(rawDocument.getId());
+        document.setSize(rawDocument.getContentStreamLength());
+        if (rawDocument.getLastModificationDate() != null)
+            document.setLastModified(rawDocument.getLastModificationDate().getTime());
         logger.debug("End loading metadata for document.");
         return document;
     }
@@ -138,6 +175,16 @@ public class FileHandlerForCMIS implements FileHandler {
      */
     private DocumentFile loadContent(DocumentFile document, Document rawDocument) {
         logger.debug("Start loading content for document.");
+        Path cached = cachedContent(rawDocument);
+        if (cached != null) {
+            try {
+                document.setContent(ContentCache.getInstance().readBase64(cached));
+                logger.debug("End loading cached content for document.");
+                return document;
+            } catch (IOException e) {
+                logger.debug("Cannot read cached content of " + rawDocument.getId(), e);
+            }
+        }
         try {
             document.setContent(getContentAsBase64(rawDocument.getContentStream()));
         } catch (NullPointerException e) {
@@ -148,6 +195,74 @@ public class FileHandlerForCMIS implements FileHandler {
         return document;
     }
 
+    /**
+     * Looks the content up in the {@link ContentCache}, on a miss it is downloaded into the cache. The version of the
+     * content is the change token, or the modification date and length if the repository has no change tokens.
+     *
+     * @param rawDocument CmisDocument loaded without the session cache
+     * @return Return the cached file or null if the content is not cached.
+     */
+    private Path cachedContent(Document rawDocument) {
+        ContentCache cache = ContentCache.getInstance();
+        if (!cache.isEnabled())
+            return null;
+        String version = rawDocument.getChangeToken();
+        if (version == null) {
+            if (rawDocument.getLastModificationDate() == null)
+                return null;
+            version = rawDocument.getLastModificationDate().getTimeInMillis() + "-" + rawDocument.getContentStreamLength();
+        }
+
+        Path cached = cache.get(rawDocument.getId(), version);
+        if (cached != null)
+            return cached;
+        ContentStream contentStream = rawDocument.getContentStream();
+        if (contentStream == null)
+            return null;
+        long start = Metrics.start();
+        try (InputStream in = contentStream.getStream()) {
+            Path path = cache.put(rawDocument.getId(), version, rawDocument.getContentStreamLength(), in);
+            Metrics.record(Metrics.CMIS_READ, start);
+            return path;
+        } catch (IOException e) {
+            Metrics.failed(Metrics.CMIS_READ);
+            logger.debug("Cannot cache content of " + rawDocument.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The change token of the object, its modification date if the repository has no change tokens
+     */
+    public static String version(CmisObject object) {
+        if (object.getChangeToken() != null)
+            return object.getChangeToken();
+        return object.getLastModificationDate() == null ? null
+                : String.valueOf(object.getLastModificationDate().getTimeInMillis());
+    }
+
+    /**
+     * Loads only what {@link #version(CmisObject)} needs, bypassing the session cache.
+     */
+    public static OperationContext createVersionContext(Session session) {
+        OperationContext context = session.createOperationContext();
+        context.setFilterString(PropertyIds.OBJECT_ID + "," + PropertyIds.BASE_TYPE_ID + "," + PropertyIds.CHANGE_TOKEN
+                + "," + PropertyIds.LAST_MODIFICATION_DATE);
+        context.setIncludeAcls(false);
+        context.setIncludeAllowableActions(false);
+        context.setIncludePolicies(false);
+        context.setIncludePathSegments(false);
+        context.setRenditionFilterString("cmis:none");
+        context.setCacheEnabled(false);
+        return context;
+    }
+
+    private OperationContext createUncachedContext(Session session) {
+        OperationContext context = session.createOperationContext();
+        context.setCacheEnabled(false);
+        return context;
+    }
+
     /**
      * Check if cmisObject is a valid cmisDocument and cast it.
      * @param cmisObject The potentially cmisDocument.
@@ -174,32 +289,76 @@ public class FileHandlerForCMIS implements FileHandler {
      */
     private String getContentAsBase64(ContentStream stream) {
         logger.debug("Start converting content to base64 string.");
-        StringBuilder sb = new StringBuilder();
-        InputStream reader = stream.getStream();
-
-        logger.debug("Reads the content and safe it to an bytearray.");
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int bytesRead;
-            byte[] buffer = new byte[4 * 1024];
-            while ((bytesRead = reader.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            byte[] bytes = baos.toByteArray();
+        String content = "";
 
-            logger.debug("Convert the bytes to an base64 string.");
-            sb.append(Base64.encodeBase64String(bytes));
+        logger.debug("Reads the content and encode it while reading.");
+        long start = Metrics.start();
+        try (InputStream reader = stream.getStream()) {
+            content = ContentStreams.toBase64(reader);
+            Metrics.record(Metrics.CMIS_READ, start);
         } catch (IOException e) {
+            Metrics.failed(Metrics.CMIS_READ);
             logger.error("", e);
-        } finally {
-            try {
-                reader.close();
-            } catch (IOException e) {
-                logger.error("", e);
-            }
         }
         logger.debug("End converting content to base64 string.");
-        return sb.toString();
+        return content;
+    }
+
+    /**
+     * Opens the content stream of the document with the given id. The caller has to close the stream.
+     * @param id The id of the wanted document.
+     * @return Return the content stream of the document or null if the object is no document or has no content.
+     */
+    @Override
+    public InputStream getContentStream(String id) {
+        logger.debug("Start opening content stream.");
+        Document rawDocument = sessionProvider.withSession(session -> getCmisObjectAsDocument(session.getObject(new ObjectIdImpl(id))));
+        if (rawDocument == null) {
+            logger.error("Loading cmisObject failed. No content stream available.");
+            return null;
+        }
+        ContentStream contentStream = rawDocument.getContentStream();
+        if (contentStream == null) {
+            logger.error("No content available.");
+            return null;
+        }
+        logger.debug("End opening content stream.");
+        return contentStream.getStream();
+    }
+
+    /**
+     * Copies the content of the document with the given id to the stream without loading it into memory.
+     * @param id The id of the wanted document.
+     * @param out Target of the content.
+     * @return Return the number of copied bytes.
+     */
+    @Override
+    public long transferContent(String id, OutputStream out) throws IOException {
+        if (ContentCache.getInstance().isEnabled()) {
+            Path cached = sessionProvider.withSession(session -> {
+                Document rawDocument = getCmisObjectAsDocument(session.getObject(new ObjectIdImpl(id), createUncachedContext(session)));
+                return rawDocument == null ? null : cachedContent(rawDocument);
+            });
+            if (cached != null) {
+                try {
+                    return ContentCache.getInstance().transfer(cached, out);
+                } catch (NoSuchFileException e) {
+                    // Evicted in the meantime, nothing was written yet
+                    logger.debug("Cached content of " + id + " was evicted.", e);
+                }
+            }
+        }
+        long start = Metrics.start();
+        InputStream in = getContentStream(id);
+        if (in == null)
+            return 0;
+        try {
+            long count = ContentStreams.copy(in, out);
+            Metrics.record(Metrics.CMIS_READ, start);
+            return count;
+        } finally {
+            in.close();
+        }
     }
 
     public boolean writeFile(String base64Content, String path){
@@ -207,6 +366,57 @@ public class FileHandlerForCMIS implements FileHandler {
     }
 
     public boolean writeFile(String base64Content, String path, String filename) {
-        return false;
+        // Decodes while uploading, the decoded content is never held as a whole
+        InputStream content = new Base64InputStream(new ByteArrayInputStream(base64Content.getBytes(StandardCharsets.US_ASCII)));
+        return writeFile(content, path, filename);
+    }
+
+    /**
+     * Uploads the stream with the {@link ChunkedCMISWriter}, files above {@link Configuration#getCmisUploadChunkSize()}
+     * megabytes are appended chunk by chunk. Missing folders are created, their ids are kept in the {@link CMISFolderCache}.
+     *
+     * @param content  Stream with the content, it is not closed
+     * @param path     Path of the folder, missing folders are created
+     * @param filename Name of the file
+     *
+     * @return True if the file was written
+     */
+    @Override
+    public boolean writeFile(InputStream content, String path, String filename) {
+        logger.debug("Start writing File.");
+        String folderPath = path.replace("\\", "/");
+        String documentPath = (folderPath.startsWith("/") ? "" : "/") + folderPath
+                + (folderPath.endsWith("/") ? "" : "/") + filename;
+        // No retry with a new session, the stream may already be consumed
+        Session session = sessionProvider.getSession();
+        long start = Metrics.start();
+        try {
+            String folderId = CMISFolderCache.getInstance().getFolderId(session, folderPath);
+            ChunkedCMISWriter writer = new ChunkedCMISWriter(session,
+                    Configuration.getCmisUploadChunkSize() * 1024 * 1024, Configuration.getCmisUploadRetries());
+            Document document = writer.write(folderId, documentPath, filename, URLConnection.guessContentTypeFromName(filename), content);
+            MetadataCache.documents(MetadataCache.Backend.CMIS).invalidate(MetadataCache.cmisKey(document.getId()));
+            Metrics.record(Metrics.CMIS_WRITE, start);
+        } catch (CmisObjectNotFoundException ex) {
+            // The cached folder may have been deleted
+            CMISFolderCache.getInstance().invalidate(folderPath);
+            Metrics.failed(Metrics.CMIS_WRITE);
+            logger.error("Cannot write file " + documentPath, ex);
+            return false;
+        } catch (CmisUnauthorizedException | CmisConnectionException ex) {
+            sessionProvider.invalidate(session);
+            Metrics.failed(Metrics.CMIS_WRITE);
+            logger.error("Cannot write file " + documentPath, ex);
+            return false;
+        } catch (IOException | CmisBaseException | IllegalStateException ex) {
+            Metrics.failed(Metrics.CMIS_WRITE);
+            logger.error("Cannot write file " + documentPath, ex);
+            return false;
+        } finally {
+            // Folder trees are cached by folder id, the ids of the ancestors are unknown here
+            MetadataCache.folders(MetadataCache.Backend.CMIS).invalidateAll();
+        }
+        logger.debug("End writing File.");
+        return true;
     }
 }
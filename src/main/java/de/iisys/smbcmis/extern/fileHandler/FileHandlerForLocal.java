@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.fileHandler;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.config.LocalFileSystem;
+import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForLocal;
+import de.iisys.smbcmis.extern.folderHandler.SMBTreeBuilder;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.RequestScoped;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * FileHandler for a directory of the local file system, see {@link Configuration#getLocalRoot()}.
+ * <p>
+ * Content is read through a {@link FileChannel}; files from {@link Configuration#getLocalMapThreshold()} kilobytes on
+ * are memory-mapped, so their bytes are not copied to the heap before they are encoded or transferred. Files are
+ * written through a channel in chunks.
+ */
+@SuppressWarnings("Duplicates")
+@RequestScoped
+public class FileHandlerForLocal implements FileHandler {
+    private static final Logger logger = LoggerFactory.getLogger(FileHandlerForLocal.class);
+
+    /**
+     * Largest part of a file which is mapped at once, and the chunk size of writes
+     */
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    private static final int WRITE_CHUNK = 8 * 1024 * 1024;
+
+    @Override
+    public DocumentFile getDocument(String id) {
+        Path file = LocalFileSystem.resolve(id);
+        try {
+            return loadMetadata(new DocumentFile(), file, Files.readAttributes(file, BasicFileAttributes.class), id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + id, e);
+        }
+    }
+
+    @Override
+    public DocumentFile getDocumentContent(String id) {
+        logger.debug("Start loading File with content.");
+        Path file = LocalFileSystem.resolve(id);
+        long start = Metrics.start();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DocumentFile df = loadMetadata(new DocumentFile(), file, Files.readAttributes(file, BasicFileAttributes.class), id);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(id + " is too large to be encoded as one string.");
+            ByteBuffer content;
+            if (size >= Configuration.getLocalMapThreshold() * 1024L) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // Fill the buffer
+                }
+                content.flip();
+            }
+            df.setContent(new String(Base64.getEncoder().encode(content).array(), StandardCharsets.US_ASCII));
+            Metrics.record(Metrics.LOCAL_READ, start);
+            Metrics.count(Metrics.LOCAL_BYTES_READ, size);
+            return df;
+        } catch (IOException e) {
+            Metrics.failed(Metrics.LOCAL_READ);
+            throw new UncheckedIOException("Cannot read " + id, e);
+        }
+    }
+
+    /**
+     * @return Stream with the content, read through the channel of the file
+     */
+    @Override
+    public InputStream getContentStream(String id) {
+        try {
+            return Channels.newInputStream(FileChannel.open(LocalFileSystem.resolve(id), StandardOpenOption.READ));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open " + id, e);
+        }
+    }
+
+    /**
+     * Writes the file from mapped windows of up to 64 MB to the stream, the content is not copied to the heap.
+     */
+    @Override
+    public long transferContent(String id, OutputStream out) throws IOException {
+        logger.debug("Start transferring content of File.");
+        long start = Metrics.start();
+        WritableByteChannel target = Channels.newChannel(out);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(LocalFileSystem.resolve(id), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Configuration.getLocalMapThreshold() * 1024L) {
+                while (count < size) {
+                    long transferred = channel.transferTo(count, size - count, target);
+                    if (transferred <= 0)
+                        break;
+                    count += transferred;
+                }
+            } else {
+                while (count < size) {
+                    ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, count, Math.min(MAP_WINDOW, size - count));
+                    while (window.hasRemaining()) {
+                        count += target.write(window);
+                    }
+                }
+            }
+        }
+        Metrics.record(Metrics.LOCAL_READ, start);
+        Metrics.count(Metrics.LOCAL_BYTES_READ, count);
+        logger.debug("End transferring content of File, {} bytes.", count);
+        return count;
+    }
+
+    @Override
+    public boolean writeFile(String base64Content, String path) {
+        return false;
+    }
+
+    @Override
+    public boolean writeFile(String base64Content, String path, String filename) {
+        // Decodes while writing, the decoded content is never held as a whole
+        InputStream content = new Base64InputStream(new ByteArrayInputStream(base64Content.getBytes(StandardCharsets.US_ASCII)));
+        return writeFile(content, path, filename);
+    }
+
+    /**
+     * Writes the stream through the channel of the file in chunks of 8 MB. Missing folders are created.
+     *
+     * @param content  Stream with the content, it is not closed
+     * @param path     Path of the folder, missing folders are created
+     * @param filename Name of the file
+     *
+     * @return True if the file was written
+     */
+    @Override
+    public boolean writeFile(InputStream content, String path, String filename) {
+        logger.debug("Start writing File.");
+        String filePath = LocalFileSystem.toRelativePath(path) + "/" + filename;
+        long start = Metrics.start();
+        try {
+            Path file = LocalFileSystem.resolve(filePath);
+            Files.createDirectories(file.getParent());
+            ReadableByteChannel source = Channels.newChannel(content);
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long transferred;
+                while ((transferred = channel.transferFrom(source, written, WRITE_CHUNK)) > 0) {
+                    written += transferred;
+                }
+            }
+            Metrics.record(Metrics.LOCAL_WRITE, start);
+            Metrics.count(Metrics.LOCAL_BYTES_WRITTEN, written);
+            logger.debug("Wrote {} bytes to {}.", written, filePath);
+            DocumentFile df = new DocumentFile();
+            loadMetadata(df, file, Files.readAttributes(file, BasicFileAttributes.class), filePath);
+            FolderHandlerForLocal.addToNameIndex(df);
+        } catch (IOException | IllegalArgumentException ex) {
+            Metrics.failed(Metrics.LOCAL_WRITE);
+            logger.error("Cannot write file " + filePath, ex);
+            return false;
+        }
+        logger.debug("End writing File.");
+        return true;
+    }
+
+    private DocumentFile loadMetadata(DocumentFile df, Path file, BasicFileAttributes attributes, String id) {
+        if (attributes.isDirectory())
+            throw new IllegalArgumentException(id + " is a folder.");
+        String relative = LocalFileSystem.toRelativePath(id);
+        int slash = relative.lastIndexOf('/');
+        SMBTreeBuilder.setFileMetadata(df, slash < 0 ? "" : relative.substring(0, slash), file.getFileName().toString());
+        df.setSize(attributes.size());
+        Date modified = new Date(attributes.lastModifiedTime().toMillis());
+        df.setLastModified(modified);
+        df.setChangeTime(modified);
+        return df;
+    }
+}
@@ -20,22 +20,38 @@ package de.iisys.smbcmis.extern.fileHandler;
 
 import com.hierynomus.msdtyp.AccessMask;
 import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileBasicInformation;
+import com.hierynomus.msfscc.fileinformation.FileStandardInformation;
 import com.hierynomus.mssmb2.SMB2CreateDisposition;
 import com.hierynomus.mssmb2.SMB2CreateOptions;
 import com.hierynomus.mssmb2.SMB2ShareAccess;
-import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.common.SMBRuntimeException;
 import com.hierynomus.smbj.share.File;
+import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.cache.ContentCache;
+import de.iisys.smbcmis.extern.cache.MetadataCache;
 import de.iisys.smbcmis.extern.config.Configuration;
 
+import de.iisys.smbcmis.extern.config.PooledShare;
 import de.iisys.smbcmis.extern.config.SMB;
+import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForSMB;
+import de.iisys.smbcmis.extern.folderHandler.SMBTreeBuilder;
+import de.iisys.smbcmis.extern.io.ChunkedSMBWriter;
+import de.iisys.smbcmis.extern.io.ContentStreams;
+import de.iisys.smbcmis.extern.io.PipelinedSMBReader;
+import de.iisys.smbcmis.extern.metrics.Metrics;
 import de.iisys.smbcmis.extern.model.DocumentFile;
-import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.RequestScoped;
 import java.io.*;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.EnumSet;
 
 @SuppressWarnings("Duplicates")
@@ -52,26 +68,28 @@ public class FileHandlerForSMB implements FileHandler {
             this.separator = "\\";
         else
             this.separator = "/";
-        System.out.println("SEP: " + separator);
+        logger.debug("SEP: " + separator);
     }
 
     @Override
     public DocumentFile getDocument(String id) { logger.debug("Start loading document without content.");
-        if (id.startsWith("/"))
-            id = id.substring(1, id.length());
-
-        if(Configuration.getSmbSystem().equals("WINDOWS"))
-            id = id.replace("/", "\\");
+        String fileId = toSmbPath(id);
 
         logger.debug("Start loading File without content.");
-        DocumentFile df = new DocumentFile();
-
         logger.debug("Getting File for Path-ID.");
-        System.out.println("ID: " + id);
+        logger.debug("ID: " + fileId);
+
+        DocumentFile df = MetadataCache.documents(MetadataCache.Backend.SMB).get(cacheKey(id));
+        if (df != null && isCurrent(df, fileId))
+            return df;
 
-        File f = SMB.getInstance().getDiskshare().openFile(id, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH));
-        logger.debug("Set File Metadata.");
-        df = loadMetadata(df, f, id);
+        // Name, size and times with one query, the file is not opened with MAXIMUM_ALLOWED access anymore
+        df = SMB.getInstance().withShare(share -> {
+            FileAllInformation info = getFileInformation(share, fileId);
+            logger.debug("Set File Metadata.");
+            return loadMetadata(new DocumentFile(), info, fileId);
+        });
+        MetadataCache.documents(MetadataCache.Backend.SMB).put(cacheKey(id), df);
 
         logger.debug("End loading File without content.");
         return df;
@@ -79,45 +97,200 @@ public class FileHandlerForSMB implements FileHandler {
 
     @Override
     public DocumentFile getDocumentContent(String id) {
-        if (id.startsWith("/"))
-            id = id.substring(1, id.length());
-
-        if(Configuration.getSmbSystem().equals("WINDOWS"))
-            id = id.replace("/", "\\");
+        String fileId = toSmbPath(id);
 
         logger.debug("Start loading File with content.");
-        DocumentFile df = new DocumentFile();
+        return SMB.getInstance().withShare(share -> {
+            DocumentFile df = new DocumentFile();
+
+            logger.debug("Set File Metadata.");
+            FileAllInformation info = getFileInformation(share, fileId);
+            loadMetadata(df, info, fileId);
+            MetadataCache.documents(MetadataCache.Backend.SMB).validate(cacheKey(id), df);
+
+            logger.debug("Load content of File.");
+            ContentCache cache = ContentCache.getInstance();
+            Path cached = cachedContent(share, fileId, info);
+            if (cached != null) {
+                try {
+                    df.setContent(cache.readBase64(cached));
+                    return df;
+                } catch (IOException e) {
+                    logger.debug("Cannot read cached content of " + fileId, e);
+                }
+            }
 
-        StringBuilder sb = new StringBuilder();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            File f = openForRead(share, fileId);
+            long start = Metrics.start();
+            try (InputStream inputStream = openContent(share, f, info.getStandardInformation().getEndOfFile())) {
+                df.setContent(ContentStreams.toBase64(inputStream));
+                Metrics.record(Metrics.SMB_READ, start);
+                Metrics.count(Metrics.SMB_BYTES_READ, df.getSize());
+            } catch (IOException ex) {
+                Metrics.failed(Metrics.SMB_READ);
+                logger.error("Cannot read content of " + fileId, ex);
+            } finally {
+                f.close();
+            }
+            return df;
+        });
+    }
 
-        logger.debug("Getting File for Path-ID.");
+    /**
+     * Looks the content up in the {@link ContentCache}, on a miss it is read from the share into the cache. The
+     * version of the content is its last write time and size.
+     *
+     * @return The cached file or null if the content is not cached
+     */
+    private Path cachedContent(DiskShare share, String fileId, FileAllInformation info) {
+        ContentCache cache = ContentCache.getInstance();
+        if (!cache.isEnabled())
+            return null;
+        String key = cacheKey(fileId);
+        long size = info.getStandardInformation().getEndOfFile();
+        String version = info.getBasicInformation().getLastWriteTime().getWindowsTimeStamp() + "-" + size;
+
+        Path cached = cache.get(key, version);
+        if (cached != null)
+            return cached;
+        File f = openForRead(share, fileId);
+        long start = Metrics.start();
+        try (InputStream in = openContent(share, f, size)) {
+            Path path = cache.put(key, version, size, in);
+            Metrics.record(Metrics.SMB_READ, start);
+            Metrics.count(Metrics.SMB_BYTES_READ, size);
+            return path;
+        } catch (IOException e) {
+            Metrics.failed(Metrics.SMB_READ);
+            logger.debug("Cannot cache content of " + fileId, e);
+            return null;
+        } finally {
+            f.close();
+        }
+    }
 
-        File f = SMB.getInstance().getDiskshare().openFile(id, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH));
+    /**
+     * Opens the file with a borrowed share. The share stays borrowed until the returned stream is closed.
+     *
+     * @param id Path-ID of the file
+     *
+     * @return Stream with the content of the file
+     */
+    @Override
+    public InputStream getContentStream(String id) {
+        String fileId = toSmbPath(id);
+        PooledShare pooled = SMB.getInstance().borrowShare();
+        File f = null;
+        try {
+            f = openForRead(pooled.getShare(), fileId);
+            return new SMBContentStream(f, pooled, openContent(pooled.getShare(), f, -1));
+        } catch (RuntimeException e) {
+            if (f != null) {
+                try {
+                    f.close();
+                } catch (RuntimeException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            pooled.close();
+            throw e;
+        }
+    }
 
-        logger.debug("Set File Metadata.");
+    @Override
+    public long transferContent(String id, OutputStream out) throws IOException {
+        logger.debug("Start transferring content of File.");
+        if (ContentCache.getInstance().isEnabled()) {
+            String fileId = toSmbPath(id);
+            Path cached = SMB.getInstance().withShare(share -> cachedContent(share, fileId, getFileInformation(share, fileId)));
+            if (cached != null) {
+                try {
+                    long count = ContentCache.getInstance().transfer(cached, out);
+                    logger.debug("End transferring cached content of File, {} bytes.", count);
+                    return count;
+                } catch (NoSuchFileException e) {
+                    // Evicted in the meantime, nothing was written yet
+                    logger.debug("Cached content of " + fileId + " was evicted.", e);
+                }
+            }
+        }
+        try (InputStream in = getContentStream(id)) {
+            long count = ContentStreams.copy(in, out);
+            logger.debug("End transferring content of File, {} bytes.", count);
+            return count;
+        }
+    }
 
+    /**
+     * Removes a leading "/" and converts the separators for windows servers.
+     */
+    private String toSmbPath(String id) {
+        if (id.startsWith("/"))
+            id = id.substring(1, id.length());
 
-        logger.debug("Load content of File.");
-        try (InputStream inputStream = new BufferedInputStream(f.getInputStream())) {
+        if(Configuration.getSmbSystem().equals("WINDOWS"))
+            id = id.replace("/", "\\");
+        return id;
+    }
 
-            //byte[] buffer = new byte[4096];
-            byte[] buffer = new byte[1];
+    /**
+     * @return Key of the file in the {@link MetadataCache}, the id without leading "/" and with "/" as separator
+     */
+    private String cacheKey(String id) {
+        if (id.startsWith("/"))
+            id = id.substring(1, id.length());
+        return id.replace("\\", "/");
+    }
 
-            while (inputStream.read(buffer) != -1) {
-                baos.write(buffer);
-            }
+    private File openForRead(DiskShare share, String id) {
+        long start = Metrics.start();
+        File f = share.openFile(id, EnumSet.of(AccessMask.GENERIC_READ), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, EnumSet.noneOf(SMB2CreateOptions.class));
+        Metrics.record(Metrics.SMB_OPEN, start);
+        return f;
+    }
 
-            byte[] bytes = baos.toByteArray();
-            sb.append(Base64.encodeBase64String(bytes));
-            df.setContent(sb.toString());
+    /**
+     * Content of the opened file, with {@link Configuration#getSmbReadAhead()} chunks requested ahead when it is
+     * greater than 1.
+     *
+     * @param size Size of the file if known, otherwise it is queried with the open handle
+     */
+    private static InputStream openContent(DiskShare share, File f, long size) {
+        int readAhead = Configuration.getSmbReadAhead();
+        if (readAhead <= 1)
+            return f.getInputStream();
+        if (size < 0) {
+            // Without the size the read-ahead requests run past the end of the file
+            long start = Metrics.start();
+            size = f.getFileInformation(FileStandardInformation.class).getEndOfFile();
+            Metrics.record(Metrics.SMB_INFO, start);
+        }
+        return new PipelinedSMBReader(f, PipelinedSMBReader.getChunkSize(share), readAhead, size);
+    }
 
+    /**
+     * Without a change watcher nothing invalidates the cached document, so its times are compared with those of the
+     * share, which takes one small query instead of loading it again.
+     */
+    private boolean isCurrent(DocumentFile cached, String fileId) {
+        if (Configuration.getSmbWatchMode() != Configuration.SmbWatchMode.NONE)
+            return true;
+        FileBasicInformation info = SMB.getInstance().withShare(share -> {
+            long start = Metrics.start();
+            FileBasicInformation basic = share.getFileInformation(fileId, FileBasicInformation.class);
+            Metrics.record(Metrics.SMB_INFO, start);
+            return basic;
+        });
+        // A changed document is loaded again and replaces the cached one
+        return info.getLastWriteTime().toDate().equals(cached.getLastModified())
+                && info.getChangeTime().toDate().equals(cached.getChangeTime());
+    }
 
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        df = loadMetadata(df, f, id);
-        return df;
+    private FileAllInformation getFileInformation(DiskShare share, String id) {
+        long start = Metrics.start();
+        FileAllInformation info = share.getFileInformation(id);
+        Metrics.record(Metrics.SMB_INFO, start);
+        return info;
     }
 
     @Override
@@ -125,7 +298,7 @@ public class FileHandlerForSMB implements FileHandler {
         return false;
     }
 
-    private DocumentFile loadMetadata(DocumentFile df, File f, String id) {
+    private DocumentFile loadMetadata(DocumentFile df, FileAllInformation info, String id) {
         logger.debug("Start setting Metadata.");
         if(Configuration.getSmbSystem().equals("WINDOWS"))
         {
@@ -136,28 +309,40 @@ public class FileHandlerForSMB implements FileHandler {
             df.setId(id);
         }
         else {
-            try {
-                String name = f.getFileInformation().getNameInformation();
-                System.out.println("NAME: " + name);
-                df.setMimeType(URLConnection.guessContentTypeFromName(name.substring(1)));
-                df.setTitle(name.substring(name.lastIndexOf("\\")+1, name.length()));
-                df.setPath("/" + id);
-                df.setId(id);
-            } catch (TransportException e) {
-                e.printStackTrace();
-            }
+            String name = info.getNameInformation();
+            logger.debug("NAME: " + name);
+            df.setMimeType(URLConnection.guessContentTypeFromName(name.substring(1)));
+            df.setTitle(name.substring(name.lastIndexOf("\\")+1, name.length()));
+            df.setPath("/" + id);
+            df.setId(id);
         }
-
+        df.setSize(info.getStandardInformation().getEndOfFile());
+        df.setLastModified(info.getBasicInformation().getLastWriteTime().toDate());
+        df.setChangeTime(info.getBasicInformation().getChangeTime().toDate());
 
         logger.debug("End setting Metadata.");
-        f.close();
         return df;
     }
 
 
     public boolean writeFile(String base64Content, String path, String filename) {
+        // Decodes while writing, the decoded content is never held as a whole
+        InputStream content = new Base64InputStream(new ByteArrayInputStream(base64Content.getBytes(StandardCharsets.US_ASCII)));
+        return writeFile(content, path, filename);
+    }
 
-
+    /**
+     * Writes the stream in chunks of the negotiated max write size, up to {@link Configuration#getSmbWriteParallelism()}
+     * chunks are written at the same time.
+     *
+     * @param content  Stream with the content, it is not closed
+     * @param path     Path of the folder, missing folders are created
+     * @param filename Name of the file
+     *
+     * @return True if the file was written
+     */
+    @Override
+    public boolean writeFile(InputStream content, String path, String filename) {
         logger.debug("Start writing File.");
         String filePath = path + "/" + filename;
         String paths[] = path.split("/");
@@ -168,29 +353,111 @@ public class FileHandlerForSMB implements FileHandler {
             devider = "\\";
         }
 
-        String pp = "";
-        for(String p : paths) {
-            pp = pp + p + devider;
-            if (!SMB.getInstance().getDiskshare().folderExists(pp)){
-                SMB.getInstance().getDiskshare().openDirectory(pp, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_CREATE, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH)).close();
+        // No retry with another share, the stream may already be consumed
+        try (PooledShare pooled = SMB.getInstance().borrowShare()) {
+            DiskShare share = pooled.getShare();
+            String pp = "";
+            for(String p : paths) {
+                pp = pp + p + devider;
+                if (!share.folderExists(pp)){
+                    share.openDirectory(pp, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_CREATE, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH)).close();
+                }
             }
-        }
-
-        File f = SMB.getInstance().getDiskshare().openFile(filePath, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OVERWRITE_IF, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH));
-
-        byte[] bytes = Base64.decodeBase64(base64Content);
 
-        try {
-            BufferedOutputStream stream = new BufferedOutputStream(f.getOutputStream());
-            stream.write(bytes);
-            stream.close();
-            f.close();
-        } catch (IOException ex) {
-            ex.printStackTrace();
+            File f = share.openFile(filePath, EnumSet.of(AccessMask.MAXIMUM_ALLOWED), EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OVERWRITE_IF, EnumSet.of(SMB2CreateOptions.FILE_WRITE_THROUGH));
+            long start = Metrics.start();
+            try {
+                long written = new ChunkedSMBWriter(share, f, Configuration.getSmbWriteParallelism()).write(content);
+                Metrics.record(Metrics.SMB_WRITE, start);
+                Metrics.count(Metrics.SMB_BYTES_WRITTEN, written);
+                logger.debug("Wrote {} bytes to {}.", written, filePath);
+                FolderHandlerForSMB.addToNameIndex(toIndexEntry(f, path, filename));
+            } finally {
+                f.close();
+            }
+        } catch (IOException | SMBRuntimeException ex) {
+            Metrics.failed(Metrics.SMB_WRITE);
+            logger.error("Cannot write file " + filePath, ex);
+            return false;
+        } finally {
+            // Also after a failed write, the file may be partly written
+            MetadataCache.documents(MetadataCache.Backend.SMB).invalidate(cacheKey(path + "/" + filename));
+            MetadataCache.folders(MetadataCache.Backend.SMB).invalidatePath(cacheKey(path + "/" + filename));
         }
         logger.debug("End writing File.");
 
         return true;
     }
 
+    /**
+     * Describes a written file like the crawl does, for the name index.
+     *
+     * @param f The open file
+     */
+    private DocumentFile toIndexEntry(File f, String path, String filename) {
+        String folder = cacheKey(path);
+        if (folder.endsWith("/"))
+            folder = folder.substring(0, folder.length() - 1);
+        DocumentFile df = new DocumentFile();
+        SMBTreeBuilder.setFileMetadata(df, folder, filename);
+        long start = Metrics.start();
+        FileAllInformation info = f.getFileInformation(FileAllInformation.class);
+        Metrics.record(Metrics.SMB_INFO, start);
+        df.setSize(info.getStandardInformation().getEndOfFile());
+        df.setLastModified(info.getBasicInformation().getLastWriteTime().toDate());
+        df.setChangeTime(info.getBasicInformation().getChangeTime().toDate());
+        return df;
+    }
+
+    /**
+     * Content of a SMB file which closes the file handle and gives the share back to the pool when it is closed. The
+     * time until then is recorded as one read.
+     */
+    private static class SMBContentStream extends FilterInputStream {
+        private final File file;
+        private final PooledShare pooled;
+        private final long start = Metrics.start();
+        private long bytes;
+        private boolean closed;
+
+        SMBContentStream(File file, PooledShare pooled, InputStream content) {
+            super(content);
+            this.file = file;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                bytes += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                try {
+                    super.close();
+                } finally {
+                    file.close();
+                }
+            } finally {
+                pooled.close();
+                Metrics.record(Metrics.SMB_READ, start);
+                Metrics.count(Metrics.SMB_BYTES_READ, bytes);
+            }
+        }
+    }
 }
@@ -18,4 +18,4 @@
 
 package de.iisys.smbcmis.extern.fileHandler;
 
-public enum FileHandlerType {CMIS, SMB}
\ No newline at end of file
+public enum FileHandlerType {CMIS, SMB, LOCAL}
\ No newline at end of file
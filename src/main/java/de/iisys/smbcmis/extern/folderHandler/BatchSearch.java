@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.MachineAndTool;
+import de.iisys.smbcmis.extern.strategy.MultiRegexMatcher;
+import de.iisys.smbcmis.extern.strategy.SearchWithMachineAndOrder;
+import de.iisys.smbcmis.extern.strategy.SearchWithTool;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers many machine and tool lookups with one walk over a tree.
+ * <p>
+ * The regexes of all lookups are tested together with a {@link MultiRegexMatcher}. The result of every lookup is the
+ * same as with a single lookup: matching files for the FILENAME strategy, otherwise the topmost matching folders.
+ *
+ * @param <K> Key of a lookup, the tool or a {@link MachineAndTool}
+ */
+public class BatchSearch<K> {
+
+    private final List<K> keys;
+    private final MultiRegexMatcher matcher;
+    private final String separator;
+
+    private BatchSearch(List<K> keys, List<String> regexes, String separator) {
+        this.keys = keys;
+        this.matcher = new MultiRegexMatcher(regexes);
+        this.separator = separator;
+    }
+
+    /**
+     * @param tools     The tools, see {@link SearchWithTool}
+     * @param separator Separator between path and title of folders
+     */
+    public static BatchSearch<String> forTools(Iterable<String> tools, String separator) {
+        List<String> keys = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String tool : tools) {
+            if (!seen.add(tool))
+                continue;
+            keys.add(tool);
+            regexes.add(new SearchWithTool(tool).getRegex());
+        }
+        return new BatchSearch<>(keys, regexes, separator);
+    }
+
+    /**
+     * @param pairs     Machines and tools, see {@link SearchWithMachineAndOrder}
+     * @param separator Separator between path and title of folders
+     */
+    public static BatchSearch<MachineAndTool> forMachinesAndTools(Iterable<MachineAndTool> pairs, String separator) {
+        List<MachineAndTool> keys = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+        Set<MachineAndTool> seen = new HashSet<>();
+        for (MachineAndTool pair : pairs) {
+            if (!seen.add(pair))
+                continue;
+            keys.add(pair);
+            regexes.add(new SearchWithMachineAndOrder(pair.getMachine(), pair.getTool()).getRegex());
+        }
+        return new BatchSearch<>(keys, regexes, separator);
+    }
+
+    /**
+     * Walks the tree once.
+     *
+     * @param root The tree to search in
+     *
+     * @return For every lookup, in the given order, a {@link DocumentFolder} with the matching files or folders
+     */
+    public Map<K, DocumentFolder> search(DocumentFolder root) {
+        List<DocumentFolder> results = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            results.add(new DocumentFolder());
+        }
+        if (root != null) {
+            if (Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FILENAME) {
+                // Like a single lookup, files directly in the root are not searched
+                for (DocumentFolder child : root.getFolderList()) {
+                    searchFiles(child, results);
+                }
+            } else {
+                searchFolders(root, new BitSet(keys.size()), results);
+            }
+        }
+
+        Map<K, DocumentFolder> map = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), results.get(i));
+        }
+        return map;
+    }
+
+    private void searchFiles(DocumentFolder folder, List<DocumentFolder> results) {
+        for (DocumentFile file : folder.getDocumentList()) {
+            BitSet matches = matcher.match(file.getTitle());
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                results.get(i).getDocumentList().add(file);
+            }
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            searchFiles(child, results);
+        }
+    }
+
+    /**
+     * @param matchedAbove Lookups which already matched a folder above, nested matches are not added for them
+     */
+    private void searchFolders(DocumentFolder folder, BitSet matchedAbove, List<DocumentFolder> results) {
+        BitSet matches = matcher.match(folder.getPath() + separator + folder.getTitle());
+        matches.andNot(matchedAbove);
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            results.get(i).getFolderList().add(folder);
+        }
+
+        BitSet below = matchedAbove;
+        if (!matches.isEmpty()) {
+            below = (BitSet) matchedAbove.clone();
+            below.or(matches);
+        }
+        // Every lookup has its folder already, nothing below can be added
+        if (below.cardinality() == keys.size())
+            return;
+        for (DocumentFolder child : folder.getFolderList()) {
+            searchFolders(child, below, results);
+        }
+    }
+}
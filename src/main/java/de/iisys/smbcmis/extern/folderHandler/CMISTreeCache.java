@@ -0,0 +1,569 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.cache.MetadataCache;
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import org.apache.chemistry.opencmis.client.api.ChangeEvent;
+import org.apache.chemistry.opencmis.client.api.ChangeEvents;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.enums.CapabilityChanges;
+import org.apache.chemistry.opencmis.commons.enums.ChangeType;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Caches the complete cmis folder tree and synchronizes it incrementally.
+ * <p>
+ * If the repository has a change log, the changes since the stored change log token are read with
+ * {@link Session#getContentChanges(String, boolean, long, OperationContext)} and only the changed objects are fetched
+ * again. Without a change log the root folder is listed and every sub folder whose cmis:lastModificationDate differs
+ * from the cached one is listed again, unchanged subtrees are kept. As a repository doesn't have to update the date
+ * of a folder if something deeper in its subtree changes, the tree is then also reloaded completely after
+ * {@link Configuration#getCmisFullReloadInterval()}.
+ * <p>
+ * Synchronization happens on requests, at most every {@link Configuration#getCmisSyncInterval()} seconds, with the
+ * session of the request.
+ * <p>
+ * Requests don't see the tree while it is synchronized. After each synchronization an immutable snapshot is published,
+ * only the changed folders and their ancestors are copied again, unchanged subtrees are shared with the previous
+ * snapshot. The snapshot is handed out without copying.
+ */
+public class CMISTreeCache {
+    private static final Logger logger = LoggerFactory.getLogger(CMISTreeCache.class);
+
+    private static CMISTreeCache instance;
+
+    private final Object syncLock = new Object();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, DocumentFolder> folders = new HashMap<>();
+    private final Map<String, String> folderParents = new HashMap<>();
+    private final Map<String, Set<String>> documentParents = new HashMap<>();
+    private final Map<String, DocumentFolder> snapshots = new HashMap<>();
+    private final Set<String> changedFolders = new HashSet<>();
+    private DocumentFolder snapshot;
+    private volatile DocumentFolder root;
+    private String changeLogToken;
+    private volatile long lastSync;
+    private long lastFullLoad;
+
+    public static synchronized CMISTreeCache getInstance() {
+        if (instance == null)
+            instance = new CMISTreeCache();
+        return instance;
+    }
+
+    /**
+     * Returns the root tree, loads it on first use and synchronizes it if it's due.
+     *
+     * @param session The cmis session of the request
+     *
+     * @return The snapshot of the root tree, shared by all callers and must not be changed
+     */
+    public DocumentFolder getRootTree(Session session) {
+        syncIfDue(session);
+        lock.readLock().lock();
+        try {
+            return snapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the tree of a folder from the cache. Doesn't load the cache, a subtree alone is loaded faster than the
+     * whole repository.
+     *
+     * @param session The cmis session of the request
+     * @param id      Id of the folder
+     *
+     * @return The snapshot of the folder, shared by all callers and must not be changed. Null if the cache is not
+     * loaded yet or the folder is not known
+     */
+    public DocumentFolder getFolderTree(Session session, String id) {
+        if (root == null)
+            return null;
+        syncIfDue(session);
+        lock.readLock().lock();
+        try {
+            return snapshots.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the folder of each document in the cache, no request is made for them. Like
+     * {@link #getFolderTree(Session, String)} it doesn't load the cache.
+     *
+     * @param session     The cmis session of the request
+     * @param documentIds Ids of the documents
+     *
+     * @return Path of a parent folder by document id, documents which are not cached are missing
+     */
+    public Map<String, String> getParentPaths(Session session, Collection<String> documentIds) {
+        Map<String, String> paths = new HashMap<>();
+        if (root == null)
+            return paths;
+        syncIfDue(session);
+        lock.readLock().lock();
+        try {
+            for (String id : documentIds) {
+                Set<String> parents = documentParents.get(id);
+                DocumentFolder folder = parents == null || parents.isEmpty() ? null : folders.get(parents.iterator().next());
+                if (folder != null)
+                    paths.put(id, folder.getPath());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return paths;
+    }
+
+    /**
+     * Drops the cached tree, the next request loads it again.
+     */
+    public void invalidate() {
+        synchronized (syncLock) {
+            lock.writeLock().lock();
+            try {
+                clear();
+                root = null;
+                snapshot = null;
+                changeLogToken = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void syncIfDue(Session session) {
+        if (root != null && System.currentTimeMillis() - lastSync < Configuration.getCmisSyncInterval() * 1000L)
+            return;
+        synchronized (syncLock) {
+            if (root != null && System.currentTimeMillis() - lastSync < Configuration.getCmisSyncInterval() * 1000L)
+                return;
+            long start = System.currentTimeMillis();
+            try {
+                if (root == null) {
+                    load(session);
+                } else if (changeLogToken != null) {
+                    applyChangeLog(session);
+                } else if (Configuration.getCmisFullReloadInterval() > 0
+                        && start - lastFullLoad > Configuration.getCmisFullReloadInterval() * 1000L) {
+                    load(session);
+                } else {
+                    compareModificationDates(session);
+                }
+            } catch (CmisBaseException e) {
+                logger.warn("Cannot synchronize cmis tree, loading it completely.", e);
+                load(session);
+            }
+            publish();
+            lastSync = System.currentTimeMillis();
+            logger.debug("Synchronized cmis tree in " + (lastSync - start) + " ms");
+        }
+    }
+
+    /**
+     * Loads the whole tree. The change log token is read before, so no change gets lost in between.
+     */
+    private void load(Session session) {
+        String token = null;
+        CapabilityChanges changes = session.getRepositoryInfo().getCapabilities().getChangesCapability();
+        if (changes != null && changes != CapabilityChanges.NONE)
+            token = session.getLatestChangeLogToken();
+
+        DocumentFolder tree = new CMISTreeLoader(session).load(session.getRepositoryInfo().getRootFolderId());
+        lock.writeLock().lock();
+        try {
+            clear();
+            root = tree;
+            register(tree, null);
+            changeLogToken = token;
+            lastFullLoad = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the change log since the stored token and fetches the changed objects. Every object is fetched once,
+     * even if it changed several times.
+     */
+    private void applyChangeLog(Session session) {
+        OperationContext context = createSyncContext(session);
+        Map<String, ChangeType> changed = new LinkedHashMap<>();
+        String token = changeLogToken;
+        ChangeEvents events;
+        do {
+            events = session.getContentChanges(token, false, Configuration.getCmisPageSize(), context);
+            for (ChangeEvent event : events.getChangeEvents()) {
+                changed.remove(event.getObjectId());
+                changed.put(event.getObjectId(), event.getChangeType());
+            }
+            if (events.getLatestChangeLogToken() == null || events.getLatestChangeLogToken().equals(token))
+                break;
+            token = events.getLatestChangeLogToken();
+        } while (events.getHasMoreItems());
+
+        for (Map.Entry<String, ChangeType> change : changed.entrySet()) {
+            MetadataCache.documents(MetadataCache.Backend.CMIS).invalidate(MetadataCache.cmisKey(change.getKey()));
+            if (change.getValue() == ChangeType.DELETED) {
+                removed(change.getKey());
+            } else if (change.getValue() != ChangeType.SECURITY) {
+                refetch(session, context, change.getKey());
+            }
+        }
+        changeLogToken = token;
+        if (!changed.isEmpty())
+            logger.debug("Applied " + changed.size() + " cmis changes.");
+    }
+
+    /**
+     * Fetches a created or updated object and puts it where it belongs now.
+     */
+    private void refetch(Session session, OperationContext context, String id) {
+        CmisObject object;
+        try {
+            object = session.getObject(id, context);
+        } catch (CmisObjectNotFoundException e) {
+            removed(id);
+            return;
+        }
+
+        if (object.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
+            Document doc = (Document) object;
+            List<Folder> parents = doc.getParents(context);
+            lock.writeLock().lock();
+            try {
+                removeDocument(id);
+                for (Folder parent : parents) {
+                    DocumentFolder folder = folders.get(parent.getId());
+                    if (folder != null)
+                        addDocument(folder, CMISTreeLoader.toDocumentFile(doc, folder.getPath()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else if (object.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
+            Folder cmisFolder = (Folder) object;
+            DocumentFolder cached = folders.get(id);
+            if (cached == null) {
+                if (!folders.containsKey(cmisFolder.getParentId()))
+                    return;
+                DocumentFolder loaded = new CMISTreeLoader(session).load(id);
+                lock.writeLock().lock();
+                try {
+                    DocumentFolder parent = folders.get(cmisFolder.getParentId());
+                    if (parent != null) {
+                        parent.getFolderList().add(loaded);
+                        register(loaded, parent.getId());
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                return;
+            }
+
+            lock.writeLock().lock();
+            try {
+                cached.setTitle(cmisFolder.getName());
+                cached.setLastModified(CMISTreeLoader.toDate(cmisFolder.getLastModificationDate()));
+                changedFolders.add(id);
+                String oldParent = folderParents.get(id);
+                if (oldParent != null && !oldParent.equals(cmisFolder.getParentId())) {
+                    DocumentFolder from = folders.get(oldParent);
+                    if (from != null)
+                        from.getFolderList().remove(cached);
+                    changedFolders.add(oldParent);
+                    DocumentFolder to = folders.get(cmisFolder.getParentId());
+                    if (to == null) {
+                        unregister(cached);
+                        return;
+                    }
+                    to.getFolderList().add(cached);
+                    folderParents.put(id, to.getId());
+                    changedFolders.add(to.getId());
+                }
+                if (!Objects.equals(cached.getPath(), cmisFolder.getPath()))
+                    relabel(cached, cmisFolder.getPath());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Fallback without change log: lists the root and descends only into folders whose modification date changed.
+     */
+    private void compareModificationDates(Session session) {
+        OperationContext context = createSyncContext(session);
+        Folder cmisRoot = (Folder) session.getObject(session.getRepositoryInfo().getRootFolderId(), context);
+        relist(session, context, cmisRoot);
+    }
+
+    private void relist(Session session, OperationContext context, Folder cmisFolder) {
+        DocumentFolder cached = folders.get(cmisFolder.getId());
+        if (cached == null)
+            return;
+
+        List<DocumentFile> documents = new ArrayList<>();
+        List<Folder> children = new ArrayList<>();
+        for (CmisObject child : cmisFolder.getChildren(context)) {
+            if (child.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
+                DocumentFile document = CMISTreeLoader.toDocumentFile((Document) child, cmisFolder.getPath());
+                MetadataCache.documents(MetadataCache.Backend.CMIS)
+                        .validate(MetadataCache.cmisKey(document.getId()), document);
+                documents.add(document);
+            }
+            else if (child.getBaseTypeId() == BaseTypeId.CMIS_FOLDER)
+                children.add((Folder) child);
+        }
+
+        // New sub folders are loaded completely before the tree is changed
+        Map<String, DocumentFolder> loaded = new HashMap<>();
+        CMISTreeLoader loader = null;
+        for (Folder child : children) {
+            if (!folders.containsKey(child.getId())) {
+                if (loader == null)
+                    loader = new CMISTreeLoader(session);
+                loaded.put(child.getId(), loader.load(child.getId()));
+            }
+        }
+
+        List<Folder> changed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (DocumentFile document : cached.getDocumentList()) {
+                Set<String> parents = documentParents.get(document.getId());
+                if (parents != null && parents.remove(cached.getId()) && parents.isEmpty())
+                    documentParents.remove(document.getId());
+            }
+            cached.getDocumentList().clear();
+            for (DocumentFile document : documents) {
+                addDocument(cached, document);
+            }
+
+            Set<String> childIds = new HashSet<>();
+            List<DocumentFolder> folderList = new ArrayList<>();
+            for (Folder child : children) {
+                childIds.add(child.getId());
+                DocumentFolder existing = folders.get(child.getId());
+                if (existing == null) {
+                    existing = loaded.get(child.getId());
+                    register(existing, cached.getId());
+                } else {
+                    if (!Objects.equals(existing.getLastModified(), CMISTreeLoader.toDate(child.getLastModificationDate())))
+                        changed.add(child);
+                    existing.setTitle(child.getName());
+                    changedFolders.add(existing.getId());
+                    existing.setLastModified(CMISTreeLoader.toDate(child.getLastModificationDate()));
+                    if (!Objects.equals(existing.getPath(), child.getPath()))
+                        relabel(existing, child.getPath());
+                }
+                folderList.add(existing);
+            }
+            for (DocumentFolder old : cached.getFolderList()) {
+                if (!childIds.contains(old.getId()))
+                    unregister(old);
+            }
+            cached.setFolderList(folderList);
+            cached.setLastModified(CMISTreeLoader.toDate(cmisFolder.getLastModificationDate()));
+            changedFolders.add(cached.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (Folder child : changed) {
+            relist(session, context, child);
+        }
+    }
+
+    /**
+     * Removes a deleted document or folder with its subtree.
+     */
+    private void removed(String id) {
+        lock.writeLock().lock();
+        try {
+            DocumentFolder folder = folders.get(id);
+            if (folder != null) {
+                DocumentFolder parent = folders.get(folderParents.get(id));
+                if (parent != null)
+                    parent.getFolderList().remove(folder);
+                unregister(folder);
+            } else {
+                removeDocument(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addDocument(DocumentFolder folder, DocumentFile document) {
+        folder.getDocumentList().add(document);
+        changedFolders.add(folder.getId());
+        documentParents.computeIfAbsent(document.getId(), k -> new HashSet<>()).add(folder.getId());
+    }
+
+    private void removeDocument(String id) {
+        Set<String> parents = documentParents.remove(id);
+        if (parents == null)
+            return;
+        for (String parentId : parents) {
+            DocumentFolder parent = folders.get(parentId);
+            if (parent != null && parent.getDocumentList().removeIf(document -> id.equals(document.getId())))
+                changedFolders.add(parentId);
+        }
+    }
+
+    /**
+     * Sets the paths of a moved or renamed folder and everything within.
+     */
+    private void relabel(DocumentFolder folder, String path) {
+        folder.setPath(path);
+        changedFolders.add(folder.getId());
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (DocumentFile document : folder.getDocumentList()) {
+            document.setPath(prefix + document.getTitle());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            relabel(child, prefix + child.getTitle());
+        }
+    }
+
+    private void register(DocumentFolder folder, String parentId) {
+        folders.put(folder.getId(), folder);
+        changedFolders.add(folder.getId());
+        if (parentId != null) {
+            folderParents.put(folder.getId(), parentId);
+            changedFolders.add(parentId);
+        }
+        for (DocumentFile document : folder.getDocumentList()) {
+            documentParents.computeIfAbsent(document.getId(), k -> new HashSet<>()).add(folder.getId());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            register(child, folder.getId());
+        }
+    }
+
+    private void unregister(DocumentFolder folder) {
+        folders.remove(folder.getId());
+        snapshots.remove(folder.getId());
+        changedFolders.remove(folder.getId());
+        String parentId = folderParents.remove(folder.getId());
+        if (parentId != null)
+            changedFolders.add(parentId);
+        for (DocumentFile document : folder.getDocumentList()) {
+            Set<String> parents = documentParents.get(document.getId());
+            if (parents != null && parents.remove(folder.getId()) && parents.isEmpty())
+                documentParents.remove(document.getId());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            unregister(child);
+        }
+    }
+
+    private void clear() {
+        folders.clear();
+        folderParents.clear();
+        documentParents.clear();
+        snapshots.clear();
+        changedFolders.clear();
+    }
+
+    /**
+     * Publishes the snapshot of the synchronized tree. The changed folders and their ancestors are copied, the
+     * snapshots of all other folders are taken over.
+     */
+    private void publish() {
+        lock.writeLock().lock();
+        try {
+            for (String id : new ArrayList<>(changedFolders)) {
+                String parentId = folderParents.get(id);
+                while (parentId != null && changedFolders.add(parentId)) {
+                    parentId = folderParents.get(parentId);
+                }
+            }
+            snapshot = root == null ? null : snapshot(root);
+            changedFolders.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private DocumentFolder snapshot(DocumentFolder folder) {
+        DocumentFolder published = snapshots.get(folder.getId());
+        if (published != null && !changedFolders.contains(folder.getId()))
+            return published;
+
+        List<DocumentFile> documents = new ArrayList<>(folder.getDocumentList().size());
+        for (DocumentFile document : folder.getDocumentList()) {
+            documents.add(document.copy());
+        }
+        List<DocumentFolder> children = new ArrayList<>(folder.getFolderList().size());
+        for (DocumentFolder child : folder.getFolderList()) {
+            children.add(snapshot(child));
+        }
+        published = new DocumentFolder();
+        published.setId(folder.getId());
+        published.setPath(folder.getPath());
+        published.setTitle(folder.getTitle());
+        published.setLastModified(folder.getLastModified());
+        published.setChangeTime(folder.getChangeTime());
+        published.setDocumentList(Collections.unmodifiableList(documents));
+        published.setFolderList(Collections.unmodifiableList(children));
+        snapshots.put(folder.getId(), published);
+        return published;
+    }
+
+    /**
+     * The lean tree context with the parent id and without the client cache, changed objects must come from the
+     * server.
+     */
+    private static OperationContext createSyncContext(Session session) {
+        OperationContext context = CMISTreeLoader.createTreeContext(session);
+        Set<String> filter = new HashSet<>(CMISTreeLoader.TREE_PROPERTIES);
+        filter.add(PropertyIds.PARENT_ID);
+        context.setFilter(filter);
+        context.setCacheEnabled(false);
+        return context;
+    }
+}
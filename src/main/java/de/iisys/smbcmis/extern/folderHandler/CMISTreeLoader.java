@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.FileableCmisObject;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.api.Tree;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a cmis folder tree with few requests and converts it to {@link DocumentFolder}.
+ * <p>
+ * Subtrees are fetched with {@link Folder#getDescendants(int, OperationContext)}, {@link Configuration#getCmisTreeDepth()}
+ * levels per request. Folders at the depth limit are loaded with the next request, these requests run in parallel.
+ * If the repository doesn't support getDescendants the children of every folder are paged in parallel instead.
+ * All requests use a lean {@link OperationContext} which only selects the properties the model needs.
+ */
+public class CMISTreeLoader {
+    private static final Logger logger = LoggerFactory.getLogger(CMISTreeLoader.class);
+
+    /**
+     * Properties which are needed to build the model.
+     */
+    public static final Set<String> TREE_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            PropertyIds.OBJECT_ID,
+            PropertyIds.OBJECT_TYPE_ID,
+            PropertyIds.BASE_TYPE_ID,
+            PropertyIds.NAME,
+            PropertyIds.PATH,
+            PropertyIds.CONTENT_STREAM_MIME_TYPE,
+            PropertyIds.CONTENT_STREAM_LENGTH,
+            PropertyIds.LAST_MODIFICATION_DATE,
+            PropertyIds.CHANGE_TOKEN)));
+
+    private final Session session;
+    private final OperationContext context;
+    private final boolean descendantsSupported;
+    private final int depth;
+
+    public CMISTreeLoader(Session session) {
+        this.session = session;
+        this.context = createTreeContext(session);
+        Boolean supported = session.getRepositoryInfo().getCapabilities().isGetDescendantsSupported();
+        this.descendantsSupported = supported != null && supported;
+        this.depth = Math.max(1, Configuration.getCmisTreeDepth());
+    }
+
+    /**
+     * Creates an {@link OperationContext} without ACLs, allowable actions, policies, relationships and renditions,
+     * which only selects {@link #TREE_PROPERTIES}.
+     *
+     * @param session The cmis session
+     *
+     * @return The lean {@link OperationContext}
+     */
+    public static OperationContext createTreeContext(Session session) {
+        return session.createOperationContext(TREE_PROPERTIES, false, false, false,
+                IncludeRelationships.NONE, Collections.singleton("cmis:none"), false, null, true,
+                Configuration.getCmisPageSize());
+    }
+
+    public OperationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Loads the tree of the folder with the given id.
+     *
+     * @param folderId The id of the folder
+     *
+     * @return Return the foldertree as a {@link DocumentFolder}.
+     */
+    public DocumentFolder load(String folderId) {
+        logger.debug("Start loading foldertree.");
+        long start = Metrics.start();
+        CmisObject cmisObject = session.getObject(folderId, context);
+        if (cmisObject.getBaseTypeId() != BaseTypeId.CMIS_FOLDER) {
+            logger.warn("Folder is not an valid cmisFolder. Return an empty documentfolder for this object.");
+            DocumentFolder folder = new DocumentFolder();
+            folder.getFolderList().add(new DocumentFolder());
+            return folder;
+        }
+        Folder cmisFolder = (Folder) cmisObject;
+        DocumentFolder folder = toDocumentFolder(cmisFolder);
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Configuration.getCmisTreeParallelism()));
+        try {
+            pool.invoke(new LoadTask(cmisFolder, folder));
+        } finally {
+            pool.shutdown();
+        }
+        Metrics.record(Metrics.CMIS_TREE, start);
+        logger.debug("End loading foldertree.");
+        return folder;
+    }
+
+    /**
+     * Converts the properties of a cmis folder, without its children.
+     */
+    public static DocumentFolder toDocumentFolder(Folder cmisFolder) {
+        DocumentFolder folder = new DocumentFolder();
+        folder.setId(cmisFolder.getId());
+        folder.setPath(cmisFolder.getPath());
+        folder.setTitle(cmisFolder.getName());
+        folder.setLastModified(toDate(cmisFolder.getLastModificationDate()));
+        return folder;
+    }
+
+    /**
+     * Converts the properties of a cmis document. The path is built from the path of the parent folder, so no
+     * request for the paths of the document is needed.
+     *
+     * @param doc        The cmis document
+     * @param parentPath The path of the folder the document was loaded from
+     *
+     * @return The {@link DocumentFile} without content
+     */
+    public static DocumentFile toDocumentFile(Document doc, String parentPath) {
+        DocumentFile documentFile = new DocumentFile();
+        documentFile.setTitle(doc.getName());
+        documentFile.setId(doc.getId());
+        documentFile.setMimeType(doc.getContentStreamMimeType());
+        documentFile.setPath(parentPath.endsWith("/") ? parentPath + doc.getName() : parentPath + "/" + doc.getName());
+        documentFile.setSize(doc.getContentStreamLength());
+        documentFile.setLastModified(toDate(doc.getLastModificationDate()));
+        return documentFile;
+    }
+
+    static Date toDate(GregorianCalendar calendar) {
+        return calendar == null ? null : calendar.getTime();
+    }
+
+    /**
+     * Loads the children of one folder, either some levels deep with getDescendants or one level by paging through
+     * the children. Folders whose children are not loaded yet become new tasks.
+     */
+    @SuppressWarnings("serial")
+    private class LoadTask extends RecursiveAction {
+        private final Folder cmisFolder;
+        private final DocumentFolder folder;
+
+        LoadTask(Folder cmisFolder, DocumentFolder folder) {
+            this.cmisFolder = cmisFolder;
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            List<LoadTask> pending = new ArrayList<>();
+            if (descendantsSupported) {
+                addTrees(folder, cmisFolder.getPath(), cmisFolder.getDescendants(depth, context), 1, pending);
+            } else {
+                for (CmisObject next : cmisFolder.getChildren(context)) {
+                    addChild(folder, cmisFolder.getPath(), next, pending);
+                }
+            }
+            invokeAll(pending);
+        }
+
+        private void addTrees(DocumentFolder parent, String parentPath, List<Tree<FileableCmisObject>> trees, int level, List<LoadTask> pending) {
+            if (trees == null)
+                return;
+            for (Tree<FileableCmisObject> tree : trees) {
+                FileableCmisObject item = tree.getItem();
+                if (item.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
+                    Folder childFolder = (Folder) item;
+                    DocumentFolder child = toDocumentFolder(childFolder);
+                    parent.getFolderList().add(child);
+                    if (level < depth)
+                        addTrees(child, childFolder.getPath(), tree.getChildren(), level + 1, pending);
+                    else
+                        pending.add(new LoadTask(childFolder, child));
+                } else if (item.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
+                    parent.getDocumentList().add(toDocumentFile((Document) item, parentPath));
+                }
+            }
+        }
+
+        private void addChild(DocumentFolder parent, String parentPath, CmisObject next, List<LoadTask> pending) {
+            if (next.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
+                Folder childFolder = (Folder) next;
+                DocumentFolder child = toDocumentFolder(childFolder);
+                parent.getFolderList().add(child);
+                pending.add(new LoadTask(childFolder, child));
+            } else if (next.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
+                parent.getDocumentList().add(toDocumentFile((Document) next, parentPath));
+            }
+        }
+    }
+}
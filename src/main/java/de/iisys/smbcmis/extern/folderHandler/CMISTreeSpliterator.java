@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+
+/**
+ * Walks a cmis folder lazily. The children of a folder are paged with the page size of
+ * {@link CMISTreeLoader#createTreeContext(Session)}, the next page is only requested when the previous one is consumed.
+ */
+public class CMISTreeSpliterator extends TreeSpliterator<CmisObject> {
+
+    private final OperationContext context;
+    private final SearchPattern filter;
+
+    /**
+     * @param session The cmis session
+     * @param folder  The folder to walk
+     * @param filter  Decides which files and folders are returned, all folders are walked
+     */
+    public CMISTreeSpliterator(Session session, Folder folder, SearchPattern filter) {
+        this.context = CMISTreeLoader.createTreeContext(session);
+        this.filter = filter;
+        open(folder);
+    }
+
+    @Override
+    protected DocumentEntry visit(String path, CmisObject child) {
+        if (child.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
+            Folder cmisFolder = (Folder) child;
+            DocumentFolder folder = CMISTreeLoader.toDocumentFolder(cmisFolder);
+            open(cmisFolder);
+            return filter.isFolderRequired(path + "/" + folder.getTitle()) ? folder : null;
+        }
+        if (child.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT && filter.isFileRequired(child.getName()))
+            return CMISTreeLoader.toDocumentFile((Document) child, path);
+        return null;
+    }
+
+    private void open(Folder folder) {
+        push(folder.getPath(), folder.getChildren(context).iterator(), null);
+    }
+}
@@ -20,6 +20,16 @@ package de.iisys.smbcmis.extern.folderHandler;
 
 
 import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.MachineAndTool;
+
+import de.iisys.smbcmis.extern.config.HandlerExecutor;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Created by Thomas Winkler on 19.09.17
@@ -43,4 +53,78 @@ public interface FolderHandler {
      */
     DocumentFolder getFolderByMachineAndTool(String machine, String tool);
     DocumentFolder getFolderByTool(String tool);
+
+    /**
+     * Looks up many tools with one walk over the tree.
+     *
+     * @param tools Tool IDs or Strings (Regex)
+     *
+     * @return For every tool the same structure {@link #getFolderByTool(String)} returns
+     */
+    Map<String, DocumentFolder> getFoldersByTools(Collection<String> tools);
+
+    /**
+     * Looks up many machines and tools with one walk over the tree.
+     *
+     * @param pairs Machine and tool IDs or Strings (Regex)
+     *
+     * @return For every pair the same structure {@link #getFolderByMachineAndTool(String, String)} returns
+     */
+    Map<MachineAndTool, DocumentFolder> getFoldersByMachineAndTools(Collection<MachineAndTool> pairs);
+
+    /**
+     * Walks the tree below a folder depth first while it is listed, nothing is loaded before it is consumed. A
+     * consumer which stops early, e.g. with findFirst or limit, saves the listing of the rest of the tree.
+     * <p>
+     * The stream holds open listings and must be closed, e.g. with try-with-resources. It is closed by itself only once
+     * it is consumed completely or the walk fails.
+     *
+     * @param id     String with folder id
+     * @param filter Decides which files and folders are returned, all folders are walked
+     *
+     * @return Folders and files below the folder, the folder itself is not part of it
+     */
+    Stream<DocumentEntry> walk(String id, SearchPattern filter);
+
+    /**
+     * Runs {@link #getFolderTree(String)} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<DocumentFolder> getFolderTreeAsync(String id) {
+        return HandlerExecutor.supply(() -> getFolderTree(id));
+    }
+
+    /**
+     * Runs {@link #getRootTree()} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<DocumentFolder> getRootTreeAsync() {
+        return HandlerExecutor.supply(this::getRootTree);
+    }
+
+    /**
+     * Runs {@link #getFolderByMachineAndTool(String, String)} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<DocumentFolder> getFolderByMachineAndToolAsync(String machine, String tool) {
+        return HandlerExecutor.supply(() -> getFolderByMachineAndTool(machine, tool));
+    }
+
+    /**
+     * Runs {@link #getFolderByTool(String)} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<DocumentFolder> getFolderByToolAsync(String tool) {
+        return HandlerExecutor.supply(() -> getFolderByTool(tool));
+    }
+
+    /**
+     * Runs {@link #getFoldersByTools(Collection)} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<Map<String, DocumentFolder>> getFoldersByToolsAsync(Collection<String> tools) {
+        return HandlerExecutor.supply(() -> getFoldersByTools(tools));
+    }
+
+    /**
+     * Runs {@link #getFoldersByMachineAndTools(Collection)} on the {@link HandlerExecutor}.
+     */
+    default CompletableFuture<Map<MachineAndTool, DocumentFolder>> getFoldersByMachineAndToolsAsync(Collection<MachineAndTool> pairs) {
+        return HandlerExecutor.supply(() -> getFoldersByMachineAndTools(pairs));
+    }
 }
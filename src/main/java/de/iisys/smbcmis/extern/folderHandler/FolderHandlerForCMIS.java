@@ -19,20 +19,42 @@ package de.iisys.smbcmis.extern.folderHandler;
 
 
 import de.iisys.smbcmis.extern.config.Configuration;
-import de.iisys.smbcmis.extern.DocumentConnector;
+import de.iisys.smbcmis.extern.CMISSessionProvider;
+import de.iisys.smbcmis.extern.cache.MetadataCache;
+import de.iisys.smbcmis.extern.fileHandler.FileHandlerForCMIS;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
 import de.iisys.smbcmis.extern.model.DocumentFile;
 import de.iisys.smbcmis.extern.model.DocumentFolder;
-import org.apache.chemistry.opencmis.client.api.*;
+import de.iisys.smbcmis.extern.model.MachineAndTool;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.chemistry.opencmis.client.runtime.ObjectIdImpl;
 import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.enums.CapabilityQuery;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisUnauthorizedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import de.iisys.smbcmis.extern.strategy.CMISQueryBuilder;
 import de.iisys.smbcmis.extern.strategy.SearchWithMachineAndOrder;
+import de.iisys.smbcmis.extern.strategy.SearchWithTool;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 
 /**
  * @author Alexander Schmid <alexander.schmid@hof-university.de>
@@ -47,7 +69,7 @@ public class FolderHandlerForCMIS implements FolderHandler {
     private static final Logger logger = LoggerFactory.getLogger(FolderHandlerForCMIS.class);
 
     @Inject
-    private DocumentConnector documentConnector;
+    private CMISSessionProvider sessionProvider;
 
     /**
      * Load an cmis-object with the given id from cmis-session. Check if the cmis-object is a valid folder and converting it to {@link DocumentFolder}.
@@ -57,15 +79,27 @@ public class FolderHandlerForCMIS implements FolderHandler {
      */
     @Override
     public DocumentFolder getFolderTree(String id) {
+        return sessionProvider.withSession(session -> getFolderTree(session, id));
+    }
+
+    private DocumentFolder getFolderTree(Session session, String id) {
         logger.debug("Start of loading foldertree with id.");
         DocumentFolder folder = null;
-        Session session = documentConnector.getSession();
-        ObjectId objectId = new ObjectIdImpl(id);
-        logger.debug("Load object from session with id.");
-        CmisObject cmisObject = session.getObject(objectId);
-        logger.debug("Converting from cmisObject to folder...");
+        logger.debug("Load and convert foldertree with id.");
         try {
-            folder = convertFolder(cmisObject);
+            if (Configuration.isCmisTreeCache())
+                folder = CMISTreeCache.getInstance().getFolderTree(session, id);
+            else
+                folder = MetadataCache.folders(MetadataCache.Backend.CMIS).get(id, () -> folderVersion(session, id));
+            if (folder == null) {
+                // Taken before loading, a change while loading makes the next request load again
+                String version = Configuration.isCmisTreeCache() ? null : folderVersion(session, id);
+                folder = new CMISTreeLoader(session).load(id);
+                if (!Configuration.isCmisTreeCache())
+                    MetadataCache.folders(MetadataCache.Backend.CMIS).put(id, folder, version);
+            }
+        } catch (CmisUnauthorizedException e) {
+            throw e;
         } catch (Exception e) {
             //e.printStackTrace();
             logger.warn("");
@@ -75,6 +109,15 @@ public class FolderHandlerForCMIS implements FolderHandler {
         return folder;
     }
 
+    /**
+     * Change token of the folder itself. It changes with the folder's own properties and, depending on the
+     * repository, with its children; changes deeper in the tree are only seen once the cached tree expires.
+     */
+    private static String folderVersion(Session session, String id) {
+        return FileHandlerForCMIS.version(session.getObject(new ObjectIdImpl(id),
+                FileHandlerForCMIS.createVersionContext(session)));
+    }
+
     /**
      * Load the cmis-rootfolder from cmis-session. Check if the cmis-rootfolder is a valid folder and converting it to {@link DocumentFolder}.
      *
@@ -82,122 +125,232 @@ public class FolderHandlerForCMIS implements FolderHandler {
      */
     @Override
     public DocumentFolder getRootTree() {
+        return sessionProvider.withSession(this::getRootTree);
+    }
+
+    private DocumentFolder getRootTree(Session session) {
         logger.debug("Start of loading foldertree from root.");
         DocumentFolder folder = null;
-        Session session = documentConnector.getSession();
-        Folder rootFolder = session.getRootFolder();
-        logger.debug("Converting from cmisFolder to folder...");
+        logger.debug("Load and convert foldertree from root.");
         try {
-            folder = convertFolder(rootFolder);
+            if (Configuration.isCmisTreeCache())
+                folder = CMISTreeCache.getInstance().getRootTree(session);
+            else
+                folder = new CMISTreeLoader(session).load(session.getRepositoryInfo().getRootFolderId());
+        } catch (CmisUnauthorizedException e) {
+            throw e;
         } catch (Exception e) {
             //e.printStackTrace();
             logger.warn("");
             logger.debug("", e);
         }
         logger.debug("End of loading foldertree from root.");
-        System.out.println(folder);
         return folder;
     }
 
+    /**
+     * Walks the folder with the lean {@link CMISTreeLoader#createTreeContext(Session) tree context}, the children are
+     * requested page by page while the stream is consumed.
+     */
+    @Override
+    public Stream<DocumentEntry> walk(String id, SearchPattern filter) {
+        return sessionProvider.withSession(session -> walk(session, id, filter));
+    }
+
+    private Stream<DocumentEntry> walk(Session session, String id, SearchPattern filter) {
+        CmisObject cmisObject = session.getObject(id, CMISTreeLoader.createTreeContext(session));
+        if (cmisObject.getBaseTypeId() != BaseTypeId.CMIS_FOLDER) {
+            logger.warn("Folder is not an valid cmisFolder. Return an empty stream for this object.");
+            return Stream.empty();
+        }
+        return new CMISTreeSpliterator(session, (Folder) cmisObject, filter).stream();
+    }
 
+    /**
+     * Searches the folders or documents of a machine and tool with a cmis query, see {@link #search(Session, SearchPattern, String, String)}.
+     *
+     * @param machine Machine ID or String (Regex)
+     * @param tool    Tool ID or String (Regex)
+     *
+     * @return Returns a {@link DocumentFolder} stucture
+     */
     @Override
     public DocumentFolder getFolderByMachineAndTool(String machine, String tool) {
-        //TODO: Get Configuration, Is machine or tool a folder, where is the root
-        DocumentFolder folder = getRootTree();
-        DocumentFolder x = new DocumentFolder();
-        getMachineAndTool(x, folder, new SearchWithMachineAndOrder(machine, tool));
+        return sessionProvider.withSession(session -> getFolderByMachineAndTool(session, machine, tool));
+    }
 
-        return x;
+    private DocumentFolder getFolderByMachineAndTool(Session session, String machine, String tool) {
+        SearchWithMachineAndOrder sp = new SearchWithMachineAndOrder(machine, tool);
+        return search(session, sp, sp.getRegex(), tool);
     }
 
+    /**
+     * Searches the folders or documents of a tool with a cmis query, see {@link #search(Session, SearchPattern, String, String)}.
+     *
+     * @param tool Tool ID or String (Regex)
+     *
+     * @return Returns a {@link DocumentFolder} stucture
+     */
     @Override
     public DocumentFolder getFolderByTool(String tool) {
-        return null;
+        return sessionProvider.withSession(session -> getFolderByTool(session, tool));
     }
 
-    private void getMachineAndTool(DocumentFolder x, DocumentFolder folder, SearchPattern sp){
+    private DocumentFolder getFolderByTool(Session session, String tool) {
+        SearchWithTool sp = new SearchWithTool(tool);
+        return search(session, sp, sp.getRegex(), tool);
+    }
 
-        for (DocumentFolder f : folder.getFolderList()) {
+    /**
+     * Answers all lookups with one walk over the root tree, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<String, DocumentFolder> getFoldersByTools(Collection<String> tools) {
+        return sessionProvider.withSession(session -> getFoldersByTools(session, tools));
+    }
 
-            if(Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER ||
-                    Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER_AND_FILENAME) {
-                if (sp.isFolderRequired(f.getPath() + "/" + f.getTitle())) {
-                    x.getFolderList().add(f);
-                    return;
-                }
-            }else {
-                for(DocumentFile file : f.getDocumentList()){
-                    System.out.println("TITLE: " + file.getTitle());
-                    if(sp.isFileRequired(file.getTitle())){
-                        System.out.println("REQUIRED");
-                        x.getDocumentList().add(file);
-                    }
-                }
-            }
-            getMachineAndTool(x, f, sp);
-        }
+    private Map<String, DocumentFolder> getFoldersByTools(Session session, Collection<String> tools) {
+        return BatchSearch.forTools(tools, "/").search(getRootTree(session));
+    }
+
+    /**
+     * Answers all lookups with one walk over the root tree, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<MachineAndTool, DocumentFolder> getFoldersByMachineAndTools(Collection<MachineAndTool> pairs) {
+        return sessionProvider.withSession(session -> getFoldersByMachineAndTools(session, pairs));
     }
 
+    private Map<MachineAndTool, DocumentFolder> getFoldersByMachineAndTools(Session session, Collection<MachineAndTool> pairs) {
+        return BatchSearch.forMachinesAndTools(pairs, "/").search(getRootTree(session));
+    }
 
     /**
-     * Check if the CmisObject is a CmisFolder and convert it to {@link DocumentFolder}.
-     * This method also add the complete tree with the given CmisFolder as root with recursive-call. If a folder has any documents, their will be added as {@link DocumentFile}.
+     * Runs the search on the server instead of loading the whole repository.
+     * <p>
+     * With the FILENAME strategy the regex is translated to a cmis:name LIKE predicate on documents. With the folder
+     * strategies folders whose name contains the tool are queried. The paged results only narrow down the candidates,
+     * every candidate is checked with the {@link SearchPattern}. Of nested matching folders only the topmost is
+     * returned, with its complete tree, see {@link Configuration.SearchForMachineAndOrderStrategy}. Repositories
+     * without query support fall back to scanning the root tree.
      *
-     * @param cmisObject The Cmisfolder
-     * @return Return the converted {@link DocumentFolder}.
+     * @param session The cmis session
+     * @param sp    The exact search
+     * @param regex The regex of the search
+     * @param tool  The tool which is searched for
+     *
+     * @return Returns a {@link DocumentFolder} stucture
      */
-    private DocumentFolder convertFolder(CmisObject cmisObject) {
-        logger.debug("Start converting cmisObject to documentfolder.");
-        DocumentFolder folder = new DocumentFolder();
-        Folder cmisFolder = getCmisObjectAsFolder(cmisObject);
-        if (cmisFolder == null) {
-            logger.warn("Folder is not an valid cmisFolder. Return an empty documentfolder for this object.");
-            folder.getFolderList().add(new DocumentFolder());
+    private DocumentFolder search(Session session, SearchPattern sp, String regex, String tool) {
+        DocumentFolder x = new DocumentFolder();
+
+        CapabilityQuery queryCapability = session.getRepositoryInfo().getCapabilities().getQueryCapability();
+        if (queryCapability == null || queryCapability == CapabilityQuery.NONE || queryCapability == CapabilityQuery.FULLTEXTONLY) {
+            logger.debug("Repository can't query metadata, searching the root tree.");
+            getMachineAndTool(x, getRootTree(session), sp);
+            return x;
+        }
+
+        OperationContext context = CMISTreeLoader.createTreeContext(session);
+        if (Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FILENAME) {
+            String where = CMISQueryBuilder.where(CMISQueryBuilder.toLikePattern(regex), Configuration.getCmisSearchRoot());
+            logger.debug("Query documents: " + where);
+            List<Document> documents = new ArrayList<>();
+            long start = Metrics.start();
+            for (CmisObject next : session.queryObjects(BaseTypeId.CMIS_DOCUMENT.value(), where, false, context)) {
+                if (sp.isFileRequired(next.getName()))
+                    documents.add((Document) next);
+            }
+            Map<String, String> parentPaths = getParentPaths(session, documents, context);
+            for (Document doc : documents) {
+                String parentPath = parentPaths.get(doc.getId());
+                if (parentPath != null)
+                    x.getDocumentList().add(CMISTreeLoader.toDocumentFile(doc, parentPath));
+            }
+            Metrics.record(Metrics.CMIS_SEARCH, start);
         } else {
-            for (CmisObject next : cmisFolder.getChildren()) {
-                if (next.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
-                    logger.debug("Adding new folder to foldertree.");
-                    folder.getFolderList().add(convertFolder(next));
-                }
-                if (next.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
-                    logger.debug("Adding new document to foldertree.");
-                    Document doc = (Document) next;
-                    DocumentFile documentFile = new DocumentFile();
-                    logger.debug("Setting the field for the document.");
-                    documentFile.setTitle(doc.getName());
-                    documentFile.setId(doc.getId());
-                    documentFile.setMimeType(doc.getContentStreamMimeType());
-                    documentFile.setPath(doc.getPaths().get(0));
-                    folder.getDocumentList().add(documentFile);
-                }
+            String like = CMISQueryBuilder.isLiteral(tool) ? "%" + CMISQueryBuilder.escapeLike(tool) + "%" : null;
+            String where = CMISQueryBuilder.where(like, Configuration.getCmisSearchRoot());
+            logger.debug("Query folders: " + where);
+            List<Folder> matches = new ArrayList<>();
+            long start = Metrics.start();
+            for (CmisObject next : session.queryObjects(BaseTypeId.CMIS_FOLDER.value(), where, false, context)) {
+                Folder folder = (Folder) next;
+                if (sp.isFolderRequired(folder.getPath() + "/" + folder.getName()))
+                    matches.add(folder);
+            }
+            Metrics.record(Metrics.CMIS_SEARCH, start);
+            matches.sort(Comparator.comparing(Folder::getPath));
+            CMISTreeLoader loader = new CMISTreeLoader(session);
+            String lastMatch = null;
+            for (Folder folder : matches) {
+                if (lastMatch != null && folder.getPath().startsWith(lastMatch + "/"))
+                    continue;
+                lastMatch = folder.getPath();
+                x.getFolderList().add(loader.load(folder.getId()));
             }
-            logger.debug("Setting the fields for the folder.");
-            folder.setId(cmisFolder.getId());
-            folder.setPath(cmisFolder.getPath());
-            folder.setTitle(cmisFolder.getName());
         }
-        logger.debug("End of converting cmisObject to documentfolder.");
-        return folder;
+        return x;
     }
 
     /**
-     * Check if cmisObject is a valid cmisFolder and cast it.
+     * Resolves the folders of the queried documents. A query result has no parent, so the {@link CMISTreeCache} is
+     * asked first, it knows them without a request. The parents of the remaining documents are loaded in parallel
+     * with the lean tree context, {@link Configuration#getCmisTreeParallelism()} at a time.
      *
-     * @param cmisObject The potentially cmisFolder.
-     * @return Return {@link Folder} if casting was successfull. Null if not.
+     * @return Path of a parent folder by document id, unfiled documents are missing
      */
-    private Folder getCmisObjectAsFolder(CmisObject cmisObject) {
-        logger.debug("Start casting cmisObject to cmisFolder.");
-        Folder cmisFolder;
-        logger.debug("Check if cmisObject is valid cmisFolder.");
-        if (cmisObject.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
-            cmisFolder = (Folder) cmisObject;
-        } else {
-            cmisFolder = null;
+    private Map<String, String> getParentPaths(Session session, List<Document> documents, OperationContext context) {
+        Map<String, String> paths = new ConcurrentHashMap<>();
+        if (Configuration.isCmisTreeCache()) {
+            List<String> ids = new ArrayList<>();
+            for (Document doc : documents) {
+                ids.add(doc.getId());
+            }
+            paths.putAll(CMISTreeCache.getInstance().getParentPaths(session, ids));
         }
-        logger.debug("End casting cmisObject to cmisFolder.");
-        return cmisFolder;
+        List<ForkJoinTask<?>> lookups = new ArrayList<>();
+        for (Document doc : documents) {
+            if (!paths.containsKey(doc.getId())) {
+                lookups.add(ForkJoinTask.adapt(() -> {
+                    List<Folder> parents = doc.getParents(context);
+                    if (!parents.isEmpty())
+                        paths.put(doc.getId(), parents.get(0).getPath());
+                }));
+            }
+        }
+        if (lookups.isEmpty())
+            return paths;
+        logger.debug("Loading parents of {} of {} documents.", lookups.size(), documents.size());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Configuration.getCmisTreeParallelism()));
+        try {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(lookups)));
+        } finally {
+            pool.shutdown();
+        }
+        return paths;
     }
 
+    private void getMachineAndTool(DocumentFolder x, DocumentFolder folder, SearchPattern sp){
 
+        for (DocumentFolder f : folder.getFolderList()) {
+
+            if(Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER ||
+                    Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER_AND_FILENAME) {
+                if (sp.isFolderRequired(f.getPath() + "/" + f.getTitle())) {
+                    x.getFolderList().add(f);
+                    continue;
+                }
+            }else {
+                for(DocumentFile file : f.getDocumentList()){
+                    logger.debug("TITLE: " + file.getTitle());
+                    if(sp.isFileRequired(file.getTitle())){
+                        logger.debug("REQUIRED");
+                        x.getDocumentList().add(file);
+                    }
+                }
+            }
+            getMachineAndTool(x, f, sp);
+        }
+    }
 }
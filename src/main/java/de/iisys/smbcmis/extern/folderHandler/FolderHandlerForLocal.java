@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.config.LocalFileSystem;
+import de.iisys.smbcmis.extern.index.NameIndex;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.MachineAndTool;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
+import de.iisys.smbcmis.extern.strategy.SearchWithMachineAndOrder;
+import de.iisys.smbcmis.extern.strategy.SearchWithTool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * FolderHandler for a directory of the local file system, e.g. a share mounted by the operating system, see
+ * {@link Configuration#getLocalRoot()}. Ids, paths and search results are the same as those of the
+ * {@link FolderHandlerForSMB} for the same share.
+ * <p>
+ * Trees are walked with {@link LocalTreeBuilder}, searches go to a {@link NameIndex} which is rebuilt in the background
+ * after {@link Configuration#getLocalIndexMaxAge()} seconds. Written files are added to it right away.
+ */
+@SuppressWarnings("Duplicates")
+public class FolderHandlerForLocal implements FolderHandler {
+    private static final Logger logger = LoggerFactory.getLogger(FolderHandlerForLocal.class);
+
+    private static final String SEPARATOR = "/";
+
+    private static final Object INDEX_LOCK = new Object();
+    private static final ExecutorService INDEX_BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "local-index-builder");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicBoolean rebuilding = new AtomicBoolean();
+    private static final List<DocumentFile> writtenDuringRebuild = new ArrayList<>();
+    private static volatile NameIndex nameIndex;
+    private static volatile DocumentFolder indexedTree;
+    private static volatile long nameIndexCreated;
+
+    @Override
+    public DocumentFolder getFolderTree(String id) {
+        return crawl(LocalFileSystem.toRelativePath(id), new SearchWithIgnoreList());
+    }
+
+    @Override
+    public DocumentFolder getRootTree() {
+        return crawl("", new SearchWithIgnoreList());
+    }
+
+    /**
+     * Walks the directory with one open listing per level, they are closed when the stream is closed.
+     */
+    @Override
+    public Stream<DocumentEntry> walk(String id, SearchPattern filter) {
+        LocalFileSystem.resolve(id);
+        return new LocalTreeSpliterator(LocalFileSystem.getRoot(), LocalFileSystem.toRelativePath(id), filter).stream();
+    }
+
+    @Override
+    public DocumentFolder getFolderByMachineAndTool(String machine, String tool) {
+        DocumentFolder x = new DocumentFolder();
+        SearchWithMachineAndOrder sp = new SearchWithMachineAndOrder(machine, tool);
+        getMachineAndTool(x, sp, sp.getLiterals());
+        return x;
+    }
+
+    @Override
+    public DocumentFolder getFolderByTool(String tool) {
+        DocumentFolder x = new DocumentFolder();
+        SearchWithTool sp = new SearchWithTool(tool);
+        getMachineAndTool(x, sp, sp.getLiterals());
+        return x;
+    }
+
+    /**
+     * Answers all lookups with one walk over the tree the name index was built from, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<String, DocumentFolder> getFoldersByTools(Collection<String> tools) {
+        return BatchSearch.forTools(tools, SEPARATOR).search(getSearchTree());
+    }
+
+    /**
+     * Answers all lookups with one walk over the tree the name index was built from, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<MachineAndTool, DocumentFolder> getFoldersByMachineAndTools(Collection<MachineAndTool> pairs) {
+        return BatchSearch.forMachinesAndTools(pairs, SEPARATOR).search(getSearchTree());
+    }
+
+    /**
+     * Returns the name index of the whole directory. It is built with a walk of the root tree on first use. Once it is
+     * older than {@link Configuration#getLocalIndexMaxAge()} it is rebuilt in the background, lookups get the old
+     * index until the new one is done.
+     *
+     * @return The {@link NameIndex}
+     */
+    public NameIndex getNameIndex() {
+        NameIndex index = nameIndex;
+        if (index != null) {
+            if (isExpired())
+                rebuildInBackground();
+            return index;
+        }
+        synchronized (INDEX_LOCK) {
+            if (nameIndex == null) {
+                DocumentFolder root = getRootTree();
+                install(root, NameIndex.build(root, SEPARATOR));
+            }
+            return nameIndex;
+        }
+    }
+
+    /**
+     * Adds a written file to the name index, so lookups find it before the index is rebuilt.
+     *
+     * @param file The written file, with the id and path the walk gives it
+     */
+    public static void addToNameIndex(DocumentFile file) {
+        synchronized (INDEX_LOCK) {
+            if (nameIndex != null)
+                nameIndex.addFile(file);
+            // The running walk may have passed the folder before the file was written
+            if (rebuilding.get())
+                writtenDuringRebuild.add(file);
+        }
+    }
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true))
+            return;
+        synchronized (INDEX_LOCK) {
+            writtenDuringRebuild.clear();
+        }
+        INDEX_BUILDER.execute(() -> {
+            try {
+                DocumentFolder root = getRootTree();
+                install(root, NameIndex.build(root, SEPARATOR));
+            } catch (RuntimeException e) {
+                // Tried again after the next max age, the old index stays
+                logger.warn("Cannot rebuild name index, keeping the old one.", e);
+                nameIndexCreated = System.currentTimeMillis();
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+    }
+
+    private static void install(DocumentFolder root, NameIndex index) {
+        synchronized (INDEX_LOCK) {
+            for (DocumentFile file : writtenDuringRebuild) {
+                index.addFile(file);
+            }
+            writtenDuringRebuild.clear();
+            indexedTree = root;
+            nameIndex = index;
+            nameIndexCreated = System.currentTimeMillis();
+        }
+        logger.info("Built name index with " + index.size() + " entries in " + index.getBuildMillis() + " ms");
+    }
+
+    /**
+     * Drops the name index, the next lookup walks the directory again.
+     */
+    public static void invalidateNameIndex() {
+        synchronized (INDEX_LOCK) {
+            nameIndex = null;
+            indexedTree = null;
+        }
+    }
+
+    private DocumentFolder getSearchTree() {
+        getNameIndex();
+        return indexedTree;
+    }
+
+    private void getMachineAndTool(DocumentFolder x, SearchPattern sp, List<String> literals) {
+        NameIndex index = getNameIndex();
+        if (Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER ||
+                Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER_AND_FILENAME) {
+            x.getFolderList().addAll(index.findFolders(sp, literals));
+        } else {
+            x.getDocumentList().addAll(index.findFiles(sp, literals));
+        }
+    }
+
+    private static boolean isExpired() {
+        return Configuration.getLocalIndexMaxAge() > 0
+                && System.currentTimeMillis() - nameIndexCreated > Configuration.getLocalIndexMaxAge() * 1000L;
+    }
+
+    private DocumentFolder crawl(String path, SearchPattern sp) {
+        Path root = LocalFileSystem.getRoot();
+        LocalFileSystem.resolve(path);
+        long start = Metrics.start();
+        try {
+            return new LocalTreeBuilder(root).build(path, sp);
+        } finally {
+            Metrics.record(Metrics.LOCAL_CRAWL, start);
+        }
+    }
+}
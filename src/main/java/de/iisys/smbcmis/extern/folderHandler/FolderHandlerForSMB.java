@@ -18,26 +18,55 @@
 
 package de.iisys.smbcmis.extern.folderHandler;
 
-import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.msfscc.fileinformation.FileBasicInformation;
 import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.cache.MetadataCache;
 import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.config.PooledShare;
 import de.iisys.smbcmis.extern.config.SMB;
 
+import de.iisys.smbcmis.extern.index.NameIndex;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
 import de.iisys.smbcmis.extern.model.DocumentFile;
 import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.MachineAndTool;
 import de.iisys.smbcmis.extern.strategy.SearchPattern;
 import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
 import de.iisys.smbcmis.extern.strategy.SearchWithMachineAndOrder;
 import de.iisys.smbcmis.extern.strategy.SearchWithTool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
-import java.io.IOException;
-import java.net.URLConnection;
 
 /**
  * Specific FolderHandler for de.iisys.smbcmis.extern.config.SMB shares. Uses de.iisys.smbcmis.extern.config.SMB service which can be configured with de.iisys.smbcmis.extern.config.xml
  */
 @SuppressWarnings("Duplicates")
 public class FolderHandlerForSMB implements FolderHandler {
+    private static final Logger logger = LoggerFactory.getLogger(FolderHandlerForSMB.class);
+
+    private static final Object INDEX_LOCK = new Object();
+    private static final ExecutorService INDEX_BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "smb-index-builder");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicBoolean rebuilding = new AtomicBoolean();
+    private static final List<DocumentFile> writtenDuringRebuild = new ArrayList<>();
+    private static volatile NameIndex nameIndex;
+    private static volatile DocumentFolder indexedTree;
+    private static volatile long nameIndexCreated;
+    private static volatile SMBChangeWatcher changeWatcher;
 
     private String separator;
 
@@ -46,7 +75,7 @@ public class FolderHandlerForSMB implements FolderHandler {
             this.separator = "\\";
         else
             this.separator = "/";
-        System.out.println("Seperator: " + separator);
+        logger.debug("Seperator: " + separator);
     }
     /**
      * Returns a folder (and files) of an de.iisys.smbcmis.extern.config.SMB share with a specific path or ID
@@ -61,13 +90,40 @@ public class FolderHandlerForSMB implements FolderHandler {
         if (id.startsWith("/"))
             id = id.substring(1, id.length());
 
-        if(Configuration.getSmbSystem().equals("WINDOWS"))
-            id = id.replace("/", "\\");
+        SMBChangeWatcher watcher = getWatcher();
+        if (watcher != null) {
+            DocumentFolder cached = watcher.getTree(id);
+            if (cached != null)
+                return cached;
+        }
+
+        String key = id.replace("\\", "/");
+        String smbId = Configuration.getSmbSystem().equals("WINDOWS") ? id.replace("/", "\\") : id;
+        DocumentFolder folder = MetadataCache.folders(MetadataCache.Backend.SMB).get(key, () -> folderVersion(smbId));
+        if (folder != null)
+            return folder;
 
-        DocumentFolder folder = getFilesRecursive(SMB.getInstance().getDiskshare(), id, new SearchWithIgnoreList());
+        // Taken before the crawl, a change during the crawl makes the next request crawl again
+        String version = folderVersion(smbId);
+        folder = crawl(smbId, new SearchWithIgnoreList());
+        MetadataCache.folders(MetadataCache.Backend.SMB).put(key, folder, version);
         return folder;
     }
 
+    /**
+     * Times of the folder itself. They change when an entry of the folder is added, removed or renamed, changes
+     * deeper in the tree are only seen once the cached tree expires.
+     */
+    private static String folderVersion(String id) {
+        FileBasicInformation info = SMB.getInstance().withShare(share -> {
+            long start = Metrics.start();
+            FileBasicInformation basic = share.getFileInformation(id, FileBasicInformation.class);
+            Metrics.record(Metrics.SMB_INFO, start);
+            return basic;
+        });
+        return info.getLastWriteTime().getWindowsTimeStamp() + "-" + info.getChangeTime().getWindowsTimeStamp();
+    }
+
     /**
      * Returns all folders (and files) of an de.iisys.smbcmis.extern.config.SMB share
      *
@@ -75,14 +131,31 @@ public class FolderHandlerForSMB implements FolderHandler {
      */
     @Override
     public DocumentFolder getRootTree() {
-        DiskShare share = SMB.getInstance().getDiskshare();
-        DocumentFolder folder = getFilesRecursive(share, "", new SearchWithIgnoreList());
+        SMBChangeWatcher watcher = getWatcher();
+        if (watcher != null)
+            return watcher.getTree("");
+        DocumentFolder folder = crawl("", new SearchWithIgnoreList());
+        return folder;
+    }
+
+    /**
+     * Walks the share with one borrowed share, the listings are paged by smbj. The share is given back when the
+     * stream is closed, a stream which is neither consumed nor closed keeps it out of the pool for good.
+     */
+    @Override
+    public Stream<DocumentEntry> walk(String id, SearchPattern filter) {
+        if (id.startsWith("/"))
+            id = id.substring(1, id.length());
+        if(Configuration.getSmbSystem().equals("WINDOWS"))
+            id = id.replace("/", "\\");
+
+        PooledShare pooled = SMB.getInstance().borrowShare();
         try {
-            share.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return new SMBTreeSpliterator(pooled, id, filter, separator).stream();
+        } catch (RuntimeException e) {
+            pooled.close();
+            throw e;
         }
-        return folder;
     }
 
     /**
@@ -95,134 +168,251 @@ public class FolderHandlerForSMB implements FolderHandler {
      */
     @Override
     public DocumentFolder getFolderByMachineAndTool(String machine, String tool) {
-
-        //TODO: Get Configuration, Is machine or tool a folder, where is the root
-        DocumentFolder folder = getRootTree();
         DocumentFolder x = new DocumentFolder();
-        getMachineAndTool(x, folder, new SearchWithMachineAndOrder(machine, tool));
-
+        SearchWithMachineAndOrder sp = new SearchWithMachineAndOrder(machine, tool);
+        getMachineAndTool(x, sp, sp.getLiterals());
         return x;
     }
 
     public DocumentFolder getFolderByTool(String tool) {
-
-        //TODO: Get Configuration, Is machine or tool a folder, where is the root
-        DocumentFolder folder = getRootTree();
         DocumentFolder x = new DocumentFolder();
-        getMachineAndTool(x, folder, new SearchWithTool(tool));
-
+        SearchWithTool sp = new SearchWithTool(tool);
+        getMachineAndTool(x, sp, sp.getLiterals());
         return x;
     }
 
-    private void getMachineAndTool(DocumentFolder x, DocumentFolder folder, SearchPattern sp){
-        for (DocumentFolder f : folder.getFolderList()) {
-
-            if(Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER ||
-                    Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER_AND_FILENAME) {
-                if (sp.isFolderRequired(f.getPath() + separator + f.getTitle())) {
-                    x.getFolderList().add(f);
-                    return;
-                }
-            }else {
-                for(DocumentFile file : f.getDocumentList()){
-                    if(sp.isFileRequired(file.getTitle())){
-                        x.getDocumentList().add(file);
-                    }
-                }
-            }
-            getMachineAndTool(x, f, sp);
-        }
+    /**
+     * Answers all lookups with one walk over the tree the name index was built from, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<String, DocumentFolder> getFoldersByTools(Collection<String> tools) {
+        return BatchSearch.forTools(tools, separator).search(getSearchTree());
     }
 
+    /**
+     * Answers all lookups with one walk over the tree the name index was built from, see {@link BatchSearch}.
+     */
+    @Override
+    public Map<MachineAndTool, DocumentFolder> getFoldersByMachineAndTools(Collection<MachineAndTool> pairs) {
+        return BatchSearch.forMachinesAndTools(pairs, separator).search(getSearchTree());
+    }
 
+    /**
+     * @return The cached tree of the watcher or the tree of the name index, both without crawling again
+     */
+    private DocumentFolder getSearchTree() {
+        SMBChangeWatcher watcher = getWatcher();
+        if (watcher != null)
+            return watcher.getTree("");
+        getNameIndex();
+        return indexedTree;
+    }
 
     /**
-     * Recursive method to go through a smb share and find folders and files within
+     * Looks up the matching files or folders in the name index instead of crawling and scanning the whole share.
      *
-     * @param share {@link DiskShare} with the smb resource
-     * @param path  String with the path to search within
+     * @param x        Folder the results are added to
+     * @param sp       The search
+     * @param literals Literals every match contains
+     */
+    private void getMachineAndTool(DocumentFolder x, SearchPattern sp, List<String> literals) {
+        boolean folderStrategy = Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER ||
+                Configuration.getSearchStrategy() == Configuration.SearchForMachineAndOrderStrategy.FOLDER_AND_FILENAME;
+        SMBChangeWatcher watcher = getWatcher();
+        if (watcher != null) {
+            // The cached tree changes, so the watcher hands out copies
+            if (folderStrategy)
+                x.getFolderList().addAll(watcher.findFolders(sp, literals));
+            else
+                x.getDocumentList().addAll(watcher.findFiles(sp, literals));
+            return;
+        }
+
+        NameIndex index = getNameIndex();
+        if (folderStrategy) {
+            x.getFolderList().addAll(index.findFolders(sp, literals));
+        } else {
+            x.getDocumentList().addAll(index.findFiles(sp, literals));
+        }
+    }
+
+    /**
+     * Returns the name index of the whole share. It is built with a crawl of the root tree on first use. Once it is
+     * older than {@link Configuration#getSmbIndexMaxAge()} it is rebuilt in the background, lookups get the old index
+     * until the new one is done. If the share is watched the index of the watcher is returned, it is never rebuilt.
      *
-     * @return {@link DocumentFolder} with all sub folders and files (without content) within
+     * @return The {@link NameIndex}
      */
-    private DocumentFolder getFilesRecursive(DiskShare share, String path, SearchPattern sp) {
-        DocumentFolder folder = new DocumentFolder();
-        for (FileIdBothDirectoryInformation f : share.list(path, "*")) {
+    public NameIndex getNameIndex() {
+        SMBChangeWatcher watcher = getWatcher();
+        if (watcher != null)
+            return watcher.getIndex();
+
+        NameIndex index = nameIndex;
+        if (index != null) {
+            if (isExpired())
+                rebuildInBackground();
+            return index;
+        }
+        synchronized (INDEX_LOCK) {
+            if (nameIndex == null) {
+                DocumentFolder root = crawl("", new SearchWithIgnoreList());
+                install(root, NameIndex.build(root, separator));
+            }
+            return nameIndex;
+        }
+    }
+
+    /**
+     * Adds a written file to the name index, so lookups find it before the index is rebuilt. A watched share learns
+     * about it from the change notification.
+     *
+     * @param file The written file, with the id and path the crawl gives it
+     */
+    public static void addToNameIndex(DocumentFile file) {
+        synchronized (INDEX_LOCK) {
+            if (nameIndex != null)
+                nameIndex.addFile(file);
+            // The running crawl may have listed the folder before the file was written
+            if (rebuilding.get())
+                writtenDuringRebuild.add(file);
+        }
+    }
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true))
+            return;
+        synchronized (INDEX_LOCK) {
+            writtenDuringRebuild.clear();
+        }
+        INDEX_BUILDER.execute(() -> {
             try {
-                if (!(f.getFileName().equals(".") | f.getFileName().equals(".."))) {
-                    if (path.length() == 0) {
-                        if (share.getFileInformation(f.getFileName()).getStandardInformation().isDirectory()) { // If it is a directory, and root
-                            folder.getFolderList().add(getFilesRecursive(share, f.getFileName(), sp));
-                        } else if (sp.isFileRequired(f.getFileName())) { // If it is a file and in root
-                            DocumentFile documentFile = new DocumentFile();
-                            setFileMetadata(documentFile, path, f.getFileName());
-                            folder.getDocumentList().add(documentFile);
-                        }
-                    } else {
-                        if (share.getFileInformation(path + separator + f.getFileName()).getStandardInformation().isDirectory()) { // If it is a directory and not root
-                            folder.getFolderList().add(getFilesRecursive(share, path + separator + f.getFileName(), sp));
-                        } else if (sp.isFileRequired(f.getFileName())) { // If it it a file and not in root
-                            DocumentFile documentFile = new DocumentFile();
-                            setFileMetadata(documentFile, path, f.getFileName());
-                            folder.getDocumentList().add(documentFile);
-                        }
-                    }
-                }
-            }catch (Exception e) {
-                System.err.println("Error Reading files or folders");
-                e.printStackTrace();
+                DocumentFolder root = crawl("", new SearchWithIgnoreList());
+                install(root, NameIndex.build(root, separator));
+            } catch (RuntimeException e) {
+                // Tried again after the next max age, the old index stays
+                logger.warn("Cannot rebuild name index, keeping the old one.", e);
+                nameIndexCreated = System.currentTimeMillis();
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+    }
+
+    private static void install(DocumentFolder root, NameIndex index) {
+        synchronized (INDEX_LOCK) {
+            for (DocumentFile file : writtenDuringRebuild) {
+                index.addFile(file);
             }
+            writtenDuringRebuild.clear();
+            indexedTree = root;
+            nameIndex = index;
+            nameIndexCreated = System.currentTimeMillis();
         }
-        setFolderMetaData(folder, path);
-        return folder;
+        logger.info("Built name index with " + index.size() + " entries in " + index.getBuildMillis() + " ms");
     }
 
+    /**
+     * Drops the name index, the next lookup crawls the share again.
+     */
+    public static void invalidateNameIndex() {
+        synchronized (INDEX_LOCK) {
+            nameIndex = null;
+            indexedTree = null;
+        }
+    }
 
     /**
-     * Quite simple method to set the meta data of a folder
+     * Returns the watcher of the share and starts it on first use.
      *
-     * @param entry {@link DocumentFolder} to add meta data
-     * @param path  The path (or id in this case) of the folder
+     * @return The {@link SMBChangeWatcher}, null if {@link Configuration#getSmbWatchMode()} is NONE
      */
-    private void setFolderMetaData(DocumentFolder entry, String path) {
-        path = path.replace('\\', '/');
-        String p = "/" + path;
+    private SMBChangeWatcher getWatcher() {
+        if (Configuration.getSmbWatchMode() == Configuration.SmbWatchMode.NONE)
+            return null;
+        SMBChangeWatcher watcher = changeWatcher;
+        if (watcher != null)
+            return watcher;
+        synchronized (INDEX_LOCK) {
+            if (changeWatcher == null) {
+                changeWatcher = new SMBChangeWatcher(separator, path -> crawl(path, new SearchWithIgnoreList()),
+                        Configuration.getSmbWatchMode());
+                changeWatcher.start();
+            }
+            return changeWatcher;
+        }
+    }
 
+    /**
+     * Stops watching the share, the next request starts a new watcher with a fresh tree.
+     */
+    public static void stopWatching() {
+        synchronized (INDEX_LOCK) {
+            if (changeWatcher != null) {
+                changeWatcher.close();
+                changeWatcher = null;
+            }
+        }
+    }
 
-        // ID
-        if(path.length() < 1)
-            entry.setId("root");
-        else
-            entry.setId(path);
+    private static boolean isExpired() {
+        return Configuration.getSmbIndexMaxAge() > 0
+                && System.currentTimeMillis() - nameIndexCreated > Configuration.getSmbIndexMaxAge() * 1000L;
+    }
 
-        // Path
-        if (p.substring(0, p.lastIndexOf("/")).length() > 1)
-            entry.setPath(p.substring(0, p.lastIndexOf("/")));
-        else {
-            entry.setPath("/");
+    /**
+     * Crawls the share from the given path. If more than one outstanding request is configured the sub folders are
+     * listed in parallel with up to {@link Configuration#getSmbCrawlShares()} pooled shares.
+     *
+     * @param path String with the path to search within
+     * @param sp   Decides which files are added
+     *
+     * @return {@link DocumentFolder} with all sub folders and files (without content) within
+     */
+    private DocumentFolder crawl(String path, SearchPattern sp) {
+        long start = Metrics.start();
+        try {
+            return crawlShares(path, sp);
+        } finally {
+            Metrics.record(Metrics.SMB_CRAWL, start);
+        }
+    }
+
+    private DocumentFolder crawlShares(String path, SearchPattern sp) {
+        if (Configuration.getSmbCrawlShares() * Configuration.getSmbCrawlRequestsPerShare() <= 1)
+            return SMB.getInstance().withShare(share -> getFilesRecursive(share, path, sp));
+
+        List<PooledShare> borrowed = new ArrayList<>();
+        try {
+            borrowed.add(SMB.getInstance().borrowShare());
+            // Further shares only if the pool has them available right now
+            while (borrowed.size() < Configuration.getSmbCrawlShares()) {
+                PooledShare pooled = SMB.getInstance().tryBorrowShare();
+                if (pooled == null)
+                    break;
+                borrowed.add(pooled);
+            }
+            List<DiskShare> shares = new ArrayList<>();
+            for (PooledShare pooled : borrowed) {
+                shares.add(pooled.getShare());
+            }
+            return new ParallelSMBTreeBuilder(shares, Configuration.getSmbCrawlRequestsPerShare(), separator).build(path, sp);
+        } finally {
+            for (PooledShare pooled : borrowed) {
+                pooled.close();
+            }
         }
-        // Title
-        if (p.substring(p.lastIndexOf("/"), p.length()).length() > 1)
-            entry.setTitle(p.substring(p.lastIndexOf("/") + 1, p.length()));
-        else
-            entry.setTitle("");
     }
 
     /**
-     * This method stets the meta data of the file. It uses {@link URLConnection}.guessContentTypeFromName() to set the MIME type
+     * Builds the tree of a smb share from the directory listings, see {@link SMBTreeBuilder}.
      *
-     * @param documentFile {@link DocumentFile} to add meta data
-     * @param path         The path (or id in this case) of the file
-     * @param name         The title of the file
-     */
-    private void setFileMetadata(DocumentFile documentFile, String path, String name) {
-        path = path.replace('\\', '/');
-        documentFile.setTitle(name);
-        if(path.length()< 1)
-            documentFile.setId(name);
-        else
-            documentFile.setId(path + "/" + name);
-        documentFile.setMimeType(URLConnection.guessContentTypeFromName(name));
-        String p = "/" + path;
-        documentFile.setPath(p);
+     * @param share {@link DiskShare} with the smb resource
+     * @param path  String with the path to search within
+     *
+     * @return {@link DocumentFolder} with all sub folders and files (without content) within
+     */
+    private DocumentFolder getFilesRecursive(DiskShare share, String path, SearchPattern sp) {
+        return new SMBTreeBuilder(share, separator).build(path, sp);
     }
 }
@@ -17,4 +17,4 @@
 
 package de.iisys.smbcmis.extern.folderHandler;
 
-public enum FolderHandlerType {CMIS, SMB}
\ No newline at end of file
+public enum FolderHandlerType {CMIS, SMB, LOCAL}
\ No newline at end of file
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.model.CompactFile;
+import de.iisys.smbcmis.extern.model.CompactFolder;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.Segments;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Builds the {@link DocumentFolder} tree of a local directory with {@link Files#walkFileTree}.
+ * <p>
+ * The walk hands out the attributes of every entry together with the entry, on most platforms they come with the
+ * directory listing, so no further call per entry is needed. Like the {@link SMBTreeBuilder} the tree consists of
+ * {@link CompactFolder} and {@link CompactFile}. Local file systems have no change time in the basic attributes, the
+ * last modification time is used for both. Symbolic links are not followed into directories, so a link can't make
+ * the walk loop; links to files are listed with the attributes of the file.
+ */
+public class LocalTreeBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(LocalTreeBuilder.class);
+
+    private final Path root;
+
+    /**
+     * @param root Directory the relative paths start at
+     */
+    public LocalTreeBuilder(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Walks the folder and all sub folders.
+     *
+     * @param path Path of the folder relative to the root, "" for the root
+     * @param sp   Decides which files are added
+     *
+     * @return {@link CompactFolder} with all sub folders and files (without content) within
+     */
+    public DocumentFolder build(String path, SearchPattern sp) {
+        Path start = path.isEmpty() ? root : root.resolve(path);
+        if (path.isEmpty() && Files.isSymbolicLink(root)) {
+            // The root may be a link to the mount point, only links below it are not followed
+            try {
+                start = root.toRealPath();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot resolve " + root, e);
+            }
+        }
+        Builder builder = new Builder(start, path, sp);
+        try {
+            Files.walkFileTree(start, builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot walk " + start, e);
+        }
+        if (builder.result == null)
+            throw new UncheckedIOException(new NotDirectoryException(start.toString()));
+        return builder.result;
+    }
+
+    /**
+     * Converts a file with the attributes of the walk to a {@link CompactFile} of the folder.
+     */
+    static DocumentFile toDocumentFile(CompactFolder folder, String name, BasicFileAttributes attributes) {
+        CompactFile file = new CompactFile(folder, name);
+        file.setMimeType(URLConnection.guessContentTypeFromName(name));
+        file.setSize(attributes.size());
+        Date modified = new Date(attributes.lastModifiedTime().toMillis());
+        file.setLastModified(modified);
+        file.setChangeTime(modified);
+        return file;
+    }
+
+    /**
+     * @param path       Entry of a directory
+     * @param attributes Attributes of the entry, links not followed
+     *
+     * @return The attributes of the linked file if the entry is a link, null for links to directories and broken links
+     */
+    static BasicFileAttributes followFileLink(Path path, BasicFileAttributes attributes) {
+        if (!attributes.isSymbolicLink())
+            return attributes;
+        try {
+            BasicFileAttributes target = Files.readAttributes(path, BasicFileAttributes.class);
+            return target.isDirectory() ? null : target;
+        } catch (IOException e) {
+            logger.warn("Cannot follow link " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void setTimes(DocumentFolder folder, BasicFileAttributes attributes) {
+        Date modified = new Date(attributes.lastModifiedTime().toMillis());
+        folder.setLastModified(modified);
+        folder.setChangeTime(modified);
+    }
+
+    private static class Builder implements FileVisitor<Path> {
+        private final Path start;
+        private final String startPath;
+        private final SearchPattern sp;
+        private final Deque<Level> levels = new ArrayDeque<>();
+        private final Segments segments = new Segments();
+        private CompactFolder result;
+
+        Builder(Path start, String startPath, SearchPattern sp) {
+            this.start = start;
+            this.startPath = startPath;
+            this.sp = sp;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+            Level parent = levels.peek();
+            CompactFolder folder = parent == null
+                    ? new CompactFolder(null, startPath)
+                    : new CompactFolder(parent.folder, segments.intern(dir.getFileName().toString()));
+            setTimes(folder, attributes);
+            levels.push(new Level(folder));
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            Level level = levels.peek();
+            attributes = followFileLink(file, attributes);
+            if (level == null || attributes == null || attributes.isDirectory())
+                return FileVisitResult.CONTINUE;
+            String name = file.getFileName().toString();
+            try {
+                if (sp.isFileRequired(name))
+                    level.files.add(toDocumentFile(level.folder, segments.intern(name), attributes));
+            } catch (Exception e) {
+                logger.error("Error Reading files or folders", e);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            if (file.equals(start))
+                throw e;
+            // Unreadable entries are skipped, like failed listings of the smb crawl
+            logger.warn("Cannot read " + file + ": " + e.getMessage());
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+            if (e != null)
+                logger.warn("Cannot list " + dir + ": " + e.getMessage());
+            Level level = levels.pop();
+            level.folder.setDocumentList(level.files);
+            level.folder.setFolderList(level.folders);
+            Level parent = levels.peek();
+            if (parent == null)
+                result = level.folder;
+            else
+                parent.folders.add(level.folder);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    private static class Level {
+        private final CompactFolder folder;
+        private final List<DocumentFile> files = new ArrayList<>();
+        private final List<DocumentFolder> folders = new ArrayList<>();
+
+        Level(CompactFolder folder) {
+            this.folder = folder;
+        }
+    }
+}
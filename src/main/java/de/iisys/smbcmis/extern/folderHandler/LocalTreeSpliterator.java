@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+
+/**
+ * Walks a local directory lazily, every directory is read with a {@link DirectoryStream} while the walk passes it.
+ * Like the {@link LocalTreeBuilder} it doesn't follow symbolic links into directories.
+ */
+public class LocalTreeSpliterator extends TreeSpliterator<Path> {
+    private static final Logger logger = LoggerFactory.getLogger(LocalTreeSpliterator.class);
+
+    private final Path root;
+    private final SearchPattern filter;
+
+    /**
+     * @param root   Directory the relative paths start at
+     * @param path   Path of the folder to walk, relative to the root
+     * @param filter Decides which files and folders are returned, all folders are walked
+     */
+    public LocalTreeSpliterator(Path root, String path, SearchPattern filter) {
+        this.root = root;
+        this.filter = filter;
+        open(path);
+    }
+
+    @Override
+    protected DocumentEntry visit(String path, Path child) {
+        String name = child.getFileName().toString();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            logger.warn("Cannot read " + child + ": " + e.getMessage());
+            return null;
+        }
+        attributes = LocalTreeBuilder.followFileLink(child, attributes);
+        if (attributes == null)
+            return null;
+        Date modified = new Date(attributes.lastModifiedTime().toMillis());
+        if (attributes.isDirectory()) {
+            String childPath = path.isEmpty() ? name : path + "/" + name;
+            DocumentFolder folder = new DocumentFolder();
+            SMBTreeBuilder.setFolderMetaData(folder, childPath);
+            folder.setLastModified(modified);
+            folder.setChangeTime(modified);
+            open(childPath);
+            return filter.isFolderRequired(folder.getPath() + "/" + folder.getTitle()) ? folder : null;
+        }
+        if (!filter.isFileRequired(name))
+            return null;
+        DocumentFile file = new DocumentFile();
+        SMBTreeBuilder.setFileMetadata(file, path, name);
+        file.setSize(attributes.size());
+        file.setLastModified(modified);
+        file.setChangeTime(modified);
+        return file;
+    }
+
+    private void open(String path) {
+        Path dir = path.isEmpty() ? root : root.resolve(path);
+        try {
+            DirectoryStream<Path> listing = Files.newDirectoryStream(dir);
+            push(path, listing.iterator(), listing);
+        } catch (IOException e) {
+            logger.error("Error Reading files or folders", e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.model.CompactFolder;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.Segments;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the same {@link DocumentFolder} tree as {@link SMBTreeBuilder}, but lists sub folders concurrently.
+ * <p>
+ * Every folder is a fork/join task. The listings are spread over several shares (each with its own session) and
+ * every share has at most {@code requestsPerShare} outstanding listings. Crawl time is then bound by the depth of
+ * the tree instead of the number of folders.
+ */
+public class ParallelSMBTreeBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelSMBTreeBuilder.class);
+
+    private final List<ShareSlot> slots = new ArrayList<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final SMBTreeBuilder treeBuilder;
+    private final int parallelism;
+
+    /**
+     * @param shares           Shares to spread the listings over, they are not closed
+     * @param requestsPerShare Max number of outstanding listings per share
+     * @param separator        Separator of the smb system
+     */
+    public ParallelSMBTreeBuilder(List<DiskShare> shares, int requestsPerShare, String separator) {
+        int permits = Math.max(1, requestsPerShare);
+        for (DiskShare share : shares) {
+            slots.add(new ShareSlot(share, permits));
+        }
+        this.parallelism = slots.size() * permits;
+        this.treeBuilder = new SMBTreeBuilder(this::list, separator);
+    }
+
+    /**
+     * @param path String with the path to search within
+     * @param sp   Decides which files are added
+     *
+     * @return {@link DocumentFolder} with all sub folders and files (without content) within
+     */
+    public DocumentFolder build(String path, SearchPattern sp) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new FolderTask(null, path, path, sp, new Segments()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Lists the folder with the share which has the most free request slots.
+     */
+    private List<FileIdBothDirectoryInformation> list(String path) {
+        int start = Math.floorMod(nextSlot.getAndIncrement(), slots.size());
+        ShareSlot slot = null;
+        for (int i = 0; i < slots.size() && slot == null; i++) {
+            ShareSlot candidate = slots.get((start + i) % slots.size());
+            if (candidate.permits.tryAcquire())
+                slot = candidate;
+        }
+        if (slot == null) {
+            slot = slots.get(start);
+            slot.permits.acquireUninterruptibly();
+        }
+        try {
+            return SMBTreeBuilder.list(slot.share, path);
+        } finally {
+            slot.permits.release();
+        }
+    }
+
+    /**
+     * Lists one folder, forks a task for every sub folder and joins them in listing order.
+     */
+    @SuppressWarnings("serial")
+    private class FolderTask extends RecursiveTask<DocumentFolder> {
+        private final CompactFolder parent;
+        private final String name;
+        private final String path;
+        private final SearchPattern sp;
+        private final Segments segments;
+
+        /**
+         * @param parent   Parent folder, null for the folder the crawl starts with
+         * @param name     Name of the folder in its parent
+         * @param path     Path of the folder in the share
+         * @param segments Name pool of the crawl
+         */
+        FolderTask(CompactFolder parent, String name, String path, SearchPattern sp, Segments segments) {
+            this.parent = parent;
+            this.name = name;
+            this.path = path;
+            this.sp = sp;
+            this.segments = segments;
+        }
+
+        @Override
+        protected DocumentFolder compute() {
+            CompactFolder folder = new CompactFolder(parent, name);
+            List<DocumentFile> files = new ArrayList<>();
+            List<FolderTask> subTasks = new ArrayList<>();
+            List<FileIdBothDirectoryInformation> subFolders = new ArrayList<>();
+
+            for (FileIdBothDirectoryInformation f : list(path)) {
+                String name = f.getFileName();
+                try {
+                    if (name.equals(".")) {
+                        SMBTreeBuilder.setTimes(folder, f);
+                    } else if (!name.equals("..")) {
+                        if (SMBTreeBuilder.isDirectory(f)) {
+                            FolderTask task = new FolderTask(folder, segments.intern(name), treeBuilder.childPath(path, name), sp, segments);
+                            task.fork();
+                            subTasks.add(task);
+                            subFolders.add(f);
+                        } else if (sp.isFileRequired(name)) {
+                            files.add(SMBTreeBuilder.toDocumentFile(folder, segments.intern(name), f));
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Error Reading files or folders", e);
+                }
+            }
+
+            List<DocumentFolder> folders = new ArrayList<>(subTasks.size());
+            for (int i = 0; i < subTasks.size(); i++) {
+                try {
+                    DocumentFolder child = subTasks.get(i).join();
+                    SMBTreeBuilder.setTimes(child, subFolders.get(i));
+                    folders.add(child);
+                } catch (Exception e) {
+                    logger.error("Error Reading files or folders", e);
+                }
+            }
+            folder.setDocumentList(files);
+            folder.setFolderList(folders);
+            return folder;
+        }
+    }
+
+    private static class ShareSlot {
+        private final DiskShare share;
+        private final Semaphore permits;
+
+        ShareSlot(DiskShare share, int permits) {
+            this.share = share;
+            this.permits = new Semaphore(permits);
+        }
+    }
+}
@@ -0,0 +1,913 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.mserref.NtStatus;
+import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMB2CompletionFilter;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.mssmb2.messages.SMB2ChangeNotifyRequest;
+import com.hierynomus.mssmb2.messages.SMB2ChangeNotifyResponse;
+import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.Directory;
+import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.cache.MetadataCache;
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.config.PooledShare;
+import de.iisys.smbcmis.extern.config.SMB;
+import de.iisys.smbcmis.extern.index.NameIndex;
+import de.iisys.smbcmis.extern.model.CompactFile;
+import de.iisys.smbcmis.extern.model.CompactFolder;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Caches the {@link DocumentFolder} tree of the smb share and keeps it up to date with SMB2 CHANGE_NOTIFY.
+ * <p>
+ * The share is watched either with one recursive subscription on the root or, see
+ * {@link Configuration.SmbWatchMode#TOP_LEVEL}, with one on every top-level folder and a non-recursive one on the root.
+ * Every subscription keeps a thread and a credit of the connection busy, so once there are more than
+ * {@link Configuration#getSmbWatchMaxFolders()} top-level folders the watcher switches to the recursive subscription.
+ * Create, delete, rename and modify events are applied to the cached tree and its {@link NameIndex}, only added
+ * entries and modified files cost a request. If the server overflows its notification buffer
+ * ({@link NtStatus#STATUS_NOTIFY_ENUM_DIR}) the watched folder is listed again, after a lost connection as well.
+ * <p>
+ * All subscriptions share one pooled share. Events are applied in order by a single thread, which is the only one
+ * that changes the tree. Copies of the requested folders are kept until a change below them, so repeated requests
+ * between changes share one copy.
+ */
+public class SMBChangeWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SMBChangeWatcher.class);
+
+    private static final Set<SMB2CompletionFilter> FILTER = EnumSet.of(
+            SMB2CompletionFilter.FILE_NOTIFY_CHANGE_FILE_NAME,
+            SMB2CompletionFilter.FILE_NOTIFY_CHANGE_DIR_NAME,
+            SMB2CompletionFilter.FILE_NOTIFY_CHANGE_SIZE,
+            SMB2CompletionFilter.FILE_NOTIFY_CHANGE_LAST_WRITE);
+    private static final long RETRY_DELAY = 5000;
+    private static final int MAX_SNAPSHOTS = 32;
+
+    private final String separator;
+    private final Function<String, DocumentFolder> crawler;
+    private final int maxFolders;
+    private volatile Configuration.SmbWatchMode mode;
+    private final SearchPattern sp = new SearchWithIgnoreList();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, DocumentFolder> folders = new HashMap<>();
+    private final NameIndex index;
+    private final Map<String, DocumentFolder> snapshots = new LinkedHashMap<String, DocumentFolder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DocumentFolder> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    private final BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+    private final Map<String, Watch> watches = new HashMap<>();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean running;
+    private Thread applier;
+    private PooledShare pooled;
+
+    /**
+     * @param separator Separator of the smb system
+     * @param crawler   Builds the tree of the folder with the given share path, used for the initial tree and re-lists
+     * @param mode      How the share is watched, must not be {@link Configuration.SmbWatchMode#NONE}
+     */
+    public SMBChangeWatcher(String separator, Function<String, DocumentFolder> crawler, Configuration.SmbWatchMode mode) {
+        this.separator = separator;
+        this.crawler = crawler;
+        this.mode = mode;
+        this.maxFolders = Math.max(1, Configuration.getSmbWatchMaxFolders());
+        this.index = new NameIndex(separator);
+    }
+
+    /**
+     * Subscribes to the change notifications and builds the initial tree in the background.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        applier = new Thread(this::applyChanges, "smb-watch-apply");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * Cancels all subscriptions and gives the share back to the pool.
+     */
+    @Override
+    public void close() {
+        running = false;
+        synchronized (watches) {
+            for (Watch watch : watches.values()) {
+                watch.cancel();
+            }
+            watches.clear();
+        }
+        if (applier != null)
+            applier.interrupt();
+        releaseShare(null);
+    }
+
+    /**
+     * Returns a copy of the cached folder with the given path, waits for the initial tree if necessary. The copy is
+     * made once and handed to every caller until the folder changes, it must not be changed.
+     *
+     * @param path Path of the folder with "/" as separator, "" for the root
+     *
+     * @return The copy, null if the folder is not known
+     */
+    public DocumentFolder getTree(String path) {
+        awaitReady();
+        lock.readLock().lock();
+        try {
+            DocumentFolder snapshot;
+            synchronized (snapshots) {
+                snapshot = snapshots.get(path);
+            }
+            if (snapshot != null)
+                return snapshot;
+            DocumentFolder folder = folders.get(path);
+            if (folder == null)
+                return null;
+            // No change can happen while the read lock is held, the copy is current until the next one
+            snapshot = folder.copy();
+            synchronized (snapshots) {
+                snapshots.put(path, snapshot);
+            }
+            return snapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The index of the cached tree, it is updated with every change
+     */
+    public NameIndex getIndex() {
+        awaitReady();
+        return index;
+    }
+
+    /**
+     * Looks up folders in the index, see {@link NameIndex#findFolders(SearchPattern, List)}.
+     *
+     * @return Copies of the matching folders
+     */
+    public List<DocumentFolder> findFolders(SearchPattern search, List<String> literals) {
+        awaitReady();
+        lock.readLock().lock();
+        try {
+            List<DocumentFolder> result = new ArrayList<>();
+            for (DocumentFolder folder : index.findFolders(search, literals)) {
+                result.add(folder.copy());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up files in the index, see {@link NameIndex#findFiles(SearchPattern, List)}.
+     *
+     * @return Copies of the matching files
+     */
+    public List<DocumentFile> findFiles(SearchPattern search, List<String> literals) {
+        awaitReady();
+        lock.readLock().lock();
+        try {
+            List<DocumentFile> result = new ArrayList<>();
+            for (DocumentFile file : index.findFiles(search, literals)) {
+                result.add(file.copy());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void awaitReady() {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Subscribes, builds the initial tree and then applies the queued changes one after another. Changes which
+     * arrive while the tree is built are applied afterwards, adding and removing entries twice does no harm.
+     */
+    private void applyChanges() {
+        try {
+            if (mode == Configuration.SmbWatchMode.TOP_LEVEL) {
+                List<String> topLevel = new ArrayList<>();
+                for (FileIdBothDirectoryInformation f : SMBTreeBuilder.list(share(), "")) {
+                    String name = f.getFileName();
+                    if (SMBTreeBuilder.isDirectory(f) && !name.equals(".") && !name.equals(".."))
+                        topLevel.add(name);
+                }
+                if (topLevel.size() > maxFolders) {
+                    logger.info("Share has " + topLevel.size() + " top-level folders, more than " + maxFolders
+                            + ", watching it recursively.");
+                    mode = Configuration.SmbWatchMode.RECURSIVE;
+                }
+                watch("", mode == Configuration.SmbWatchMode.RECURSIVE);
+                if (mode == Configuration.SmbWatchMode.TOP_LEVEL) {
+                    for (String name : topLevel) {
+                        watch(name, true);
+                    }
+                }
+            } else {
+                watch("", true);
+            }
+
+            long start = System.currentTimeMillis();
+            DocumentFolder tree = crawler.apply("");
+            lock.writeLock().lock();
+            try {
+                changed("");
+                register(tree, "");
+                index.addTree(tree);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Watching smb share, initial tree with " + index.size() + " entries built in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            logger.error("Cannot build initial smb tree.", e);
+            DocumentFolder empty = new DocumentFolder();
+            SMBTreeBuilder.setFolderMetaData(empty, "");
+            lock.writeLock().lock();
+            try {
+                changed("");
+                folders.put("", empty);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            ready.countDown();
+        }
+
+        while (running) {
+            Change change;
+            try {
+                change = changes.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                apply(change);
+            } catch (Exception e) {
+                logger.warn("Cannot apply smb changes of '" + change.path + "', listing it again.", e);
+                try {
+                    relist(change.path, change.recursive);
+                } catch (Exception e2) {
+                    logger.error("Cannot list '" + change.path + "' again.", e2);
+                }
+            }
+        }
+    }
+
+    private void apply(Change change) {
+        if (change.overflow) {
+            logger.debug("Notify buffer overflow for '" + change.path + "', listing it again.");
+            MetadataCache.documents(MetadataCache.Backend.SMB).invalidateAll();
+            relist(change.path, change.recursive);
+            return;
+        }
+        String renamedFrom = null;
+        for (SMB2ChangeNotifyResponse.FileNotifyInfo info : change.infos) {
+            String path = join(change.path, info.getFileName().replace('\\', '/'));
+            MetadataCache.documents(MetadataCache.Backend.SMB).invalidate(path);
+            switch (info.getAction()) {
+                case FILE_ACTION_ADDED:
+                    added(path);
+                    break;
+                case FILE_ACTION_REMOVED:
+                case FILE_ACTION_REMOVED_BY_DELETE:
+                    removed(path);
+                    break;
+                case FILE_ACTION_MODIFIED:
+                    modified(path);
+                    break;
+                case FILE_ACTION_RENAMED_OLD_NAME:
+                    renamedFrom = path;
+                    break;
+                case FILE_ACTION_RENAMED_NEW_NAME:
+                    if (renamedFrom == null)
+                        added(path);
+                    else
+                        renamed(renamedFrom, path);
+                    renamedFrom = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a new file or folder, new folders are crawled.
+     */
+    private void added(String path) {
+        FileAllInformation info;
+        try {
+            info = share().getFileInformation(sharePath(path));
+        } catch (SMBApiException e) {
+            // Already gone again, the remove event follows
+            logger.debug("Added entry '" + path + "' is not available.", e);
+            return;
+        }
+
+        String parentPath = parentOf(path);
+        String name = nameOf(path);
+        if (info.getStandardInformation().isDirectory()) {
+            if (mode == Configuration.SmbWatchMode.TOP_LEVEL && parentPath.isEmpty())
+                watchTopLevel(path);
+            DocumentFolder folder = crawler.apply(sharePath(path));
+            folder.setLastModified(info.getBasicInformation().getLastWriteTime().toDate());
+            folder.setChangeTime(info.getBasicInformation().getChangeTime().toDate());
+
+            lock.writeLock().lock();
+            try {
+                DocumentFolder parent = folders.get(parentPath);
+                if (parent == null)
+                    return;
+                changed(path);
+                removeEntry(parent, name);
+                parent.getFolderList().add(folder);
+                register(folder, path);
+                index.addTree(folder);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else if (sp.isFileRequired(name)) {
+            DocumentFile file = new DocumentFile();
+            SMBTreeBuilder.setFileMetadata(file, parentPath, name);
+            setFileInformation(file, info);
+
+            lock.writeLock().lock();
+            try {
+                DocumentFolder parent = folders.get(parentPath);
+                if (parent == null)
+                    return;
+                changed(path);
+                removeEntry(parent, name);
+                parent.getDocumentList().add(file);
+                index.addFile(file);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void removed(String path) {
+        if (mode == Configuration.SmbWatchMode.TOP_LEVEL && parentOf(path).isEmpty())
+            unwatch(path);
+        lock.writeLock().lock();
+        try {
+            DocumentFolder parent = folders.get(parentOf(path));
+            changed(path);
+            if (parent != null)
+                removeEntry(parent, nameOf(path));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates size and times of a modified file. Modified folders only changed their times, they are ignored.
+     */
+    private void modified(String path) {
+        DocumentFile file;
+        lock.readLock().lock();
+        try {
+            DocumentFolder parent = folders.get(parentOf(path));
+            file = parent == null ? null : findFile(parent, nameOf(path));
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (file == null)
+            return;
+
+        FileAllInformation info;
+        try {
+            info = share().getFileInformation(sharePath(path));
+        } catch (SMBApiException e) {
+            logger.debug("Modified entry '" + path + "' is not available.", e);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            changed(path);
+            setFileInformation(file, info);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the entry within the cached tree, no request is needed unless the old entry is unknown.
+     */
+    private void renamed(String from, String to) {
+        if (!folders.containsKey(from) && !isKnownFile(from)) {
+            added(to);
+            return;
+        }
+        if (mode == Configuration.SmbWatchMode.TOP_LEVEL && parentOf(from).isEmpty())
+            unwatch(from);
+
+        lock.writeLock().lock();
+        try {
+            changed(from);
+            changed(to);
+            DocumentFolder oldParent = folders.get(parentOf(from));
+            DocumentFolder folder = folders.get(from);
+            DocumentFile file = findFile(oldParent, nameOf(from));
+            removeEntry(oldParent, nameOf(from));
+
+            DocumentFolder newParent = folders.get(parentOf(to));
+            if (newParent == null)
+                return;
+            removeEntry(newParent, nameOf(to));
+            if (folder != null) {
+                relabel(newParent, folder, to);
+                newParent.getFolderList().add(folder);
+                register(folder, to);
+                index.addTree(folder);
+            } else if (sp.isFileRequired(nameOf(to))) {
+                relabel(newParent, file, parentOf(to), nameOf(to));
+                newParent.getDocumentList().add(file);
+                index.addFile(file);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (mode == Configuration.SmbWatchMode.TOP_LEVEL && parentOf(to).isEmpty() && folders.containsKey(to))
+            watchTopLevel(to);
+    }
+
+    /**
+     * Lists a watched folder again after an overflow or a lost connection. A recursive subscription could have
+     * missed changes anywhere below, so its whole subtree is crawled. For the non-recursive root subscription one
+     * listing is enough.
+     */
+    private void relist(String path, boolean recursive) {
+        if (!recursive) {
+            relistLevel(path);
+            return;
+        }
+        DocumentFolder fresh = crawler.apply(sharePath(path));
+        lock.writeLock().lock();
+        try {
+            changed(path);
+            DocumentFolder old = folders.get(path);
+            if (path.isEmpty()) {
+                if (old != null) {
+                    unregister(old);
+                    index.removeTree(old);
+                }
+            } else {
+                DocumentFolder parent = folders.get(parentOf(path));
+                if (parent == null)
+                    return;
+                if (old != null) {
+                    fresh.setLastModified(old.getLastModified());
+                    fresh.setChangeTime(old.getChangeTime());
+                }
+                removeEntry(parent, nameOf(path));
+                parent.getFolderList().add(fresh);
+            }
+            register(fresh, path);
+            index.addTree(fresh);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reconciles the direct entries of a folder with a new listing. New sub folders are crawled.
+     */
+    private void relistLevel(String path) {
+        Set<String> names = new HashSet<>();
+        List<String> newFolders = new ArrayList<>();
+        List<DocumentFile> files = new ArrayList<>();
+        for (FileIdBothDirectoryInformation f : SMBTreeBuilder.list(share(), sharePath(path))) {
+            String name = f.getFileName();
+            if (name.equals(".") || name.equals(".."))
+                continue;
+            names.add(name);
+            if (SMBTreeBuilder.isDirectory(f)) {
+                if (!folders.containsKey(join(path, name)))
+                    newFolders.add(join(path, name));
+            } else if (sp.isFileRequired(name)) {
+                files.add(SMBTreeBuilder.toDocumentFile(path, f));
+            }
+        }
+
+        List<String> gone = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            DocumentFolder folder = folders.get(path);
+            if (folder == null)
+                return;
+            changed(path);
+            for (DocumentFile file : files) {
+                removeEntry(folder, file.getTitle());
+                folder.getDocumentList().add(file);
+                index.addFile(file);
+            }
+            for (DocumentFile file : new ArrayList<>(folder.getDocumentList())) {
+                if (!names.contains(file.getTitle()))
+                    removeEntry(folder, file.getTitle());
+            }
+            for (DocumentFolder child : folder.getFolderList()) {
+                if (!names.contains(child.getTitle()))
+                    gone.add(join(path, child.getTitle()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (String removed : gone) {
+            removed(removed);
+        }
+        for (String added : newFolders) {
+            added(added);
+        }
+    }
+
+    /**
+     * Removes the file or folder with the given name from the folder, the index and the folder map.
+     */
+    private void removeEntry(DocumentFolder parent, String name) {
+        for (Iterator<DocumentFile> it = parent.getDocumentList().iterator(); it.hasNext(); ) {
+            DocumentFile file = it.next();
+            if (name.equals(file.getTitle())) {
+                it.remove();
+                index.removeFile(file.getId());
+            }
+        }
+        for (Iterator<DocumentFolder> it = parent.getFolderList().iterator(); it.hasNext(); ) {
+            DocumentFolder folder = it.next();
+            if (name.equals(folder.getTitle())) {
+                it.remove();
+                unregister(folder);
+                index.removeTree(folder);
+            }
+        }
+    }
+
+    private DocumentFile findFile(DocumentFolder parent, String name) {
+        for (DocumentFile file : parent.getDocumentList()) {
+            if (name.equals(file.getTitle()))
+                return file;
+        }
+        return null;
+    }
+
+    private boolean isKnownFile(String path) {
+        lock.readLock().lock();
+        try {
+            DocumentFolder parent = folders.get(parentOf(path));
+            return parent != null && findFile(parent, nameOf(path)) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gives the moved folder and its subtree their new ids and paths. Compact nodes are linked to their new parent,
+     * their ids and paths follow from it.
+     */
+    private void relabel(DocumentFolder parent, DocumentFolder folder, String path) {
+        if (folder instanceof CompactFolder)
+            ((CompactFolder) folder).relocate(parent instanceof CompactFolder ? (CompactFolder) parent : null,
+                    parent instanceof CompactFolder ? nameOf(path) : path);
+        else
+            SMBTreeBuilder.setFolderMetaData(folder, path);
+        for (DocumentFile file : folder.getDocumentList()) {
+            relabel(folder, file, path, file.getTitle());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            relabel(folder, child, join(path, child.getTitle()));
+        }
+    }
+
+    private static void relabel(DocumentFolder folder, DocumentFile file, String path, String name) {
+        if (file instanceof CompactFile && folder instanceof CompactFolder)
+            ((CompactFile) file).relocate((CompactFolder) folder, name);
+        else
+            SMBTreeBuilder.setFileMetadata(file, path, name);
+    }
+
+    /**
+     * Drops the copies which contain the changed path, those of its parents and of the folders below it. Called
+     * with the write lock held.
+     */
+    private void changed(String path) {
+        synchronized (snapshots) {
+            if (path.isEmpty())
+                snapshots.clear();
+            else
+                snapshots.keySet().removeIf(key -> key.isEmpty() || key.equals(path) || path.startsWith(key + "/")
+                        || key.startsWith(path + "/"));
+        }
+    }
+
+    private void register(DocumentFolder folder, String path) {
+        folders.put(path, folder);
+        for (DocumentFolder child : folder.getFolderList()) {
+            register(child, join(path, child.getTitle()));
+        }
+    }
+
+    /**
+     * Removes the folder and its sub folders from the folder map, the ids of folders are their paths except for the
+     * root.
+     */
+    private void unregister(DocumentFolder folder) {
+        folders.remove(folder.getTitle().isEmpty() ? "" : folder.getId());
+        for (DocumentFolder child : folder.getFolderList()) {
+            unregister(child);
+        }
+    }
+
+    private static void setFileInformation(DocumentFile file, FileAllInformation info) {
+        file.setSize(info.getStandardInformation().getEndOfFile());
+        file.setLastModified(info.getBasicInformation().getLastWriteTime().toDate());
+        file.setChangeTime(info.getBasicInformation().getChangeTime().toDate());
+    }
+
+    private void watch(String path, boolean recursive) {
+        synchronized (watches) {
+            if (!running || watches.containsKey(path))
+                return;
+            Watch watch = new Watch(path, recursive);
+            watches.put(path, watch);
+            Thread thread = new Thread(watch, "smb-watch-" + (path.isEmpty() ? "root" : path));
+            thread.setDaemon(true);
+            thread.start();
+            watch.awaitSubscribed();
+        }
+    }
+
+    /**
+     * Subscribes to a new top-level folder. Beyond {@link Configuration#getSmbWatchMaxFolders()} folders the
+     * subscriptions are replaced by one recursive subscription on the root.
+     */
+    private void watchTopLevel(String path) {
+        synchronized (watches) {
+            if (watches.containsKey(path))
+                return;
+            // The root subscription is one of them
+            if (watches.size() <= maxFolders) {
+                watch(path, true);
+                return;
+            }
+            logger.info("More than " + maxFolders + " top-level folders, watching the share recursively.");
+            mode = Configuration.SmbWatchMode.RECURSIVE;
+            List<Watch> topLevel = new ArrayList<>(watches.values());
+            watches.clear();
+            for (Watch watch : topLevel) {
+                watch.cancel();
+            }
+            watch("", true);
+        }
+        // Changes of the root between the two subscriptions are caught by one listing
+        changes.add(new Change("", false, null));
+    }
+
+    private void unwatch(String path) {
+        synchronized (watches) {
+            Watch watch = watches.remove(path);
+            if (watch != null)
+                watch.cancel();
+        }
+    }
+
+    private synchronized DiskShare share() {
+        if (pooled == null)
+            pooled = SMB.getInstance().borrowShare();
+        return pooled.getShare();
+    }
+
+    /**
+     * Gives the share back to the pool, invalidated if it failed. Does nothing if another thread already replaced it.
+     */
+    private synchronized void releaseShare(DiskShare failed) {
+        if (pooled == null || (failed != null && pooled.getShare() != failed))
+            return;
+        if (failed != null)
+            pooled.invalidate();
+        pooled.close();
+        pooled = null;
+    }
+
+    private String sharePath(String path) {
+        return separator.equals("/") ? path : path.replace("/", separator);
+    }
+
+    private static String join(String path, String name) {
+        return path.isEmpty() ? name : path + "/" + name;
+    }
+
+    private static String parentOf(String path) {
+        int i = path.lastIndexOf('/');
+        return i < 0 ? "" : path.substring(0, i);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * One CHANGE_NOTIFY subscription. A new request is sent as soon as the previous one completed, the server
+     * collects the changes in between.
+     */
+    private class Watch implements Runnable {
+        private final String path;
+        private final boolean recursive;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile Directory directory;
+        private volatile Thread thread;
+
+        Watch(String path, boolean recursive) {
+            this.path = path;
+            this.recursive = recursive;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            boolean resync = false;
+            while (running && !cancelled) {
+                DiskShare share = null;
+                try {
+                    share = share();
+                    try (Directory dir = share.openDirectory(sharePath(path),
+                            EnumSet.of(AccessMask.FILE_LIST_DIRECTORY, AccessMask.FILE_READ_ATTRIBUTES), null,
+                            SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN,
+                            EnumSet.of(SMB2CreateOptions.FILE_DIRECTORY_FILE))) {
+                        directory = dir;
+                        if (resync)
+                            changes.add(new Change(path, recursive, null));
+                        resync = false;
+                        if (!listen(share, dir))
+                            return;
+                    }
+                } catch (SMBApiException e) {
+                    if (e.getStatus() == NtStatus.STATUS_OBJECT_NAME_NOT_FOUND
+                            || e.getStatus() == NtStatus.STATUS_OBJECT_PATH_NOT_FOUND) {
+                        logger.debug("Watched folder '" + path + "' does not exist anymore.");
+                        return;
+                    }
+                    resync = retry(share, e);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    resync = retry(share, e);
+                } finally {
+                    subscribed.countDown();
+                }
+            }
+        }
+
+        /**
+         * Sends one request after another and queues the changes.
+         *
+         * @return False if the subscription ended because the folder was closed or deleted
+         */
+        private boolean listen(DiskShare share, Directory dir) throws Exception {
+            Session session = share.getTreeConnect().getSession();
+            int bufferSize = Math.min(Configuration.getSmbWatchBufferSize(),
+                    session.getConnection().getNegotiatedProtocol().getMaxTransactSize());
+            while (running && !cancelled) {
+                SMB2ChangeNotifyRequest request = new SMB2ChangeNotifyRequest(
+                        session.getConnection().getNegotiatedProtocol().getDialect(), session.getSessionId(),
+                        share.getTreeConnect().getTreeId(), dir.getFileId(), FILTER, bufferSize, recursive);
+                Future<SMB2ChangeNotifyResponse> future = session.send(request);
+                subscribed.countDown();
+
+                SMB2ChangeNotifyResponse response;
+                try {
+                    response = future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                NtStatus status = response.getHeader().getStatus();
+                if (status == NtStatus.STATUS_SUCCESS) {
+                    changes.add(new Change(path, recursive, response.getFileNotifyInfoList()));
+                } else if (status == NtStatus.STATUS_NOTIFY_ENUM_DIR) {
+                    changes.add(new Change(path, recursive, null));
+                } else if (status == NtStatus.STATUS_NOTIFY_CLEANUP || status == NtStatus.STATUS_FILE_CLOSED
+                        || status == NtStatus.STATUS_DELETE_PENDING) {
+                    return false;
+                } else {
+                    throw new SMBApiException(response.getHeader(), "CHANGE_NOTIFY failed for " + path);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Waits before the next attempt. The tree is listed again once the subscription is back.
+         */
+        private boolean retry(DiskShare share, Exception e) {
+            if (!running || cancelled)
+                return false;
+            logger.warn("Watching '" + path + "' failed, retrying in " + RETRY_DELAY + " ms.", e);
+            if (share != null)
+                releaseShare(share);
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch (InterruptedException ie) {
+                cancelled = true;
+            }
+            return true;
+        }
+
+        void awaitSubscribed() {
+            try {
+                subscribed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Directory dir = directory;
+            if (dir != null)
+                dir.closeSilently();
+            Thread t = thread;
+            if (t != null)
+                t.interrupt();
+        }
+    }
+
+    /**
+     * Changes reported by one response, or an overflow if there are no infos.
+     */
+    private static class Change {
+        private final String path;
+        private final boolean recursive;
+        private final boolean overflow;
+        private final List<SMB2ChangeNotifyResponse.FileNotifyInfo> infos;
+
+        Change(String path, boolean recursive, List<SMB2ChangeNotifyResponse.FileNotifyInfo> infos) {
+            this.path = path;
+            this.recursive = recursive;
+            this.overflow = infos == null;
+            this.infos = infos == null ? Collections.emptyList() : infos;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.smbj.share.DiskShare;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.CompactFile;
+import de.iisys.smbcmis.extern.model.CompactFolder;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.model.Segments;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the {@link DocumentFolder} tree of a smb share from directory listings only.
+ * <p>
+ * A listing already carries attributes, size and timestamps of every entry, so one QUERY_DIRECTORY per folder is
+ * enough and no further request per entry is needed. The tree consists of {@link CompactFolder} and
+ * {@link CompactFile}, which derive ids and paths from their parents instead of storing them.
+ */
+public class SMBTreeBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(SMBTreeBuilder.class);
+
+    private final DirectoryLister lister;
+    private final String separator;
+
+    /**
+     * @param share     {@link DiskShare} with the smb resource
+     * @param separator Separator of the smb system
+     */
+    public SMBTreeBuilder(DiskShare share, String separator) {
+        this(path -> list(share, path), separator);
+    }
+
+    /**
+     * @param lister    Source of the directory listings
+     * @param separator Separator of the smb system
+     */
+    public SMBTreeBuilder(DirectoryLister lister, String separator) {
+        this.lister = lister;
+        this.separator = separator;
+    }
+
+    /**
+     * Recursive method to go through a smb share and find folders and files within
+     *
+     * @param path String with the path to search within
+     * @param sp   Decides which files are added
+     *
+     * @return {@link CompactFolder} with all sub folders and files (without content) within
+     */
+    public DocumentFolder build(String path, SearchPattern sp) {
+        CompactFolder folder = new CompactFolder(null, path);
+        fill(folder, path, sp, new Segments());
+        return folder;
+    }
+
+    /**
+     * Lists the folder and adds its files and sub folders. Sub folders are filled recursively.
+     */
+    private void fill(CompactFolder folder, String path, SearchPattern sp, Segments segments) {
+        List<DocumentFile> files = new ArrayList<>();
+        List<DocumentFolder> folders = new ArrayList<>();
+        for (FileIdBothDirectoryInformation f : lister.list(path)) {
+            try {
+                String name = f.getFileName();
+                if (name.equals(".")) {
+                    // The entry of the listed directory itself
+                    setTimes(folder, f);
+                } else if (!name.equals("..")) {
+                    if (isDirectory(f)) {
+                        CompactFolder child = new CompactFolder(folder, segments.intern(name));
+                        fill(child, childPath(path, name), sp, segments);
+                        setTimes(child, f);
+                        folders.add(child);
+                    } else if (sp.isFileRequired(name)) {
+                        files.add(toDocumentFile(folder, segments.intern(name), f));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Error Reading files or folders", e);
+            }
+        }
+        folder.setDocumentList(files);
+        folder.setFolderList(folders);
+    }
+
+    /**
+     * @return Path of the entry with the given name in the folder with the given path
+     */
+    public String childPath(String path, String name) {
+        if (path.length() == 0)
+            return name;
+        return path + separator + name;
+    }
+
+    /**
+     * Converts an entry of a listing to a {@link DocumentFile} with meta data, size and timestamps.
+     *
+     * @param path Path of the listed folder
+     * @param f    Entry of the listing
+     *
+     * @return The {@link DocumentFile}
+     */
+    public static DocumentFile toDocumentFile(String path, FileIdBothDirectoryInformation f) {
+        DocumentFile documentFile = new DocumentFile();
+        setFileMetadata(documentFile, path, f.getFileName());
+        documentFile.setSize(f.getEndOfFile());
+        documentFile.setLastModified(f.getLastWriteTime().toDate());
+        documentFile.setChangeTime(f.getChangeTime().toDate());
+        return documentFile;
+    }
+
+    /**
+     * Converts an entry of a listing to a {@link CompactFile} of the folder, with size and timestamps.
+     *
+     * @param folder Listed folder
+     * @param name   Name of the entry, usually pooled by the {@link Segments} of the build
+     * @param f      Entry of the listing
+     *
+     * @return The {@link CompactFile}
+     */
+    public static DocumentFile toDocumentFile(CompactFolder folder, String name, FileIdBothDirectoryInformation f) {
+        CompactFile documentFile = new CompactFile(folder, name);
+        documentFile.setMimeType(URLConnection.guessContentTypeFromName(f.getFileName()));
+        documentFile.setSize(f.getEndOfFile());
+        documentFile.setLastModified(f.getLastWriteTime().toDate());
+        documentFile.setChangeTime(f.getChangeTime().toDate());
+        return documentFile;
+    }
+
+    public static boolean isDirectory(FileIdBothDirectoryInformation f) {
+        return (f.getFileAttributes() & FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue()) != 0;
+    }
+
+    static void setTimes(DocumentFolder folder, FileIdBothDirectoryInformation f) {
+        folder.setLastModified(f.getLastWriteTime().toDate());
+        folder.setChangeTime(f.getChangeTime().toDate());
+    }
+
+    /**
+     * Quite simple method to set the meta data of a folder
+     *
+     * @param entry {@link DocumentFolder} to add meta data
+     * @param path  The path (or id in this case) of the folder
+     */
+    public static void setFolderMetaData(DocumentFolder entry, String path) {
+        path = path.replace('\\', '/');
+        String p = "/" + path;
+
+
+        // ID
+        if(path.length() < 1)
+            entry.setId("root");
+        else
+            entry.setId(path);
+
+        // Path
+        if (p.substring(0, p.lastIndexOf("/")).length() > 1)
+            entry.setPath(p.substring(0, p.lastIndexOf("/")));
+        else {
+            entry.setPath("/");
+        }
+        // Title
+        if (p.substring(p.lastIndexOf("/"), p.length()).length() > 1)
+            entry.setTitle(p.substring(p.lastIndexOf("/") + 1, p.length()));
+        else
+            entry.setTitle("");
+    }
+
+    /**
+     * This method stets the meta data of the file. It uses {@link URLConnection}.guessContentTypeFromName() to set the MIME type
+     *
+     * @param documentFile {@link DocumentFile} to add meta data
+     * @param path         The path (or id in this case) of the file
+     * @param name         The title of the file
+     */
+    public static void setFileMetadata(DocumentFile documentFile, String path, String name) {
+        path = path.replace('\\', '/');
+        documentFile.setTitle(name);
+        if(path.length()< 1)
+            documentFile.setId(name);
+        else
+            documentFile.setId(path + "/" + name);
+        documentFile.setMimeType(URLConnection.guessContentTypeFromName(name));
+        String p = "/" + path;
+        documentFile.setPath(p);
+    }
+
+    /**
+     * Lists all entries of the directory and records the round trip in the {@link Metrics}.
+     */
+    static List<FileIdBothDirectoryInformation> list(DiskShare share, String path) {
+        long start = Metrics.start();
+        List<FileIdBothDirectoryInformation> entries = share.list(path, "*");
+        Metrics.record(Metrics.SMB_LIST, start);
+        Metrics.count(Metrics.SMB_ENTRIES_LISTED, entries.size());
+        return entries;
+    }
+
+    /**
+     * Source of directory listings, usually {@link DiskShare#list(String, String)}.
+     */
+    public interface DirectoryLister {
+        List<FileIdBothDirectoryInformation> list(String path);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msfscc.fileinformation.FileIdBothDirectoryInformation;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.smbj.share.Directory;
+import de.iisys.smbcmis.extern.config.PooledShare;
+import de.iisys.smbcmis.extern.metrics.Metrics;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+
+/**
+ * Walks a smb share lazily. Directories are read with {@link Directory#iterator(Class, String)}, which fetches one
+ * QUERY_DIRECTORY response after the other, so huge directories are never listed completely in memory.
+ * <p>
+ * The share is borrowed from the pool for the whole walk and given back when the walk is exhausted, a listing fails or
+ * the stream is closed. The open directories need the share, so it can't be given back earlier; streams which are not
+ * consumed completely must be closed.
+ */
+public class SMBTreeSpliterator extends TreeSpliterator<FileIdBothDirectoryInformation> {
+    private static final Logger logger = LoggerFactory.getLogger(SMBTreeSpliterator.class);
+
+    private final PooledShare pooled;
+    private final SearchPattern filter;
+    private final SMBTreeBuilder paths;
+    private final String separator;
+
+    /**
+     * @param pooled    Borrowed share, closed with the stream
+     * @param path      Path of the folder to walk
+     * @param filter    Decides which files and folders are returned, all folders are walked
+     * @param separator Separator of the smb system
+     */
+    public SMBTreeSpliterator(PooledShare pooled, String path, SearchPattern filter, String separator) {
+        this.pooled = pooled;
+        this.filter = filter;
+        this.separator = separator;
+        this.paths = new SMBTreeBuilder(pooled.getShare(), separator);
+        open(path);
+    }
+
+    @Override
+    protected DocumentEntry visit(String path, FileIdBothDirectoryInformation f) {
+        Metrics.count(Metrics.SMB_ENTRIES_LISTED, 1);
+        String name = f.getFileName();
+        if (name.equals(".") || name.equals(".."))
+            return null;
+        if (SMBTreeBuilder.isDirectory(f)) {
+            String childPath = paths.childPath(path, name);
+            DocumentFolder folder = new DocumentFolder();
+            SMBTreeBuilder.setFolderMetaData(folder, childPath);
+            SMBTreeBuilder.setTimes(folder, f);
+            open(childPath);
+            return filter.isFolderRequired(folder.getPath() + separator + folder.getTitle()) ? folder : null;
+        }
+        return filter.isFileRequired(name) ? SMBTreeBuilder.toDocumentFile(path, f) : null;
+    }
+
+    @Override
+    protected void onClose() {
+        pooled.close();
+    }
+
+    private void open(String path) {
+        long start = Metrics.start();
+        try {
+            Directory directory = pooled.getShare().openDirectory(path,
+                    EnumSet.of(AccessMask.FILE_LIST_DIRECTORY, AccessMask.FILE_READ_ATTRIBUTES), null,
+                    SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN,
+                    EnumSet.of(SMB2CreateOptions.FILE_DIRECTORY_FILE));
+            Metrics.record(Metrics.SMB_OPEN, start);
+            push(path, directory.iterator(FileIdBothDirectoryInformation.class, "*"), directory);
+        } catch (SMBApiException e) {
+            logger.error("Error Reading files or folders", e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.folderHandler;
+
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a folder tree depth first while it is listed. Only the listings of the folders on the current path are
+ * open, so nothing is kept of the folders already walked.
+ *
+ * @param <T> Type of the entries of a listing
+ */
+public abstract class TreeSpliterator<T> extends Spliterators.AbstractSpliterator<DocumentEntry> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TreeSpliterator.class);
+
+    private final Deque<Level<T>> stack = new ArrayDeque<>();
+    private boolean closed;
+
+    protected TreeSpliterator() {
+        super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+    }
+
+    /**
+     * Lists a folder lazily.
+     *
+     * @param path Path of the folder
+     * @param children Iterator over the listing, fetches further pages on demand
+     * @param handle Closed when the listing is done, may be null
+     */
+    protected void push(String path, Iterator<T> children, Closeable handle) {
+        stack.push(new Level<>(path, children, handle));
+    }
+
+    /**
+     * Converts one entry of a listing. Sub folders have to be {@link #push(String, Iterator, Closeable) pushed} here.
+     *
+     * @param path  Path of the listed folder
+     * @param child Entry of the listing
+     *
+     * @return The entry to return, null if it is skipped
+     */
+    protected abstract DocumentEntry visit(String path, T child);
+
+    /**
+     * Closes this spliterator when the walk is exhausted or fails, so the resources are released even if
+     * the stream is never closed.
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super DocumentEntry> action) {
+        DocumentEntry entry = null;
+        try {
+            while (entry == null && !stack.isEmpty()) {
+                Level<T> level = stack.peek();
+                if (!level.children.hasNext()) {
+                    stack.pop();
+                    closeQuietly(level);
+                    continue;
+                }
+                entry = visit(level.path, level.children.next());
+            }
+            if (entry != null) {
+                action.accept(entry);
+                return true;
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * Closes all open listings. Called when the walk is done or the stream is closed.
+     */
+    @Override
+    public void close() {
+        while (!stack.isEmpty()) {
+            closeQuietly(stack.pop());
+        }
+        if (!closed) {
+            closed = true;
+            onClose();
+        }
+    }
+
+    /**
+     * Releases resources of the whole walk.
+     */
+    protected void onClose() {
+    }
+
+    /**
+     * @return A sequential stream which closes this spliterator when it is closed
+     */
+    public Stream<DocumentEntry> stream() {
+        return StreamSupport.stream(this, false).onClose(this::close);
+    }
+
+    private void closeQuietly(Level<T> level) {
+        if (level.handle == null)
+            return;
+        try {
+            level.handle.close();
+        } catch (Exception e) {
+            logger.debug("Cannot close listing of " + level.path, e);
+        }
+    }
+
+    private static class Level<T> {
+        private final String path;
+        private final Iterator<T> children;
+        private final Closeable handle;
+
+        Level(String path, Iterator<T> children, Closeable handle) {
+            this.path = path;
+            this.children = children;
+            this.handle = handle;
+        }
+    }
+}
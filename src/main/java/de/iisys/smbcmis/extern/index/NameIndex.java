@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.index;
+
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.RegexMatcher;
+import de.iisys.smbcmis.extern.strategy.SearchPattern;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index over the names of a {@link DocumentFolder} tree for machine and tool lookups.
+ * <p>
+ * Every name is split into trigrams, the index maps each trigram to the entries containing it. A lookup intersects
+ * the entries of all trigrams of the literals every match contains, see {@link RegexMatcher#requiredLiterals(String)},
+ * and checks only these candidates with the {@link SearchPattern}. The literals are empty if the regex has embedded
+ * flags like (?i) or escapes they can't be read from, then all entries are checked. Files are indexed by title,
+ * folders by path, separator and title, the same strings the search strategies are matched against.
+ */
+public class NameIndex {
+
+    private static final int GRAM = 3;
+    private static final String ROOT = "/";
+
+    private final String separator;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> files = new HashMap<>();
+    private final Map<String, Entry> folders = new HashMap<>();
+    private final Map<String, Set<Entry>> grams = new HashMap<>();
+    private long sequence;
+    private long buildMillis;
+
+    /**
+     * @param separator Separator between path and title of folder keys
+     */
+    public NameIndex(String separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Builds the index of a complete tree.
+     *
+     * @param root      Root of the tree
+     * @param separator Separator between path and title of folder keys
+     *
+     * @return The index
+     */
+    public static NameIndex build(DocumentFolder root, String separator) {
+        long start = System.nanoTime();
+        NameIndex index = new NameIndex(separator);
+        index.addTree(root);
+        index.buildMillis = (System.nanoTime() - start) / 1000000;
+        return index;
+    }
+
+    /**
+     * Adds the folder, its files and all sub folders. Entries with the same id are replaced.
+     */
+    public void addTree(DocumentFolder folder) {
+        lock.writeLock().lock();
+        try {
+            addTreeUnlocked(folder);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the folder, its files and all sub folders.
+     */
+    public void removeTree(DocumentFolder folder) {
+        lock.writeLock().lock();
+        try {
+            removeTreeUnlocked(folder);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addFile(DocumentFile file) {
+        lock.writeLock().lock();
+        try {
+            put(files, file, file.getTitle());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFile(String id) {
+        lock.writeLock().lock();
+        try {
+            remove(files, id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the files whose title matches the search. Files directly in the root folder are skipped like in the scan
+     * of the tree, which only looks at the files of the sub folders.
+     *
+     * @param sp       The exact search
+     * @param literals Literals every matching title contains, may be empty
+     *
+     * @return The matching files in the order they were added
+     */
+    public List<DocumentFile> findFiles(SearchPattern sp, List<String> literals) {
+        List<DocumentFile> result = new ArrayList<>();
+        for (Entry entry : candidates(files, literals)) {
+            if (!ROOT.equals(entry.entry.getPath()) && sp.isFileRequired(entry.key))
+                result.add((DocumentFile) entry.entry);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the folders whose path and title match the search. Of nested matching folders only the topmost is
+     * returned, it contains the others anyway.
+     *
+     * @param sp       The exact search
+     * @param literals Literals every matching key contains, may be empty
+     *
+     * @return The matching folders in the order they were added
+     */
+    public List<DocumentFolder> findFolders(SearchPattern sp, List<String> literals) {
+        List<DocumentFolder> result = new ArrayList<>();
+        String lastMatch = null;
+        for (Entry entry : candidates(folders, literals)) {
+            String id = entry.entry.getId();
+            if (lastMatch != null && id.startsWith(lastMatch + "/"))
+                continue;
+            if (sp.isFolderRequired(entry.key)) {
+                result.add((DocumentFolder) entry.entry);
+                lastMatch = id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of indexed files and folders
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return files.size() + folders.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of distinct trigrams
+     */
+    public int getGramCount() {
+        lock.readLock().lock();
+        try {
+            return grams.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Time in milliseconds {@link #build(DocumentFolder, String)} needed, 0 for an incrementally built index
+     */
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * Intersects the entries of all trigrams of the literals. Without a usable literal all entries are candidates.
+     */
+    private List<Entry> candidates(Map<String, Entry> entries, List<String> literals) {
+        lock.readLock().lock();
+        try {
+            List<Set<Entry>> postings = new ArrayList<>();
+            for (String literal : literals) {
+                if (literal.length() < GRAM)
+                    continue;
+                for (String gram : gramsOf(literal)) {
+                    Set<Entry> posting = grams.get(gram);
+                    if (posting == null)
+                        return Collections.emptyList();
+                    postings.add(posting);
+                }
+            }
+
+            List<Entry> result = new ArrayList<>();
+            if (postings.isEmpty()) {
+                result.addAll(entries.values());
+            } else {
+                postings.sort(Comparator.comparingInt(Set::size));
+                Set<Entry> smallest = postings.get(0);
+                for (Entry entry : smallest) {
+                    if (entries.get(entry.entry.getId()) != entry)
+                        continue;
+                    boolean inAll = true;
+                    for (int i = 1; i < postings.size() && inAll; i++) {
+                        inAll = postings.get(i).contains(entry);
+                    }
+                    if (inAll)
+                        result.add(entry);
+                }
+            }
+            result.sort(Comparator.comparingLong(e -> e.sequence));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addTreeUnlocked(DocumentFolder folder) {
+        put(folders, folder, folderKey(folder));
+        for (DocumentFile file : folder.getDocumentList()) {
+            put(files, file, file.getTitle());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            addTreeUnlocked(child);
+        }
+    }
+
+    private void removeTreeUnlocked(DocumentFolder folder) {
+        remove(folders, folder.getId());
+        for (DocumentFile file : folder.getDocumentList()) {
+            remove(files, file.getId());
+        }
+        for (DocumentFolder child : folder.getFolderList()) {
+            removeTreeUnlocked(child);
+        }
+    }
+
+    private String folderKey(DocumentFolder folder) {
+        return folder.getPath() + separator + folder.getTitle();
+    }
+
+    private void put(Map<String, Entry> entries, DocumentEntry documentEntry, String key) {
+        if (documentEntry.getId() == null || key == null)
+            return;
+        remove(entries, documentEntry.getId());
+        Entry entry = new Entry(documentEntry, key, sequence++);
+        entries.put(documentEntry.getId(), entry);
+        for (String gram : gramsOf(key)) {
+            grams.computeIfAbsent(gram, g -> new HashSet<>()).add(entry);
+        }
+    }
+
+    private void remove(Map<String, Entry> entries, String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null)
+            return;
+        for (String gram : gramsOf(entry.key)) {
+            Set<Entry> posting = grams.get(gram);
+            if (posting != null) {
+                posting.remove(entry);
+                if (posting.isEmpty())
+                    grams.remove(gram);
+            }
+        }
+    }
+
+    private static Collection<String> gramsOf(String s) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= s.length(); i++) {
+            result.add(s.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final DocumentEntry entry;
+        private final String key;
+        private final long sequence;
+
+        Entry(DocumentEntry entry, String key, long sequence) {
+            this.entry = entry;
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+}
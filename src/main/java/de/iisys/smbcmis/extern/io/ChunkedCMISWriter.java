@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.io;
+
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.runtime.ObjectIdImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.enums.CmisVersion;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uploads a stream to a cmis document in chunks.
+ * <p>
+ * Content which fits into one chunk is sent with the create or update request. Larger content is sent with the first
+ * chunk and appended chunk by chunk with appendContentStream (CMIS 1.1), only one chunk buffer exists per upload. A
+ * chunk which fails with a connection or server error is sent again, up to {@code retries} times; before that the
+ * length of the document tells if the failed request was applied anyway. A chunk is only sent again if the document
+ * has none of it, any other length fails the write instead of appending bytes twice. Repositories with CMIS 1.0 get the whole
+ * stream in one request with unknown length.
+ */
+public class ChunkedCMISWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedCMISWriter.class);
+
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final Session session;
+    private final int chunkSize;
+    private final int retries;
+
+    /**
+     * @param session   The cmis session
+     * @param chunkSize Bytes per request, content up to this size is sent in one request
+     * @param retries   Number of times a failed chunk is sent again
+     */
+    public ChunkedCMISWriter(Session session, int chunkSize, int retries) {
+        this.session = session;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Writes the stream until its end to the document with the name in the folder. An existing document gets the new
+     * content, otherwise the document is created. The stream is not closed.
+     *
+     * @param folderId Id of the folder
+     * @param path     Path of the document, used to find an existing one
+     * @param name     Name of the document
+     * @param mimeType Mime type of the content, null for application/octet-stream
+     * @param content  The content
+     *
+     * @return The written document
+     *
+     * @throws IOException If reading the stream fails
+     */
+    public Document write(String folderId, String path, String name, String mimeType, InputStream content) throws IOException {
+        String type = mimeType == null ? DEFAULT_MIME_TYPE : mimeType;
+        PushbackInputStream in = new PushbackInputStream(content, 1);
+        byte[] chunk = new byte[chunkSize];
+        int length = readChunk(in, chunk);
+        boolean last = isEnd(in);
+        Document existing = findDocument(path);
+
+        if (!last && session.getRepositoryInfo().getCmisVersion() == CmisVersion.CMIS_1_0) {
+            logger.debug("Repository can't append content, sending " + path + " in one request.");
+            InputStream whole = new SequenceInputStream(new ByteArrayInputStream(chunk, 0, length), in);
+            ContentStream stream = session.getObjectFactory().createContentStream(name, -1, type, whole);
+            if (existing == null)
+                return create(folderId, name, stream);
+            Document updated = existing.setContentStream(stream, true);
+            return updated == null ? reload(existing.getId()) : updated;
+        }
+
+        Document document = writeFirstChunk(folderId, path, name, type, existing, chunk, length);
+        long offset = length;
+        while (!last) {
+            length = readChunk(in, chunk);
+            last = isEnd(in);
+            document = appendChunk(document, name, type, chunk, length, offset, last);
+            offset += length;
+        }
+        logger.debug("Wrote {} bytes to {}.", offset, path);
+        return document;
+    }
+
+    private Document writeFirstChunk(String folderId, String path, String name, String type, Document existing,
+                                     byte[] chunk, int length) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                ContentStream stream = createContentStream(name, type, chunk, length);
+                if (existing == null)
+                    return create(folderId, name, stream);
+                Document updated = existing.setContentStream(stream, true);
+                return updated == null ? reload(existing.getId()) : updated;
+            } catch (CmisConnectionException | CmisRuntimeException e) {
+                if (attempt >= retries)
+                    throw e;
+                logger.warn("Writing first chunk of " + path + " failed, retrying.");
+                logger.debug("", e);
+                // A create which reached the server leaves the document behind, it is updated then
+                if (existing == null)
+                    existing = findDocument(path);
+            }
+        }
+    }
+
+    private Document appendChunk(Document document, String name, String type, byte[] chunk, int length, long offset,
+                                 boolean last) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Document appended = document.appendContentStream(createContentStream(name, type, chunk, length), last);
+                return appended == null ? document : appended;
+            } catch (CmisConnectionException | CmisRuntimeException e) {
+                if (attempt >= retries)
+                    throw e;
+                logger.warn("Appending chunk at " + offset + " to " + document.getName() + " failed, retrying.");
+                logger.debug("", e);
+                document = reload(document.getId());
+                long current = document.getContentStreamLength();
+                if (current == offset + length) {
+                    // The failed request was applied, only its answer got lost
+                    return document;
+                }
+                if (current != offset) {
+                    // Unknown or partly applied, sending the chunk again would corrupt the content
+                    throw new CmisRuntimeException("Content of " + document.getName() + " has length " + current
+                            + " after failed append at " + offset + ", cannot send the chunk again.", e);
+                }
+            }
+        }
+    }
+
+    private Document create(String folderId, String name, ContentStream stream) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_DOCUMENT.value());
+        properties.put(PropertyIds.NAME, name);
+        return reload(session.createDocument(properties, new ObjectIdImpl(folderId), stream, null).getId());
+    }
+
+    private ContentStream createContentStream(String name, String type, byte[] chunk, int length) {
+        return session.getObjectFactory().createContentStream(name, length, type, new ByteArrayInputStream(chunk, 0, length));
+    }
+
+    private Document findDocument(String path) {
+        try {
+            CmisObject object = session.getObjectByPath(path, createUncachedContext());
+            if (object.getBaseTypeId() != BaseTypeId.CMIS_DOCUMENT)
+                throw new IllegalStateException(path + " exists, but is no document.");
+            return (Document) object;
+        } catch (CmisObjectNotFoundException e) {
+            return null;
+        }
+    }
+
+    private Document reload(String id) {
+        return (Document) session.getObject(id, createUncachedContext());
+    }
+
+    private OperationContext createUncachedContext() {
+        OperationContext context = session.createOperationContext();
+        context.setCacheEnabled(false);
+        return context;
+    }
+
+    /**
+     * Fills the chunk as far as the stream allows.
+     *
+     * @return Number of bytes read
+     */
+    private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+        int length = 0;
+        while (length < chunk.length) {
+            int read = in.read(chunk, length, chunk.length - length);
+            if (read < 0)
+                break;
+            length += read;
+        }
+        return length;
+    }
+
+    private static boolean isEnd(PushbackInputStream in) throws IOException {
+        int next = in.read();
+        if (next < 0)
+            return true;
+        in.unread(next);
+        return false;
+    }
+}
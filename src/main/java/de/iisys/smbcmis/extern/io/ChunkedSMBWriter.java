@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.io;
+
+import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a stream to a SMB file in chunks of the negotiated max write size.
+ * <p>
+ * Every chunk is written at its own offset, so up to {@code parallelism} chunks are sent at the same time while the
+ * next chunk is read from the stream. Only {@code parallelism} chunk buffers exist per upload, the memory needed does
+ * not depend on the file size.
+ */
+public class ChunkedSMBWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedSMBWriter.class);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "smb-writer-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File file;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * @param share       Share of the file, used to get the negotiated max write size
+     * @param file        File opened for writing
+     * @param parallelism Max number of chunks in flight
+     */
+    public ChunkedSMBWriter(DiskShare share, File file, int parallelism) {
+        this.file = file;
+        this.chunkSize = getChunkSize(share);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Chunk size is the negotiated max write size, limited by the write buffer of the client.
+     */
+    public static int getChunkSize(DiskShare share) {
+        Connection connection = share.getTreeConnect().getSession().getConnection();
+        return Math.min(connection.getNegotiatedProtocol().getMaxWriteSize(), connection.getConfig().getWriteBufferSize());
+    }
+
+    /**
+     * Writes the stream from offset 0 until its end. The stream is not closed.
+     *
+     * @param in Source of the content
+     *
+     * @return Number of written bytes
+     *
+     * @throws IOException If reading the stream or writing a chunk fails
+     */
+    public long write(InputStream in) throws IOException {
+        BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(parallelism);
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        int allocated = 1;
+        byte[] buffer = new byte[chunkSize];
+        long offset = 0;
+
+        try {
+            int n = readChunk(in, buffer);
+            if (n < chunkSize) {
+                // Small file, no need for another thread
+                writeChunk(buffer, offset, n);
+                return n;
+            }
+
+            while (n > 0) {
+                final byte[] chunk = buffer;
+                final long chunkOffset = offset;
+                final int length = n;
+                pending.add(writers.submit(() -> {
+                    try {
+                        writeChunk(chunk, chunkOffset, length);
+                    } finally {
+                        freeBuffers.offer(chunk);
+                    }
+                    return null;
+                }));
+                offset += n;
+                awaitDone(pending, false);
+
+                if (n < chunkSize)
+                    break;
+                buffer = freeBuffers.poll();
+                if (buffer == null) {
+                    if (allocated < parallelism) {
+                        allocated++;
+                        buffer = new byte[chunkSize];
+                    } else {
+                        buffer = freeBuffers.take();
+                    }
+                }
+                n = readChunk(in, buffer);
+            }
+            awaitDone(pending, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } finally {
+            // After a failure the file is closed by the caller, no write may still use the handle then
+            awaitQuietly(pending);
+        }
+        logger.debug("Wrote {} bytes in chunks of {} bytes.", offset, chunkSize);
+        return offset;
+    }
+
+    /**
+     * Checks finished writes for errors. Waits for all writes if {@code all} is set.
+     */
+    private void awaitDone(Deque<Future<?>> pending, boolean all) throws IOException, InterruptedException {
+        while (!pending.isEmpty() && (all || pending.peekFirst().isDone())) {
+            try {
+                pending.pollFirst().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException("Cannot write chunk to " + file, cause);
+            }
+        }
+    }
+
+    /**
+     * Waits until every write is done, their errors are only logged. Interrupts are kept for the caller.
+     */
+    private void awaitQuietly(Deque<Future<?>> pending) {
+        boolean interrupted = false;
+        Future<?> future;
+        while ((future = pending.pollFirst()) != null) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    logger.debug("Write to " + file + " failed after an earlier error.", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void writeChunk(byte[] buffer, long fileOffset, int length) {
+        int written = 0;
+        while (written < length) {
+            written += file.write(buffer, fileOffset + written, written, length - written);
+        }
+    }
+
+    /**
+     * Fills the buffer as far as the stream allows.
+     *
+     * @return Number of bytes read, less than the buffer size only at the end of the stream
+     */
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n == -1)
+                break;
+            total += n;
+        }
+        return total;
+    }
+}
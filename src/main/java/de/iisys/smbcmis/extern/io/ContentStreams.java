@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.io;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Helper for copying document content between streams.
+ * <p>
+ * Every copy borrows a large buffer from a small pool, so copying a file needs constant heap no matter how big the
+ * file is. Nested copies get buffers of their own, and the pool keeps at most {@code MAX_POOLED} buffers, however many
+ * threads copy.
+ */
+public final class ContentStreams {
+
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int MAX_POOLED = 16;
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private ContentStreams() {
+    }
+
+    /**
+     * Copies the stream until its end. Neither stream is closed.
+     *
+     * @param in  Source of the content
+     * @param out Target of the content
+     *
+     * @return Number of copied bytes
+     *
+     * @throws IOException If reading or writing fails
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long count = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                count += bytesRead;
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes the stream as base64 string while reading it, the raw bytes are never held as a whole.
+     *
+     * @param in Source of the content, it is not closed
+     *
+     * @return The content as base64 string
+     *
+     * @throws IOException If reading fails
+     */
+    public static String toBase64(InputStream in) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(BUFFER_SIZE);
+        try (OutputStream out = new Base64OutputStream(encoded, true, 0, null)) {
+            copy(in, out);
+        }
+        return new String(encoded.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] acquire() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    /**
+     * The size check races with other releases, the pool may briefly hold a few more buffers.
+     */
+    private static void release(byte[] buffer) {
+        if (BUFFERS.size() < MAX_POOLED)
+            BUFFERS.offer(buffer);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.io;
+
+import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
+import de.iisys.smbcmis.extern.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a SMB file with several READ requests in flight, the counterpart of the {@link ChunkedSMBWriter}.
+ * <p>
+ * The file is read in chunks of the negotiated max read size, up to {@code readAhead} chunks ahead of the consumer
+ * are requested at the same time and handed out in order. smbj only sends a request when the server granted enough
+ * credits, so the credits bound the requests in flight as well. With a latency of some milliseconds one request at a
+ * time leaves most of the bandwidth unused, the pipelined requests hide the round trips.
+ * <p>
+ * Only {@code readAhead + 1} chunk buffers exist per stream. The reads of all streams share a pool of pool-size times
+ * read-ahead threads, further reads wait in its queue. Closing the stream waits for the requests in flight but does not
+ * close the file.
+ */
+public class PipelinedSMBReader extends InputStream {
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedSMBReader.class);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor readers = createReaders();
+
+    private final File file;
+    private final int chunkSize;
+    private final int readAhead;
+    private final long size;
+
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long nextOffset;
+    private long position;
+    private boolean endRequested;
+    private Chunk current;
+    private int currentPosition;
+    private boolean closed;
+
+    /**
+     * @param file      File opened for reading
+     * @param chunkSize Bytes per READ request, see {@link #getChunkSize(DiskShare)}
+     * @param readAhead Max number of requests in flight
+     * @param size      Size of the file if known, otherwise -1 and the end is found by reading
+     */
+    public PipelinedSMBReader(File file, int chunkSize, int readAhead, long size) {
+        this.file = file;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.readAhead = Math.max(1, readAhead);
+        this.size = size;
+    }
+
+    private static ThreadPoolExecutor createReaders() {
+        int threads = Math.max(1, Configuration.getSmbPoolSize() * Math.max(1, Configuration.getSmbReadAhead()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "smb-reader-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Chunk size is the negotiated max read size, limited by the read buffer of the client.
+     */
+    public static int getChunkSize(DiskShare share) {
+        Connection connection = share.getTreeConnect().getSession().getConnection();
+        return Math.min(connection.getNegotiatedProtocol().getMaxReadSize(), connection.getConfig().getReadBufferSize());
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (len == 0)
+            return 0;
+        while (current == null || currentPosition >= current.length) {
+            if (!nextChunk())
+                return -1;
+        }
+        int n = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current.buffer, currentPosition, b, off, n);
+        currentPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - currentPosition;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        discardPending();
+    }
+
+    /**
+     * Makes the next chunk in order the current one.
+     *
+     * @return False at the end of the file
+     */
+    private boolean nextChunk() throws IOException {
+        if (current != null) {
+            freeBuffers.push(current.buffer);
+            current = null;
+        }
+        request();
+        Chunk chunk = pending.pollFirst();
+        if (chunk == null)
+            return false;
+        chunk.length = await(chunk);
+        if (chunk.length <= 0) {
+            freeBuffers.push(chunk.buffer);
+            discardPending();
+            return false;
+        }
+        position += chunk.length;
+        if (chunk.length < chunk.requested && (size < 0 || position < size)) {
+            // A short read, the chunks behind it start at the wrong offset
+            logger.debug("Short read of {} bytes at {}, requesting again from {}.", chunk.length, chunk.offset, position);
+            discardPending();
+            nextOffset = position;
+            endRequested = false;
+        }
+        current = chunk;
+        currentPosition = 0;
+        return true;
+    }
+
+    /**
+     * Fills the pipeline up to {@code readAhead} requests.
+     */
+    private void request() {
+        while (pending.size() < readAhead && !endRequested) {
+            if (size >= 0 && nextOffset >= size) {
+                endRequested = true;
+                break;
+            }
+            int length = size < 0 ? chunkSize : (int) Math.min(chunkSize, size - nextOffset);
+            byte[] buffer = freeBuffers.isEmpty() ? new byte[chunkSize] : freeBuffers.pop();
+            long offset = nextOffset;
+            Chunk chunk = new Chunk(offset, buffer, length);
+            chunk.read = readers.submit(() -> file.read(buffer, offset, 0, length));
+            pending.addLast(chunk);
+            nextOffset += length;
+        }
+    }
+
+    private int await(Chunk chunk) throws IOException {
+        try {
+            return chunk.read.get();
+        } catch (InterruptedException e) {
+            // Still in flight, closing the stream waits for it
+            pending.addFirst(chunk);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Cannot read chunk at " + chunk.offset + " of " + file, cause);
+        }
+    }
+
+    /**
+     * Waits until every request in flight is done and drops their data. The requests are not cancelled, the file must
+     * not be closed while one of them still uses the handle.
+     */
+    private void discardPending() {
+        boolean interrupted = false;
+        Chunk chunk;
+        while ((chunk = pending.pollFirst()) != null) {
+            while (true) {
+                try {
+                    chunk.read.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    logger.debug("Dropped read at " + chunk.offset + " failed.", e);
+                    break;
+                }
+            }
+            freeBuffers.push(chunk.buffer);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static class Chunk {
+        private final long offset;
+        private final byte[] buffer;
+        private final int requested;
+        private Future<Integer> read;
+        private int length;
+
+        Chunk(long offset, byte[] buffer, int requested) {
+            this.offset = offset;
+            this.buffer = buffer;
+            this.requested = requested;
+        }
+    }
+}
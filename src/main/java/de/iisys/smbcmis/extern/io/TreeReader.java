@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.io;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the output of the {@link TreeWriter} token by token. Unknown fields are skipped.
+ */
+public class TreeReader implements Closeable {
+
+    private final JsonParser parser;
+    private final List<String> paths;
+
+    private TreeReader(JsonParser parser, boolean pathDictionary) {
+        this.parser = parser;
+        this.paths = pathDictionary ? new ArrayList<>() : null;
+    }
+
+    /**
+     * @param in JSON written by {@link TreeWriter#json(java.io.OutputStream)}, it is closed with the reader
+     */
+    public static TreeReader json(InputStream in) throws IOException {
+        return new TreeReader(TreeWriter.JSON.createParser(in), false);
+    }
+
+    /**
+     * @param in Smile data written by {@link TreeWriter#smile(java.io.OutputStream)}, it is closed with the reader
+     */
+    public static TreeReader smile(InputStream in) throws IOException {
+        return new TreeReader(TreeWriter.SMILE.createParser(in), true);
+    }
+
+    /**
+     * Reads a tree written by {@link TreeWriter#write(DocumentFolder)}.
+     */
+    public DocumentFolder readTree() throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        return readFolder();
+    }
+
+    /**
+     * Reads an array written by {@link TreeWriter#writeEntries(java.util.stream.Stream)} and passes every entry to the
+     * consumer as soon as it is read.
+     *
+     * @return Number of read entries
+     */
+    public long readEntries(Consumer<? super DocumentEntry> consumer) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_ARRAY);
+        long count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            // The writer puts the type first
+            expect(parser.nextToken(), JsonToken.FIELD_NAME);
+            if (!TreeWriter.TYPE.equals(parser.getCurrentName()))
+                throw new JsonParseException(parser, "Entry without type");
+            parser.nextToken();
+            if (TreeWriter.FOLDERS.equals(parser.getText()))
+                consumer.accept(readFolder());
+            else
+                consumer.accept(readFile());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private DocumentFolder readFolder() throws IOException {
+        DocumentFolder folder = new DocumentFolder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (name) {
+                case TreeWriter.ID:
+                    folder.setId(readText(value));
+                    break;
+                case TreeWriter.PATH:
+                    folder.setPath(readPath(value));
+                    break;
+                case TreeWriter.TITLE:
+                    folder.setTitle(readText(value));
+                    break;
+                case TreeWriter.LAST_MODIFIED:
+                    folder.setLastModified(readDate(value));
+                    break;
+                case TreeWriter.CHANGE_TIME:
+                    folder.setChangeTime(readDate(value));
+                    break;
+                case TreeWriter.DOCUMENTS:
+                    expect(value, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        folder.getDocumentList().add(readFile());
+                    }
+                    break;
+                case TreeWriter.FOLDERS:
+                    expect(value, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        folder.getFolderList().add(readFolder());
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return folder;
+    }
+
+    private DocumentFile readFile() throws IOException {
+        DocumentFile file = new DocumentFile();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (name) {
+                case TreeWriter.ID:
+                    file.setId(readText(value));
+                    break;
+                case TreeWriter.TITLE:
+                    file.setTitle(readText(value));
+                    break;
+                case TreeWriter.MIME_TYPE:
+                    file.setMimeType(readText(value));
+                    break;
+                case TreeWriter.PATH:
+                    file.setPath(readPath(value));
+                    break;
+                case TreeWriter.CONTENT:
+                    file.setContent(readText(value));
+                    break;
+                case TreeWriter.SIZE:
+                    file.setSize(parser.getLongValue());
+                    break;
+                case TreeWriter.LAST_MODIFIED:
+                    file.setLastModified(readDate(value));
+                    break;
+                case TreeWriter.CHANGE_TIME:
+                    file.setChangeTime(readDate(value));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return file;
+    }
+
+    private String readText(JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    private String readPath(JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            int index = parser.getIntValue();
+            if (paths == null || index >= paths.size())
+                throw new JsonParseException(parser, "Unknown path reference " + index);
+            return paths.get(index);
+        }
+        String path = readText(value);
+        if (paths != null && path != null)
+            paths.add(path);
+        return path;
+    }
+
+    private Date readDate(JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : new Date(parser.getLongValue());
+    }
+
+    private void expect(JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected)
+            throw new JsonParseException(parser, "Expected " + expected + " but was " + actual);
+    }
+}
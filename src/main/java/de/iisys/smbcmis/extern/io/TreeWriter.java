@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.io;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Writes {@link DocumentFolder} trees token by token, no string or node tree of the whole output is built.
+ * <p>
+ * JSON output has the field names of the annotated model ("document" and "folder" for the lists), null fields are
+ * left out. The binary output is Smile with shared names and short values; in addition every distinct path is written
+ * once and referenced by its index afterwards, which removes most of the repetitive path strings of a big tree. Read
+ * both with {@link TreeReader}.
+ * <p>
+ * {@link #writeEntries(Stream)} writes a flat array while a walk is still running, see
+ * {@link de.iisys.smbcmis.extern.folderHandler.FolderHandler#walk(String, de.iisys.smbcmis.extern.strategy.SearchPattern)}.
+ */
+public class TreeWriter implements Closeable {
+
+    static final String ID = "id";
+    static final String PATH = "path";
+    static final String TITLE = "title";
+    static final String MIME_TYPE = "mimeType";
+    static final String CONTENT = "content";
+    static final String SIZE = "size";
+    static final String LAST_MODIFIED = "lastModified";
+    static final String CHANGE_TIME = "changeTime";
+    static final String DOCUMENTS = "document";
+    static final String FOLDERS = "folder";
+    static final String TYPE = "type";
+
+    static final JsonFactory JSON = new JsonFactory();
+    static final SmileFactory SMILE = new SmileFactory()
+            .configure(SmileGenerator.Feature.CHECK_SHARED_NAMES, true)
+            .configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+
+    private final JsonGenerator generator;
+    private final Map<String, Integer> paths;
+
+    private TreeWriter(JsonGenerator generator, boolean pathDictionary) {
+        this.generator = generator;
+        this.paths = pathDictionary ? new HashMap<>() : null;
+    }
+
+    /**
+     * @param out Target of the UTF-8 JSON, it is closed with the writer
+     */
+    public static TreeWriter json(OutputStream out) throws IOException {
+        return new TreeWriter(JSON.createGenerator(out, JsonEncoding.UTF8), false);
+    }
+
+    /**
+     * @param out Target of the Smile data, it is closed with the writer
+     */
+    public static TreeWriter smile(OutputStream out) throws IOException {
+        return new TreeWriter(SMILE.createGenerator(out), true);
+    }
+
+    /**
+     * Writes the folder with its files and sub folders as one object.
+     */
+    public void write(DocumentFolder folder) throws IOException {
+        writeFolder(folder, true);
+    }
+
+    /**
+     * Writes the entries as an array while they are pulled from the stream, folders without their children. Every
+     * entry has a "type" field, "folder" or "document". The stream is not closed.
+     *
+     * @return Number of written entries
+     */
+    public long writeEntries(Stream<? extends DocumentEntry> entries) throws IOException {
+        long[] count = new long[1];
+        generator.writeStartArray();
+        try {
+            entries.forEach(entry -> {
+                try {
+                    if (entry instanceof DocumentFolder)
+                        writeFolder((DocumentFolder) entry, false);
+                    else
+                        writeFile((DocumentFile) entry, true);
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        return count[0];
+    }
+
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+
+    private void writeFolder(DocumentFolder folder, boolean children) throws IOException {
+        generator.writeStartObject();
+        if (!children)
+            generator.writeStringField(TYPE, FOLDERS);
+        writeString(ID, folder.getId());
+        writePath(folder.getPath());
+        writeString(TITLE, folder.getTitle());
+        writeDate(LAST_MODIFIED, folder.getLastModified());
+        writeDate(CHANGE_TIME, folder.getChangeTime());
+        if (children) {
+            generator.writeArrayFieldStart(DOCUMENTS);
+            for (DocumentFile file : folder.getDocumentList()) {
+                writeFile(file, false);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart(FOLDERS);
+            for (DocumentFolder child : folder.getFolderList()) {
+                writeFolder(child, true);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeFile(DocumentFile file, boolean typed) throws IOException {
+        generator.writeStartObject();
+        if (typed)
+            generator.writeStringField(TYPE, DOCUMENTS);
+        writeString(ID, file.getId());
+        writeString(TITLE, file.getTitle());
+        writeString(MIME_TYPE, file.getMimeType());
+        writePath(file.getPath());
+        writeString(CONTENT, file.getContent());
+        generator.writeNumberField(SIZE, file.getSize());
+        writeDate(LAST_MODIFIED, file.getLastModified());
+        writeDate(CHANGE_TIME, file.getChangeTime());
+        generator.writeEndObject();
+    }
+
+    private void writePath(String path) throws IOException {
+        if (path == null)
+            return;
+        if (paths != null) {
+            Integer index = paths.get(path);
+            if (index != null) {
+                generator.writeNumberField(PATH, index);
+                return;
+            }
+            paths.put(path, paths.size());
+        }
+        generator.writeStringField(PATH, path);
+    }
+
+    private void writeString(String name, String value) throws IOException {
+        if (value != null)
+            generator.writeStringField(name, value);
+    }
+
+    private void writeDate(String name, Date value) throws IOException {
+        if (value != null)
+            generator.writeNumberField(name, value.getTime());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the metrics as MBeans of the platform server, one per operation
+ * ({@code de.iisys.smbcmis:type=Operation,name=smb.list}) and one per counter
+ * ({@code de.iisys.smbcmis:type=Counter,name=smb.bytes.read}). They are registered on first use.
+ * <p>
+ * Recording is lock free: the latencies go into power of two buckets of microseconds, from which the percentiles are
+ * read, no single values are kept.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+
+    public static final String DOMAIN = "de.iisys.smbcmis";
+
+    private final MBeanServer server;
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(MBeanServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void record(String operation, long start) {
+        long nanos = System.nanoTime() - start;
+        OperationStats stats = operations.get(operation);
+        if (stats == null)
+            stats = operations.computeIfAbsent(operation, name -> register("Operation", name, new OperationStats()));
+        stats.add(nanos);
+    }
+
+    @Override
+    public void count(String counter, long amount) {
+        Counter value = counters.get(counter);
+        if (value == null)
+            value = counters.computeIfAbsent(counter, name -> register("Counter", name, new Counter()));
+        value.sum.add(amount);
+    }
+
+    /**
+     * @return Statistics of the operation, null if it was not recorded yet
+     */
+    public OperationStatsMXBean getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return Value of the counter, 0 if it was not counted yet
+     */
+    public long getCounter(String counter) {
+        Counter value = counters.get(counter);
+        return value == null ? 0 : value.getValue();
+    }
+
+    private <T> T register(String type, String name, T bean) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            try {
+                server.registerMBean(bean, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                // Left by an earlier registry, e.g. after a redeployment
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (InstanceNotFoundException ignored) {
+                }
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not register metric " + name + ": " + e.getMessage());
+        }
+        return bean;
+    }
+
+    static class OperationStats implements OperationStatsMXBean {
+        // Bucket i holds latencies below 2^i microseconds, the last one everything above
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void add(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        @Override
+        public double get50thPercentileMillis() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public double get95thPercentileMillis() {
+            return percentile(0.95);
+        }
+
+        @Override
+        public double get99thPercentileMillis() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        private double percentile(double fraction) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank)
+                    return Math.min((1L << i) / 1e3, getMaxMillis());
+            }
+            return getMaxMillis();
+        }
+    }
+
+    static class Counter implements CounterMXBean {
+        private final LongAdder sum = new LongAdder();
+
+        @Override
+        public long getValue() {
+            return sum.sum();
+        }
+
+        @Override
+        public void reset() {
+            sum.reset();
+        }
+    }
+}
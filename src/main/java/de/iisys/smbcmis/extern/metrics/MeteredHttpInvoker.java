@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.metrics;
+
+import org.apache.chemistry.opencmis.client.bindings.spi.BindingSession;
+import org.apache.chemistry.opencmis.client.bindings.spi.http.DefaultHttpInvoker;
+import org.apache.chemistry.opencmis.client.bindings.spi.http.Output;
+import org.apache.chemistry.opencmis.client.bindings.spi.http.Response;
+import org.apache.chemistry.opencmis.commons.impl.UrlBuilder;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Http invoker of the cmis browser binding which records every request in the {@link Metrics}, set with
+ * {@link org.apache.chemistry.opencmis.commons.SessionParameter#HTTP_INVOKER_CLASS}.
+ * <p>
+ * The latency is the time until the response headers arrived, reading the body is part of the calling operation. The
+ * read bytes are taken from the content length of the response, so chunked responses are not counted.
+ */
+public class MeteredHttpInvoker extends DefaultHttpInvoker {
+
+    @Override
+    public Response invokeGET(UrlBuilder url, BindingSession session) {
+        long start = Metrics.start();
+        return record("get", start, super.invokeGET(url, session));
+    }
+
+    @Override
+    public Response invokeGET(UrlBuilder url, BindingSession session, BigInteger offset, BigInteger length) {
+        long start = Metrics.start();
+        return record("get", start, super.invokeGET(url, session, offset, length));
+    }
+
+    @Override
+    public Response invokePOST(UrlBuilder url, String contentType, Output writer, BindingSession session) {
+        long start = Metrics.start();
+        return record("post", start, super.invokePOST(url, contentType, count(writer), session));
+    }
+
+    @Override
+    public Response invokePUT(UrlBuilder url, String contentType, Map<String, String> headers, Output writer,
+                              BindingSession session) {
+        long start = Metrics.start();
+        return record("put", start, super.invokePUT(url, contentType, headers, count(writer), session));
+    }
+
+    @Override
+    public Response invokeDELETE(UrlBuilder url, BindingSession session) {
+        long start = Metrics.start();
+        return record("delete", start, super.invokeDELETE(url, session));
+    }
+
+    private static Response record(String method, long start, Response response) {
+        Metrics.record(Metrics.CMIS_HTTP + method, start);
+        BigInteger length = response.getContentLength();
+        if (length != null)
+            Metrics.count(Metrics.CMIS_BYTES_READ, length.longValue());
+        return response;
+    }
+
+    private static Output count(Output writer) {
+        if (writer == null)
+            return null;
+        return out -> {
+            CountingOutputStream counting = new CountingOutputStream(out);
+            try {
+                writer.write(counting);
+            } finally {
+                Metrics.count(Metrics.CMIS_BYTES_WRITTEN, counting.count);
+            }
+        };
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
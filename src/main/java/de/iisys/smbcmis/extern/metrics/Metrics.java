@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.metrics;
+
+import de.iisys.smbcmis.extern.config.Configuration;
+
+/**
+ * Entry point of the metrics of the smb and cmis backends.
+ * <p>
+ * Every round trip to a server is recorded as an operation with its latency, bytes and listed entries are counted.
+ * Failed reads and writes are counted as the operation name with {@link #FAILED} appended, e.g. smb.read.failed.
+ * The registry is chosen with {@link Configuration#getMetrics()}: NONE records nothing, JMX publishes the values as
+ * MBeans, see {@link JmxMetricsRegistry}. Other registries, e.g. an adapter to Micrometer, are set with
+ * {@link #setRegistry(MetricsRegistry)}.
+ */
+public final class Metrics {
+
+    /** Connecting, authenticating and connecting the share for the pool */
+    public static final String SMB_CONNECT = "smb.connect";
+    /** One directory listing */
+    public static final String SMB_LIST = "smb.list";
+    /** Query of size, name and times of a file */
+    public static final String SMB_INFO = "smb.info";
+    /** Opening a file */
+    public static final String SMB_OPEN = "smb.open";
+    /** Reading the content of a file */
+    public static final String SMB_READ = "smb.read";
+    /** Writing a file */
+    public static final String SMB_WRITE = "smb.write";
+    /** Crawling a folder tree, made of many listings */
+    public static final String SMB_CRAWL = "smb.crawl";
+    /** Creating a cmis session */
+    public static final String CMIS_SESSION = "cmis.session";
+    /** One http request of the cmis binding, the suffix is the method */
+    public static final String CMIS_HTTP = "cmis.http.";
+    /** Loading a folder tree from the repository */
+    public static final String CMIS_TREE = "cmis.tree";
+    /** A search in the repository */
+    public static final String CMIS_SEARCH = "cmis.search";
+    /** Reading the content of a document */
+    public static final String CMIS_READ = "cmis.read";
+    /** Uploading a document */
+    public static final String CMIS_WRITE = "cmis.write";
+    /** Walking a local folder tree */
+    public static final String LOCAL_CRAWL = "local.crawl";
+    /** Reading the content of a local file */
+    public static final String LOCAL_READ = "local.read";
+    /** Writing a local file */
+    public static final String LOCAL_WRITE = "local.write";
+
+    public static final String SMB_BYTES_READ = "smb.bytes.read";
+    public static final String SMB_BYTES_WRITTEN = "smb.bytes.written";
+    public static final String SMB_ENTRIES_LISTED = "smb.entries.listed";
+    public static final String CMIS_BYTES_READ = "cmis.bytes.read";
+    public static final String CMIS_BYTES_WRITTEN = "cmis.bytes.written";
+    public static final String CMIS_ENTRIES_LISTED = "cmis.entries.listed";
+    public static final String LOCAL_BYTES_READ = "local.bytes.read";
+    public static final String LOCAL_BYTES_WRITTEN = "local.bytes.written";
+
+    /** Suffix of the counter of failed calls of an operation */
+    public static final String FAILED = ".failed";
+
+    private static volatile MetricsRegistry registry;
+
+    private Metrics() {
+    }
+
+    public static MetricsRegistry getRegistry() {
+        MetricsRegistry current = registry;
+        if (current == null) {
+            synchronized (Metrics.class) {
+                if (registry == null)
+                    registry = Configuration.getMetrics() == Configuration.MetricsType.JMX
+                            ? new JmxMetricsRegistry() : NoopMetricsRegistry.INSTANCE;
+                current = registry;
+            }
+        }
+        return current;
+    }
+
+    public static synchronized void setRegistry(MetricsRegistry registry) {
+        Metrics.registry = registry;
+    }
+
+    /**
+     * @return Start of an operation for {@link #record(String, long)}
+     */
+    public static long start() {
+        return getRegistry().start();
+    }
+
+    public static void record(String operation, long start) {
+        getRegistry().record(operation, start);
+    }
+
+    public static void count(String counter, long amount) {
+        getRegistry().count(counter, amount);
+    }
+
+    /**
+     * Counts a failed call of the operation.
+     */
+    public static void failed(String operation) {
+        count(operation + FAILED, 1);
+    }
+}
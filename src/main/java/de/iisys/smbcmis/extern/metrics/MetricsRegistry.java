@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.metrics;
+
+/**
+ * Receives the timings and counters of the backend operations, see {@link Metrics}.
+ * <p>
+ * Implementations must be thread safe. {@link #start()} and {@link #record(String, long)} are called around every
+ * round trip, so a disabled registry should do nothing in both.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * @return Start of an operation which is passed to {@link #record(String, long)}
+     */
+    long start();
+
+    /**
+     * Records one call of the operation.
+     *
+     * @param operation Name of the operation, e.g. {@link Metrics#SMB_LIST}
+     * @param start     Value of {@link #start()} before the operation
+     */
+    void record(String operation, long start);
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter Name of the counter, e.g. {@link Metrics#SMB_BYTES_READ}
+     * @param amount  Amount to add
+     */
+    void count(String counter, long amount);
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.mirror;
+
+import de.iisys.smbcmis.extern.cache.CMISFolderCache;
+import de.iisys.smbcmis.extern.config.Configuration;
+import de.iisys.smbcmis.extern.fileHandler.FileHandler;
+import de.iisys.smbcmis.extern.fileHandler.FileHandlerForSMB;
+import de.iisys.smbcmis.extern.folderHandler.FolderHandler;
+import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForSMB;
+import de.iisys.smbcmis.extern.io.ContentStreams;
+import de.iisys.smbcmis.extern.model.DocumentEntry;
+import de.iisys.smbcmis.extern.model.DocumentFile;
+import de.iisys.smbcmis.extern.model.DocumentFolder;
+import de.iisys.smbcmis.extern.strategy.SearchWithIgnoreList;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.ObjectId;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.runtime.ObjectIdImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConstraintException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisVersioningException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors a folder of the smb share into a cmis folder: missing folders and documents are created, changed documents
+ * get a new content stream. Nothing is deleted in the cmis repository.
+ * <p>
+ * The share is walked lazily with {@link FolderHandler#walk(String, de.iisys.smbcmis.extern.strategy.SearchPattern)}.
+ * Folders are created while walking, documents are transferred by {@link Configuration#getMirrorParallelism()}
+ * threads. The content is streamed from {@link FileHandler#getContentStream(String)} into the cmis
+ * {@link ContentStream} with its known length, no file is held in memory. Unchanged documents are skipped, see
+ * {@link Configuration.MirrorCompare}. Folder ids are kept in the {@link CMISFolderCache}.
+ */
+public class SMBToCMISMirror {
+    private static final Logger logger = LoggerFactory.getLogger(SMBToCMISMirror.class);
+
+    private static final String CONTENT_STREAM_HASH = "cmis:contentStreamHash";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final FolderHandler source;
+    private final FileHandler sourceFiles;
+    private final Session session;
+    private final int parallelism;
+    private final Configuration.MirrorCompare compare;
+    private final OperationContext context;
+    private final CMISFolderCache folders = CMISFolderCache.getInstance();
+
+    public SMBToCMISMirror(Session session) {
+        this(new FolderHandlerForSMB(), new FileHandlerForSMB(), session, Configuration.getMirrorParallelism(),
+                Configuration.getMirrorCompare());
+    }
+
+    /**
+     * @param source      Folders of the share
+     * @param sourceFiles Content of the share
+     * @param session     Target cmis session
+     * @param parallelism Number of documents transferred at the same time, should not exceed the smb pool size
+     * @param compare     How unchanged documents are detected
+     */
+    public SMBToCMISMirror(FolderHandler source, FileHandler sourceFiles, Session session, int parallelism,
+                           Configuration.MirrorCompare compare) {
+        this.source = source;
+        this.sourceFiles = sourceFiles;
+        this.session = session;
+        this.parallelism = Math.max(1, parallelism);
+        this.compare = compare;
+        this.context = session.createOperationContext();
+        this.context.setCacheEnabled(false);
+        this.context.setIncludeAcls(false);
+        this.context.setIncludeAllowableActions(false);
+        this.context.setIncludePolicies(false);
+        this.context.setRenditionFilterString("cmis:none");
+    }
+
+    /**
+     * Mirrors the smb folder with its sub folders. Failed documents are logged and counted, the run goes on.
+     *
+     * @param sourceId   Id of the smb folder, "" for the whole share
+     * @param targetPath Path of the cmis folder, missing folders are created
+     *
+     * @return Counters of the run
+     */
+    public MirrorResult mirror(String sourceId, String targetPath) {
+        long start = System.currentTimeMillis();
+        MirrorResult result = new MirrorResult();
+        String sourceRoot = sourceId.startsWith("/") ? sourceId.substring(1) : sourceId;
+        sourceRoot = sourceRoot.replace('\\', '/');
+        if (sourceRoot.equals("root"))
+            sourceRoot = "";
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "smb-cmis-mirror");
+            t.setDaemon(true);
+            return t;
+        });
+        // Bounds the documents walked ahead of the transfers
+        Semaphore pending = new Semaphore(parallelism * 4);
+        try (Stream<DocumentEntry> entries = source.walk(sourceId, new SearchWithIgnoreList())) {
+            String root = normalize(targetPath);
+            ensureFolder(root, result);
+            String rootKey = sourceRoot;
+            entries.forEach(entry -> {
+                String relative = relativePath(rootKey, entry.getId());
+                if (entry instanceof DocumentFolder) {
+                    try {
+                        ensureFolder(join(root, relative), result);
+                    } catch (RuntimeException e) {
+                        result.failed(relative, e);
+                    }
+                    return;
+                }
+                DocumentFile file = (DocumentFile) entry;
+                pending.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        transfer(file, join(root, relative), result);
+                    } catch (Exception e) {
+                        result.failed(relative, e);
+                    } finally {
+                        pending.release();
+                    }
+                });
+            });
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.debug("Waiting for mirror transfers, " + result);
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        result.setMillis(System.currentTimeMillis() - start);
+        logger.info("Mirrored '" + sourceId + "' to '" + targetPath + "': " + result);
+        return result;
+    }
+
+    private void transfer(DocumentFile file, String targetPath, MirrorResult result) throws IOException {
+        Document existing = findDocument(targetPath);
+        if (existing != null && isUnchanged(existing, file)) {
+            result.skipped();
+            return;
+        }
+
+        String mimeType = file.getMimeType() == null ? DEFAULT_MIME_TYPE : file.getMimeType();
+        if (existing == null) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(PropertyIds.OBJECT_TYPE_ID, BaseTypeId.CMIS_DOCUMENT.value());
+            properties.put(PropertyIds.NAME, file.getTitle());
+            String parentPath = parentOf(targetPath);
+            try (InputStream in = sourceFiles.getContentStream(file.getId())) {
+                session.createDocument(properties, new ObjectIdImpl(ensureFolder(parentPath, result)),
+                        contentStream(file, mimeType, in), null);
+            } catch (CmisObjectNotFoundException e) {
+                // The cached folder may have been deleted, it is created again
+                folders.invalidate(parentPath);
+                try (InputStream in = sourceFiles.getContentStream(file.getId())) {
+                    session.createDocument(properties, new ObjectIdImpl(ensureFolder(parentPath, result)),
+                            contentStream(file, mimeType, in), null);
+                }
+            }
+            result.created(file.getSize());
+            return;
+        }
+
+        try (InputStream in = sourceFiles.getContentStream(file.getId())) {
+            existing.setContentStream(contentStream(file, mimeType, in), true);
+        } catch (CmisVersioningException | CmisConstraintException e) {
+            // Versionable documents only take new content as a new version, the stream is opened again
+            logger.debug("Updating " + targetPath + " with a new version.", e);
+            ObjectId pwcId = existing.checkOut();
+            Document pwc = (Document) session.getObject(pwcId, context);
+            try (InputStream in = sourceFiles.getContentStream(file.getId())) {
+                pwc.checkIn(false, null, contentStream(file, mimeType, in), "Mirrored from SMB");
+            } catch (RuntimeException | IOException e2) {
+                pwc.cancelCheckOut();
+                throw e2;
+            }
+        }
+        result.updated(file.getSize());
+    }
+
+    private ContentStream contentStream(DocumentFile file, String mimeType, InputStream in) {
+        return session.getObjectFactory().createContentStream(file.getTitle(), file.getSize(), mimeType, in);
+    }
+
+    private boolean isUnchanged(Document existing, DocumentFile file) throws IOException {
+        if (existing.getContentStreamLength() != file.getSize())
+            return false;
+        switch (compare) {
+            case SIZE:
+                return true;
+            case HASH:
+                Boolean sameHash = compareHash(existing, file);
+                // No hash in the repository, the dates decide
+                return sameHash != null ? sameHash : isNotOlder(existing, file);
+            case SIZE_AND_DATE:
+            default:
+                return isNotOlder(existing, file);
+        }
+    }
+
+    private static boolean isNotOlder(Document existing, DocumentFile file) {
+        return existing.getLastModificationDate() != null && file.getLastModified() != null
+                && !existing.getLastModificationDate().getTime().before(file.getLastModified());
+    }
+
+    /**
+     * Streams the smb file through the digest of the first hash the repository knows.
+     *
+     * @return Whether the hashes are equal, null if the repository has no supported hash
+     */
+    private Boolean compareHash(Document existing, DocumentFile file) throws IOException {
+        List<String> hashes = existing.getPropertyValue(CONTENT_STREAM_HASH);
+        if (hashes == null)
+            return null;
+        for (String hash : hashes) {
+            // Format of CMIS 1.1: {algorithm}hex
+            int end = hash.indexOf('}');
+            if (!hash.startsWith("{") || end < 0)
+                continue;
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance(hash.substring(1, end).toUpperCase());
+            } catch (NoSuchAlgorithmException e) {
+                continue;
+            }
+            try (InputStream in = sourceFiles.getContentStream(file.getId());
+                 OutputStream out = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+                ContentStreams.copy(in, out);
+            }
+            return toHex(digest.digest()).equalsIgnoreCase(hash.substring(end + 1).trim());
+        }
+        return null;
+    }
+
+    private Document findDocument(String path) {
+        try {
+            CmisObject object = session.getObjectByPath(path, context);
+            if (object.getBaseTypeId() != BaseTypeId.CMIS_DOCUMENT)
+                throw new IllegalStateException(path + " exists, but is no document.");
+            return (Document) object;
+        } catch (CmisObjectNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up or creates the folder and the missing folders above it.
+     *
+     * @return Id of the folder
+     */
+    private String ensureFolder(String path, MirrorResult result) {
+        return folders.getFolderId(session, path, result::folderCreated);
+    }
+
+    private static String normalize(String path) {
+        path = path.replace('\\', '/');
+        if (!path.startsWith("/"))
+            path = "/" + path;
+        if (path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    private static String relativePath(String root, String id) {
+        id = id.replace('\\', '/');
+        if (root.isEmpty())
+            return id;
+        return id.startsWith(root + "/") ? id.substring(root.length() + 1) : id;
+    }
+
+    private static String join(String parent, String name) {
+        return parent.endsWith("/") ? parent + name : parent + "/" + name;
+    }
+
+    private static String parentOf(String path) {
+        int i = path.lastIndexOf('/');
+        return i <= 0 ? "/" : path.substring(0, i);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        private static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Counters of a mirror run, updated by all transfer threads.
+     */
+    public static class MirrorResult {
+        private static final int MAX_FAILURES = 1000;
+
+        private final AtomicInteger foldersCreated = new AtomicInteger();
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile long millis;
+
+        void folderCreated() {
+            foldersCreated.incrementAndGet();
+        }
+
+        void created(long size) {
+            created.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        void updated(long size) {
+            updated.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        void skipped() {
+            skipped.incrementAndGet();
+        }
+
+        void failed(String path, Exception e) {
+            logger.error("Cannot mirror " + path, e);
+            if (failed.incrementAndGet() <= MAX_FAILURES)
+                failures.add(path + ": " + e.getMessage());
+        }
+
+        void setMillis(long millis) {
+            this.millis = millis;
+        }
+
+        public int getFoldersCreated() {
+            return foldersCreated.get();
+        }
+
+        public int getCreated() {
+            return created.get();
+        }
+
+        public int getUpdated() {
+            return updated.get();
+        }
+
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return Bytes of the created and updated documents
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return The first failures with path and message
+         */
+        public List<String> getFailures() {
+            return new ArrayList<>(failures);
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "MirrorResult{foldersCreated=" + foldersCreated + ", created=" + created + ", updated=" + updated
+                    + ", skipped=" + skipped + ", failed=" + failed + ", bytes=" + bytes + ", millis=" + millis + '}';
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Date;
+
+/**
+ * {@link DocumentFile} in a {@link CompactFolder}. The file keeps its folder and its pooled name, the id (relative path
+ * of the file) and the path ("/" followed by the relative path of the folder) are computed on every call.
+ * <p>
+ * The setters still work, a value which was set explicitly is returned instead of the computed one.
+ */
+public class CompactFile extends DocumentFile {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private CompactFolder folder;
+    private String name;
+    private long lastModified = NO_TIME;
+    private long changeTime = NO_TIME;
+
+    /**
+     * @param folder Folder of the file
+     * @param name   Name of the file
+     */
+    public CompactFile(CompactFolder folder, String name) {
+        this.folder = folder;
+        this.name = name;
+    }
+
+    @JsonIgnore
+    public CompactFolder getFolder() {
+        return folder;
+    }
+
+    /**
+     * Moves the file, explicitly set ids, paths and titles are dropped.
+     */
+    public void relocate(CompactFolder folder, String name) {
+        this.folder = folder;
+        this.name = name;
+        super.setId(null);
+        super.setPath(null);
+        super.setTitle(null);
+    }
+
+    /**
+     * @return A copy of this file in the given folder; {@link #copy()} returns a plain file which does not keep the
+     * tree of this file
+     */
+    public CompactFile copy(CompactFolder folder) {
+        CompactFile copy = new CompactFile(folder, name);
+        copy.setId(super.getId());
+        copy.setPath(super.getPath());
+        copy.setTitle(super.getTitle());
+        copy.setMimeType(getMimeType());
+        copy.setContent(getContent());
+        copy.setSize(getSize());
+        copy.lastModified = lastModified;
+        copy.changeTime = changeTime;
+        return copy;
+    }
+
+    @Override
+    public String getId() {
+        String id = super.getId();
+        if (id != null)
+            return id;
+        String folderPath = folder.getRelativePath();
+        return folderPath.isEmpty() ? name : folderPath + "/" + name;
+    }
+
+    @Override
+    public String getPath() {
+        String path = super.getPath();
+        return path != null ? path : "/" + folder.getRelativePath();
+    }
+
+    @Override
+    public String getTitle() {
+        String title = super.getTitle();
+        return title != null ? title : name;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified == NO_TIME ? null : new Date(lastModified);
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified == null ? NO_TIME : lastModified.getTime();
+    }
+
+    @Override
+    public Date getChangeTime() {
+        return changeTime == NO_TIME ? null : new Date(changeTime);
+    }
+
+    @Override
+    public void setChangeTime(Date changeTime) {
+        this.changeTime = changeTime == null ? NO_TIME : changeTime.getTime();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link DocumentFolder} of a tree whose ids are relative paths, as built from a smb share.
+ * <p>
+ * A folder only keeps its parent and its name, which the builder takes from its {@link Segments}, id and path are computed on every call: the id is the relative
+ * path with "/" as separator ("root" for the root of the share), the path is "/" followed by the relative path of the
+ * parent and the title is the name. Moving a folder with {@link #relocate(CompactFolder, String)} moves its whole
+ * subtree. Times are kept as milliseconds and the lists have exactly the size of their content, see
+ * {@link CompactList}.
+ * <p>
+ * The setters still work, a value which was set explicitly is returned instead of the computed one.
+ */
+public class CompactFolder extends DocumentFolder {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private CompactFolder parent;
+    private String name;
+    private long lastModified = NO_TIME;
+    private long changeTime = NO_TIME;
+
+    /**
+     * @param parent Parent folder or null for the root of the tree
+     * @param name   Name in the parent folder; for a root the relative path in the share, "" for the share itself
+     */
+    public CompactFolder(CompactFolder parent, String name) {
+        super(new CompactList<>(), new CompactList<>());
+        this.parent = parent;
+        this.name = parent == null ? name.replace('\\', '/') : name;
+    }
+
+    /**
+     * @return Relative path of the folder in the share, "" for the share itself
+     */
+    @JsonIgnore
+    public String getRelativePath() {
+        if (parent == null)
+            return name;
+        String parentPath = parent.getRelativePath();
+        return parentPath.isEmpty() ? name : parentPath + "/" + name;
+    }
+
+    @JsonIgnore
+    public CompactFolder getParent() {
+        return parent;
+    }
+
+    /**
+     * Moves the folder, the ids and paths of its files and sub folders change with it. Explicitly set ids, paths and
+     * titles are dropped.
+     *
+     * @param parent New parent folder or null to make the folder a root
+     * @param name   New name, for a root the relative path
+     */
+    public void relocate(CompactFolder parent, String name) {
+        this.parent = parent;
+        this.name = parent == null ? name.replace('\\', '/') : name;
+        setExplicit(null, null, null);
+    }
+
+    @Override
+    public String getId() {
+        String id = super.getId();
+        if (id != null)
+            return id;
+        String relativePath = getRelativePath();
+        return relativePath.isEmpty() ? "root" : relativePath;
+    }
+
+    @Override
+    public String getPath() {
+        String path = super.getPath();
+        if (path != null)
+            return path;
+        String relativePath = getRelativePath();
+        int i = relativePath.lastIndexOf('/');
+        return i <= 0 ? "/" : "/" + relativePath.substring(0, i);
+    }
+
+    @Override
+    public String getTitle() {
+        String title = super.getTitle();
+        if (title != null)
+            return title;
+        return parent == null ? name.substring(name.lastIndexOf('/') + 1) : name;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return lastModified == NO_TIME ? null : new Date(lastModified);
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified == null ? NO_TIME : lastModified.getTime();
+    }
+
+    @Override
+    public Date getChangeTime() {
+        return changeTime == NO_TIME ? null : new Date(changeTime);
+    }
+
+    @Override
+    public void setChangeTime(Date changeTime) {
+        this.changeTime = changeTime == null ? NO_TIME : changeTime.getTime();
+    }
+
+    /**
+     * @return A deep copy of this folder which is compact as well, its root has no parent
+     */
+    @Override
+    public DocumentFolder copy() {
+        return copy(null, getRelativePath());
+    }
+
+    private CompactFolder copy(CompactFolder parent, String name) {
+        CompactFolder copy = new CompactFolder(parent, name);
+        copy.setExplicit(super.getId(), super.getPath(), super.getTitle());
+        copy.lastModified = lastModified;
+        copy.changeTime = changeTime;
+        List<DocumentFile> files = new ArrayList<>(getDocumentList().size());
+        for (DocumentFile file : getDocumentList()) {
+            files.add(file instanceof CompactFile ? ((CompactFile) file).copy(copy) : file.copy());
+        }
+        List<DocumentFolder> folders = new ArrayList<>(getFolderList().size());
+        for (DocumentFolder folder : getFolderList()) {
+            folders.add(folder instanceof CompactFolder ? ((CompactFolder) folder).copy(copy, ((CompactFolder) folder).name) : folder.copy());
+        }
+        copy.setDocumentList(files);
+        copy.setFolderList(folders);
+        return copy;
+    }
+
+    private void setExplicit(String id, String path, String title) {
+        super.setId(id);
+        super.setPath(path);
+        super.setTitle(title);
+    }
+
+    /**
+     * Keeps the files in a list of exactly their number.
+     */
+    @Override
+    public void setDocumentList(List<DocumentFile> documentList) {
+        super.setDocumentList(compact(documentList));
+    }
+
+    /**
+     * Keeps the sub folders in a list of exactly their number.
+     */
+    @Override
+    public void setFolderList(List<DocumentFolder> folderList) {
+        super.setFolderList(compact(folderList));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> List<E> compact(Collection<E> elements) {
+        return elements instanceof CompactList ? (List<E>) elements : new CompactList<>(elements);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List on an array of exactly its size, without the spare capacity of an {@link java.util.ArrayList}. Empty lists
+ * share one empty array.
+ * <p>
+ * Every add or remove copies the array, so lists are filled with {@link #CompactList(Collection)} or
+ * {@link #addAll(Collection)} and only changed one element at a time afterwards.
+ */
+public class CompactList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private Object[] elements;
+
+    public CompactList() {
+        this.elements = EMPTY;
+    }
+
+    public CompactList(Collection<? extends E> elements) {
+        this.elements = elements.isEmpty() ? EMPTY : elements.toArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        rangeCheck(index, elements.length);
+        return (E) elements[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        rangeCheck(index, elements.length);
+        E old = (E) elements[index];
+        elements[index] = element;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        rangeCheck(index, elements.length + 1);
+        Object[] grown = new Object[elements.length + 1];
+        System.arraycopy(elements, 0, grown, 0, index);
+        grown[index] = element;
+        System.arraycopy(elements, index, grown, index + 1, elements.length - index);
+        elements = grown;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> added) {
+        if (added.isEmpty())
+            return false;
+        Object[] add = added.toArray();
+        Object[] grown = Arrays.copyOf(elements, elements.length + add.length);
+        System.arraycopy(add, 0, grown, elements.length, add.length);
+        elements = grown;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E remove(int index) {
+        rangeCheck(index, elements.length);
+        E old = (E) elements[index];
+        if (elements.length == 1) {
+            elements = EMPTY;
+        } else {
+            Object[] shrunk = new Object[elements.length - 1];
+            System.arraycopy(elements, 0, shrunk, 0, index);
+            System.arraycopy(elements, index + 1, shrunk, index, elements.length - index - 1);
+            elements = shrunk;
+        }
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        elements = EMPTY;
+        modCount++;
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+}
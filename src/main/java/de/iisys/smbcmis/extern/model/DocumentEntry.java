@@ -16,6 +16,8 @@
 
 package de.iisys.smbcmis.extern.model;
 
+import java.util.Date;
+
 public interface DocumentEntry {
     String getId();
 
@@ -28,4 +30,12 @@ public interface DocumentEntry {
     String getTitle();
 
     void setTitle(String title);
+
+    Date getLastModified();
+
+    void setLastModified(Date lastModified);
+
+    Date getChangeTime();
+
+    void setChangeTime(Date changeTime);
 }
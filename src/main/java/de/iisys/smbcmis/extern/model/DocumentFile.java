@@ -16,6 +16,8 @@
 
 package de.iisys.smbcmis.extern.model;
 
+import java.util.Date;
+
 /**
  * Created by Alexander Schmid on 25.11.16.
  *
@@ -28,6 +30,9 @@ public class DocumentFile  implements  DocumentEntry{
     private String mimeType;
     private String path;
     private String content;
+    private long size;
+    private Date lastModified;
+    private Date changeTime;
 
     public String getId() {
         return id;
@@ -69,14 +74,56 @@ public class DocumentFile  implements  DocumentEntry{
         this.content = content;
     }
 
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Date getChangeTime() {
+        return changeTime;
+    }
+
+    public void setChangeTime(Date changeTime) {
+        this.changeTime = changeTime;
+    }
+
+    /**
+     * @return A copy of this file
+     */
+    public DocumentFile copy() {
+        DocumentFile copy = new DocumentFile();
+        copy.id = getId();
+        copy.title = getTitle();
+        copy.mimeType = getMimeType();
+        copy.path = getPath();
+        copy.content = getContent();
+        copy.size = getSize();
+        copy.lastModified = getLastModified();
+        copy.changeTime = getChangeTime();
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "DocumentFile{" +
-                "id='" + id + '\'' +
-                ", title='" + title + '\'' +
-                ", mimeType='" + mimeType + '\'' +
-                ", path='" + path + '\'' +
-                ", content='" + content + '\'' +
+                "id='" + getId() + '\'' +
+                ", title='" + getTitle() + '\'' +
+                ", mimeType='" + getMimeType() + '\'' +
+                ", path='" + getPath() + '\'' +
+                ", content='" + getContent() + '\'' +
+                ", size=" + getSize() +
+                ", lastModified=" + getLastModified() +
                 '}';
     }
 }
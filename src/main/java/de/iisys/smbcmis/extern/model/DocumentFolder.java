@@ -19,6 +19,7 @@ package de.iisys.smbcmis.extern.model;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -31,10 +32,25 @@ public class DocumentFolder implements DocumentEntry {
     private String id;
     private String path;
     private String title;
+    private Date lastModified;
+    private Date changeTime;
     @JsonProperty(value = "document")
-    private List<DocumentFile> documentList = new ArrayList<>();
+    private List<DocumentFile> documentList;
     @JsonProperty(value = "folder")
-    private List<DocumentFolder> folderList = new ArrayList<>();
+    private List<DocumentFolder> folderList;
+
+    public DocumentFolder() {
+        this(new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * @param documentList List for the files, see {@link CompactFolder}
+     * @param folderList   List for the sub folders
+     */
+    protected DocumentFolder(List<DocumentFile> documentList, List<DocumentFolder> folderList) {
+        this.documentList = documentList;
+        this.folderList = folderList;
+    }
 
     @Override
     public String getId() {
@@ -66,6 +82,26 @@ public class DocumentFolder implements DocumentEntry {
         this.title = title;
     }
 
+    @Override
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public Date getChangeTime() {
+        return changeTime;
+    }
+
+    @Override
+    public void setChangeTime(Date changeTime) {
+        this.changeTime = changeTime;
+    }
+
     public List<DocumentFile> getDocumentList() {
         return documentList;
     }
@@ -82,14 +118,36 @@ public class DocumentFolder implements DocumentEntry {
         this.folderList = folderList;
     }
 
+    /**
+     * @return A deep copy of this folder with copies of all files and sub folders
+     */
+    public DocumentFolder copy() {
+        DocumentFolder copy = new DocumentFolder();
+        copy.id = getId();
+        copy.path = getPath();
+        copy.title = getTitle();
+        copy.lastModified = getLastModified();
+        copy.changeTime = getChangeTime();
+        for (DocumentFile file : getDocumentList()) {
+            copy.documentList.add(file.copy());
+        }
+        for (DocumentFolder folder : getFolderList()) {
+            copy.folderList.add(folder.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Only counts the direct children, a whole tree is serialized with {@link de.iisys.smbcmis.extern.io.TreeWriter}.
+     */
     @Override
     public String toString() {
         return "DocumentFolder{" +
-                "id='" + id + '\'' +
-                ", path='" + path + '\'' +
-                ", title='" + title + '\'' +
-                ", documentList=" + documentList +
-                ", folderList=" + folderList +
+                "id='" + getId() + '\'' +
+                ", path='" + getPath() + '\'' +
+                ", title='" + getTitle() + '\'' +
+                ", documents=" + getDocumentList().size() +
+                ", folders=" + getFolderList().size() +
                 '}';
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.model;
+
+import java.util.Objects;
+
+/**
+ * Machine and tool of a lookup, used as key of batch lookups.
+ */
+public class MachineAndTool {
+
+    private final String machine;
+    private final String tool;
+
+    public MachineAndTool(String machine, String tool) {
+        this.machine = machine;
+        this.tool = tool;
+    }
+
+    public String getMachine() {
+        return machine;
+    }
+
+    public String getTool() {
+        return tool;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        MachineAndTool that = (MachineAndTool) o;
+        return Objects.equals(machine, that.machine) && Objects.equals(tool, that.tool);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(machine, tool);
+    }
+
+    @Override
+    public String toString() {
+        return "MachineAndTool{" +
+                "machine='" + machine + '\'' +
+                ", tool='" + tool + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.iisys.smbcmis.extern.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of file and folder names for one crawl or build, so a name which occurs in many folders of a tree is stored
+ * once.
+ * <p>
+ * A builder creates a pool per build and drops it afterwards, the names stay only in the tree. Names are never
+ * pooled across builds, a pool which lives longer would keep deleted and renamed names and every unique name.
+ */
+public final class Segments {
+
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    /**
+     * @return The pooled instance of the name
+     */
+    public String intern(String name) {
+        if (name == null)
+            return null;
+        String pooled = pool.putIfAbsent(name, name);
+        return pooled == null ? name : pooled;
+    }
+
+    /**
+     * @return Number of pooled names
+     */
+    public int size() {
+        return pool.size();
+    }
+}
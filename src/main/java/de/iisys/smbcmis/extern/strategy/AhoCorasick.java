@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton, finds which of many literals occur in a text with one pass over the text.
+ */
+public class AhoCorasick {
+
+    private final Node root = new Node();
+    private final int size;
+
+    /**
+     * @param literals The literals, their index in the list is reported by {@link #find(String)}
+     */
+    public AhoCorasick(List<String> literals) {
+        this.size = literals.size();
+        for (int i = 0; i < literals.size(); i++) {
+            Node node = root;
+            for (char c : literals.get(i).toCharArray()) {
+                Node next = node.children.get(c);
+                if (next == null) {
+                    next = new Node();
+                    node.children.put(c, next);
+                }
+                node = next;
+            }
+            node.outputs.set(i);
+        }
+        buildFailureLinks(root);
+    }
+
+    /**
+     * @param text The text to search in
+     *
+     * @return Indexes of all literals which occur in the text
+     */
+    public BitSet find(String text) {
+        BitSet found = new BitSet(size);
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Node next = node.children.get(c);
+            while (next == null && node != root) {
+                node = node.failure;
+                next = node.children.get(c);
+            }
+            node = next == null ? root : next;
+            if (!node.outputs.isEmpty())
+                found.or(node.outputs);
+        }
+        return found;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Breadth first, the failure link of a node points to the longest proper suffix which is also in the trie. The
+     * outputs of the suffix are merged into the node, so matching only has to look at the current node.
+     */
+    private static void buildFailureLinks(Node root) {
+        Queue<Node> queue = new ArrayDeque<>();
+        for (Node child : root.children.values()) {
+            child.failure = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                Node child = entry.getValue();
+                Node failure = node.failure;
+                while (failure != root && !failure.children.containsKey(entry.getKey())) {
+                    failure = failure.failure;
+                }
+                Node target = failure.children.get(entry.getKey());
+                child.failure = target == null || target == child ? root : target;
+                child.outputs.or(child.failure.outputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final BitSet outputs = new BitSet();
+        private Node failure;
+    }
+}
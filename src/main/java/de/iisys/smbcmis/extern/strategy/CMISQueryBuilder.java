@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+/**
+ * Translates the configured search patterns to CMIS SQL predicates.
+ * <p>
+ * A regex can't always be expressed with LIKE, so {@link #toLikePattern(String)} builds a pattern which matches at
+ * least every name the regex matches. The query narrows the candidates on the server, the {@link SearchPattern} decides
+ * on the exact match afterwards.
+ */
+public final class CMISQueryBuilder {
+
+    private static final String REGEX_META = "\\.[]{}()*+?^$|";
+    private static final String ZERO_WIDTH = "bBAzZG";
+    private static final String SINGLE_CHAR_CLASSES = "dDsSwWhHvVpP";
+
+    private CMISQueryBuilder() {
+    }
+
+    /**
+     * Converts a regex to a LIKE pattern which matches a superset of the names matched by the regex.
+     * Literals are kept, also escaped ones like \t, \x41 or \Q..\E, single character classes become "_", boundaries
+     * like \b or \A are left out, everything with a quantifier, groups, nested classes and unknown constructs become
+     * "%". Embedded flags like (?i) change how the literals match, so a regex with (? is not narrowed down at all.
+     *
+     * @param regex Regex which has to match the whole name
+     *
+     * @return The LIKE pattern, "%" if nothing can be narrowed down
+     */
+    public static String toLikePattern(String regex) {
+        if (regex.contains("(?"))
+            return "%";
+        StringBuilder like = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            String atom;
+            int next;
+            if (c == '\\' && i + 1 < n) {
+                char escaped = regex.charAt(i + 1);
+                int end = charEscapeEnd(regex, i);
+                String decoded = end < 0 ? null : decodeCharEscape(regex.substring(i, end));
+                if (escaped == 'Q') {
+                    int quoteEnd = regex.indexOf("\\E", i + 2);
+                    String quoted = regex.substring(i + 2, quoteEnd < 0 ? n : quoteEnd);
+                    next = quoteEnd < 0 ? n : quoteEnd + 2;
+                    if (quoted.isEmpty()) {
+                        i = next;
+                        continue;
+                    }
+                    // A quantifier after \E belongs to the last quoted character only
+                    like.append(escapeLike(quoted.substring(0, quoted.length() - 1)));
+                    atom = escapeLike(quoted.substring(quoted.length() - 1));
+                } else if (ZERO_WIDTH.indexOf(escaped) >= 0) {
+                    i += 2;
+                    if (i < n && isQuantifier(regex.charAt(i)))
+                        i = skipQuantifier(regex, i);
+                    continue;
+                } else if (decoded != null) {
+                    atom = escapeLike(decoded);
+                    next = end;
+                } else if (SINGLE_CHAR_CLASSES.indexOf(escaped) >= 0) {
+                    atom = "_";
+                    next = i + 2;
+                    if ((escaped == 'p' || escaped == 'P') && next < n && regex.charAt(next) == '{')
+                        next = skipTo(regex, next, '}');
+                    else if (escaped == 'p' || escaped == 'P')
+                        next = Math.min(next + 1, n);
+                } else if (!Character.isLetterOrDigit(escaped)) {
+                    atom = escapeLike(String.valueOf(escaped));
+                    next = i + 2;
+                } else {
+                    // Back references, \R, \X, named constructs and anything unknown
+                    atom = "%";
+                    next = i + 2;
+                    if (next < n && (regex.charAt(next) == '<' || regex.charAt(next) == '{'))
+                        next = skipTo(regex, next, regex.charAt(next) == '<' ? '>' : '}');
+                    while (Character.isDigit(escaped) && next < n && Character.isDigit(regex.charAt(next)))
+                        next++;
+                }
+            } else if (c == '.') {
+                atom = "_";
+                next = i + 1;
+            } else if (c == '[') {
+                next = skipClass(regex, i);
+                // Nested classes like the intersection [a-z&&[^b]] are not narrowed down
+                atom = regex.substring(i + 1, next).indexOf('[') >= 0 ? "%" : "_";
+            } else if (c == '(') {
+                atom = "%";
+                next = skipGroup(regex, i);
+            } else if (c == '^' || c == '$') {
+                i++;
+                continue;
+            } else if (c == '|') {
+                // Alternatives can't be expressed with one LIKE
+                return "%";
+            } else {
+                atom = escapeLike(String.valueOf(c));
+                next = i + 1;
+            }
+
+            if (next < n && isQuantifier(regex.charAt(next))) {
+                atom = "%";
+                next = skipQuantifier(regex, next);
+            }
+            if (!(atom.equals("%") && like.length() > 0 && like.charAt(like.length() - 1) == '%' && !endsWithEscape(like)))
+                like.append(atom);
+            i = next;
+        }
+        return like.length() == 0 ? "%" : like.toString();
+    }
+
+    /**
+     * @return True if the string contains no regex meta characters
+     */
+    public static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (REGEX_META.indexOf(s.charAt(i)) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Escapes a literal for a LIKE pattern.
+     */
+    public static String escapeLike(String literal) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '%' || c == '_' || c == '\\' || c == '\'')
+                sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Escapes a value for a CMIS SQL string literal.
+     */
+    public static String escapeString(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    /**
+     * Builds the WHERE clause for a name search.
+     *
+     * @param likePattern The already escaped LIKE pattern, "%" or null for no restriction of the name
+     * @param inTreeId    Id of the folder to search within, null for the whole repository
+     *
+     * @return The WHERE clause without the keyword, null if there is no restriction at all
+     */
+    public static String where(String likePattern, String inTreeId) {
+        StringBuilder where = new StringBuilder();
+        if (likePattern != null && !likePattern.equals("%"))
+            where.append("cmis:name LIKE '").append(likePattern).append('\'');
+        if (inTreeId != null && inTreeId.length() > 0) {
+            if (where.length() > 0)
+                where.append(" AND ");
+            where.append("IN_TREE('").append(escapeString(inTreeId)).append("')");
+        }
+        return where.length() == 0 ? null : where.toString();
+    }
+
+    /**
+     * @return End of the escape at i if it stands for one character, like \t, \cA, \x41, \x{41} or \0101,
+     * otherwise -1
+     */
+    private static int charEscapeEnd(String regex, int i) {
+        int n = regex.length();
+        char escaped = regex.charAt(i + 1);
+        int end;
+        if ("tnrfae".indexOf(escaped) >= 0) {
+            end = i + 2;
+        } else if (escaped == 'c') {
+            end = i + 3;
+        } else if (escaped == 'x') {
+            end = i + 2 < n && regex.charAt(i + 2) == '{' ? skipTo(regex, i + 2, '}') : i + 4;
+        } else if (escaped == 'u') {
+            end = i + 6;
+        } else if (escaped == '0') {
+            // Up to three octal digits, the first of three at most 3
+            end = i + 2;
+            while (end < n && end < i + 5 && regex.charAt(end) >= '0' && regex.charAt(end) <= '7')
+                end++;
+            if (end == i + 5 && regex.charAt(i + 2) > '3')
+                end--;
+            if (end == i + 2)
+                return -1;
+        } else {
+            return -1;
+        }
+        return end <= n ? end : -1;
+    }
+
+    /**
+     * @param escape An escape found by {@link #charEscapeEnd(String, int)}
+     *
+     * @return The character, null if the escape is malformed
+     */
+    private static String decodeCharEscape(String escape) {
+        char escaped = escape.charAt(1);
+        try {
+            switch (escaped) {
+                case 't':
+                    return "\t";
+                case 'n':
+                    return "\n";
+                case 'r':
+                    return "\r";
+                case 'f':
+                    return "\f";
+                case 'a':
+                    return "\007";
+                case 'e':
+                    return "\033";
+                case 'c':
+                    return String.valueOf((char) (escape.charAt(2) ^ 64));
+                case 'x':
+                    String hex = escape.charAt(2) == '{' ? escape.substring(3, escape.length() - 1) : escape.substring(2);
+                    return new String(Character.toChars(Integer.parseInt(hex, 16)));
+                case 'u':
+                    return String.valueOf((char) Integer.parseInt(escape.substring(2), 16));
+                default:
+                    return String.valueOf((char) Integer.parseInt(escape.substring(2), 8));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Index after the next {@code end} character from i on, the end of the regex if there is none
+     */
+    private static int skipTo(String regex, int i, char end) {
+        int index = regex.indexOf(end, i);
+        return index < 0 ? regex.length() : index + 1;
+    }
+
+    private static boolean endsWithEscape(StringBuilder like) {
+        return like.length() > 1 && like.charAt(like.length() - 2) == '\\';
+    }
+
+    private static boolean isQuantifier(char c) {
+        return c == '*' || c == '+' || c == '?' || c == '{';
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            int end = regex.indexOf('}', i);
+            i = end < 0 ? regex.length() : end + 1;
+        } else {
+            i++;
+        }
+        // Lazy or possessive modifier
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+'))
+            i++;
+        return i;
+    }
+
+    /**
+     * @return Index after the character class at i, nested classes like in [a-z&&[^b]] included
+     */
+    private static int skipClass(String regex, int i) {
+        i++;
+        if (i < regex.length() && regex.charAt(i) == '^')
+            i++;
+        if (i < regex.length() && regex.charAt(i) == ']')
+            i++;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                int quoteEnd = regex.indexOf("\\E", i + 2);
+                i = quoteEnd < 0 ? regex.length() : quoteEnd + 2;
+                continue;
+            }
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == ']')
+                return i + 1;
+            i++;
+        }
+        return regex.length();
+    }
+
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == '(')
+                depth++;
+            else if (c == ')' && --depth == 0)
+                return i + 1;
+            i++;
+        }
+        return regex.length();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests a name against many regexes at once.
+ * <p>
+ * The required literals of all regexes, see {@link RegexMatcher#requiredLiterals(String)}, go into one
+ * {@link AhoCorasick} automaton. One pass over the name tells which literals it contains, only the regexes whose
+ * literals are all present are run. Regexes without literals are always run.
+ */
+public class MultiRegexMatcher {
+
+    private final List<RegexMatcher> matchers = new ArrayList<>();
+    private final AhoCorasick automaton;
+    private final int[] requiredCount;
+    private final int[][] regexesByLiteral;
+    private final int[] withoutLiterals;
+
+    /**
+     * @param regexes The regexes, their index in the list is reported by {@link #match(String)}
+     */
+    public MultiRegexMatcher(List<String> regexes) {
+        Map<String, Integer> literalIds = new HashMap<>();
+        List<String> literals = new ArrayList<>();
+        List<List<Integer>> byLiteral = new ArrayList<>();
+        List<Integer> noLiterals = new ArrayList<>();
+        requiredCount = new int[regexes.size()];
+
+        for (int i = 0; i < regexes.size(); i++) {
+            RegexMatcher matcher = new RegexMatcher(regexes.get(i));
+            matchers.add(matcher);
+            requiredCount[i] = matcher.getLiterals().size();
+            if (matcher.getLiterals().isEmpty())
+                noLiterals.add(i);
+            for (String literal : matcher.getLiterals()) {
+                Integer id = literalIds.get(literal);
+                if (id == null) {
+                    id = literals.size();
+                    literalIds.put(literal, id);
+                    literals.add(literal);
+                    byLiteral.add(new ArrayList<>());
+                }
+                byLiteral.get(id).add(i);
+            }
+        }
+
+        automaton = new AhoCorasick(literals);
+        regexesByLiteral = new int[byLiteral.size()][];
+        for (int i = 0; i < byLiteral.size(); i++) {
+            regexesByLiteral[i] = byLiteral.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        withoutLiterals = noLiterals.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param name The whole name to test
+     *
+     * @return Indexes of all regexes which match the name
+     */
+    public BitSet match(String name) {
+        BitSet result = new BitSet(matchers.size());
+        for (int i : withoutLiterals) {
+            if (matchers.get(i).matchesPattern(name))
+                result.set(i);
+        }
+
+        BitSet found = automaton.find(name);
+        if (found.isEmpty())
+            return result;
+        int[] hits = new int[matchers.size()];
+        for (int literal = found.nextSetBit(0); literal >= 0; literal = found.nextSetBit(literal + 1)) {
+            for (int regex : regexesByLiteral[literal]) {
+                // All literals are present, only the regex can still reject the name
+                if (++hits[regex] == requiredCount[regex] && matchers.get(regex).matchesPattern(name))
+                    result.set(regex);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return matchers.size();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A regex which is compiled once and has to match the whole name, like {@link String#matches(String)}.
+ * <p>
+ * The literals every match must contain, e.g. the tool number, are extracted from the regex. Names which lack one of
+ * them are rejected with {@link String#indexOf(String)}, the regex only runs for the remaining names.
+ */
+public class RegexMatcher {
+
+    private final String regex;
+    private final Pattern pattern;
+    private final List<String> literals;
+
+    public RegexMatcher(String regex) {
+        this.regex = regex;
+        this.pattern = Pattern.compile(regex);
+        this.literals = requiredLiterals(regex);
+    }
+
+    public boolean matches(String name) {
+        for (String literal : literals) {
+            if (name.indexOf(literal) < 0)
+                return false;
+        }
+        return matchesPattern(name);
+    }
+
+    /**
+     * Runs only the regex, for callers which already checked the literals.
+     */
+    boolean matchesPattern(String name) {
+        return pattern.matcher(name).matches();
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    /**
+     * @return Literals every matching name contains
+     */
+    public List<String> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Extracts the literals every name matched by the regex must contain. They are the fixed parts of the LIKE
+     * pattern of {@link CMISQueryBuilder#toLikePattern(String)}, which matches a superset of the regex.
+     *
+     * @param regex Regex which has to match the whole name
+     *
+     * @return The literals, empty if nothing is certain, e.g. for embedded flags, alternatives or escapes like \x41
+     */
+    public static List<String> requiredLiterals(String regex) {
+        // Embedded flags like (?i) change how the literals match
+        if (regex.contains("(?") || hasUnsafeEscape(regex))
+            return Collections.emptyList();
+
+        String like = CMISQueryBuilder.toLikePattern(regex);
+        List<String> result = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                literal.append(like.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                addLiteral(result, literal);
+            } else {
+                literal.append(c);
+            }
+        }
+        addLiteral(result, literal);
+        // The longest literal rejects most names, check it first
+        result.sort((a, b) -> b.length() - a.length());
+        return result;
+    }
+
+    /**
+     * Escapes other than quoted meta characters and the classes \d, \s and \w, e.g. \x41, \0101, \b or \Q..\E,
+     * can't be read from the LIKE pattern, the literals next to them could be wrong.
+     */
+    private static boolean hasUnsafeEscape(String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) != '\\')
+                continue;
+            char escaped = regex.charAt(++i);
+            if (Character.isLetterOrDigit(escaped) && "dDsSwW".indexOf(escaped) < 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static void addLiteral(List<String> result, StringBuilder literal) {
+        if (literal.length() > 0 && !result.contains(literal.toString()))
+            result.add(literal.toString());
+        literal.setLength(0);
+    }
+}
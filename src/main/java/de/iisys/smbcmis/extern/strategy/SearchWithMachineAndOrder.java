@@ -29,10 +29,13 @@ import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForCMIS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 public class SearchWithMachineAndOrder implements SearchPattern {
     private static final Logger logger = LoggerFactory.getLogger(FolderHandlerForCMIS.class);
 
     private String regexFolder;
+    private final RegexMatcher matcher;
 
     public SearchWithMachineAndOrder(String machine, String tool) {
 
@@ -42,7 +45,22 @@ public class SearchWithMachineAndOrder implements SearchPattern {
 
         regexFolder = Configuration.getSearchPattern()[1]+machine+Configuration.getSearchPattern()[2]+Configuration.getSearchPattern()[3]+tool+Configuration.getSearchPattern()[4];
         logger.debug("REGEX: " + regexFolder);
+        matcher = new RegexMatcher(regexFolder);
+    }
+    /**
+     * @return The regex which is matched against the names
+     */
+    public String getRegex() {
+        return regexFolder;
     }
+
+    /**
+     * @return Literals every matching name contains, see {@link RegexMatcher#requiredLiterals(String)}
+     */
+    public List<String> getLiterals() {
+        return matcher.getLiterals();
+    }
+
 /*1 und 2*/
     @Override
     public Boolean isFileRequired(String name) {
@@ -51,7 +69,7 @@ public class SearchWithMachineAndOrder implements SearchPattern {
             case FOLDER: return false;
             case FOLDER_AND_FILENAME: return false;
             case FILENAME:
-                if (name.matches(regexFolder)) {
+                if (matcher.matches(name)) {
                     logger.debug("FILENAME MATCH: " + name);
                     return true;
                 }
@@ -64,12 +82,12 @@ public class SearchWithMachineAndOrder implements SearchPattern {
     public Boolean isFolderRequired(String name) {
         switch (Configuration.getSearchStrategy()) {
             case FOLDER:
-                if (name.matches(regexFolder))
+                if (matcher.matches(name))
                     return true;
                 break;
 
             case FOLDER_AND_FILENAME:
-                if (name.matches(regexFolder))
+                if (matcher.matches(name))
                     return true;
                 break;
 
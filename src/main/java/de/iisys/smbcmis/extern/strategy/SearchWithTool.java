@@ -21,11 +21,14 @@ import de.iisys.smbcmis.extern.folderHandler.FolderHandlerForCMIS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 @SuppressWarnings("Duplicates")
 public class SearchWithTool implements SearchPattern{
     private static final Logger logger = LoggerFactory.getLogger(FolderHandlerForCMIS.class);
 
     private String regexFolder;
+    private final RegexMatcher matcher;
 
     public SearchWithTool(String tool) {
 
@@ -36,14 +39,29 @@ public class SearchWithTool implements SearchPattern{
 
         regexFolder = Configuration.getSearchPattern()[3]+tool+Configuration.getSearchPattern()[4];
         logger.debug("REGEX FOR TOOL: " + regexFolder);
+        matcher = new RegexMatcher(regexFolder);
+    }
+    /**
+     * @return The regex which is matched against the names
+     */
+    public String getRegex() {
+        return regexFolder;
     }
+
+    /**
+     * @return Literals every matching name contains, see {@link RegexMatcher#requiredLiterals(String)}
+     */
+    public List<String> getLiterals() {
+        return matcher.getLiterals();
+    }
+
     @Override
     public Boolean isFileRequired(String name) {
         switch (Configuration.getSearchStrategy()) {
             case FOLDER: return false;
             case FOLDER_AND_FILENAME: return false;
             case FILENAME:
-                if (name.matches(regexFolder)) {
+                if (matcher.matches(name)) {
                     logger.debug("FILENAME MATCH: " + name);
                     return true;
                 }
@@ -56,12 +74,12 @@ public class SearchWithTool implements SearchPattern{
     public Boolean isFolderRequired(String name) {
         switch (Configuration.getSearchStrategy()) {
             case FOLDER:
-                if (name.matches(regexFolder))
+                if (matcher.matches(name))
                     return true;
                 break;
 
             case FOLDER_AND_FILENAME:
-                if (name.matches(regexFolder))
+                if (matcher.matches(name))
                     return true;
                 break;
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void findsOverlappingLiterals() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(bits(0, 1, 3), automaton.find("ushers"));
+        assertEquals(bits(2), automaton.find("this"));
+        assertEquals(bits(), automaton.find("sh"));
+    }
+
+    @Test
+    public void findsLiteralsWithinOtherLiterals() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("T123", "123", "23.pdf", "a"));
+        assertEquals(bits(0, 1, 2), automaton.find("M1_T123.pdf"));
+        assertEquals(bits(1, 3), automaton.find("a123"));
+    }
+
+    @Test
+    public void emptyAutomatonFindsNothing() {
+        AhoCorasick automaton = new AhoCorasick(Collections.emptyList());
+        assertTrue(automaton.find("anything").isEmpty());
+        assertEquals(0, automaton.size());
+    }
+
+    @Test
+    public void findsTheSameAsIndexOf() {
+        List<String> literals = Arrays.asList("ab", "abab", "bab", "b", "aab", "ba", "abc", "c");
+        AhoCorasick automaton = new AhoCorasick(literals);
+        for (String text : Arrays.asList("", "a", "ab", "abab", "aabab", "babc", "cccc", "abaabab", "xyz")) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < literals.size(); i++) {
+                if (text.contains(literals.get(i)))
+                    expected.set(i);
+            }
+            assertEquals(text, expected, automaton.find(text));
+        }
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
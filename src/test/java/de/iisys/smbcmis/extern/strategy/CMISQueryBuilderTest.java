@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CMISQueryBuilderTest {
+
+    static final String[] REGEXES = {
+            "abc", ".*T123.*\\.pdf", "a\\.b", "a\\tb", "\\x41b", "\\u0041b", "\\0101b", "\\Qa.b\\E*c",
+            "[a-z]x", "[^]a]x", "[\\]]x", "[a-z&&[^b]]x", "[a[bc]]x", "x[a\\Q]\\E]y", "(?i).*abc.*", "A(?i)bc",
+            "a|b", ".*(M1|M2).*T1.*", "ab+c", "\\d{3}-x", "(ab)*c", "a{2,3}b", "\\bword\\b", "\\p{Alpha}z",
+            "50%_x", "it's.*"
+    };
+
+    static final String[] NAMES = {
+            "abc", "ABC", "aBc", "xabcx", "xABCx", "T123.pdf", "M1_T123_a.pdf", "M2 T1", "a.b", "aXb", "a\tb",
+            "Ab", "ab", "a.bc", "a.bbbc", "bx", "ax", "]x", "zx", "cx", "x]y", "xay", "xby", "a", "b", "abbc",
+            "ac", "123-x", "ababc", "c", "aab", "aaab", "word", "Zz", "50%_x", "50ab_x", "it's here"
+    };
+
+    @Test
+    public void keepsLiterals() {
+        assertEquals("abc", CMISQueryBuilder.toLikePattern("abc"));
+        assertEquals("%T123%.pdf", CMISQueryBuilder.toLikePattern(".*T123.*\\.pdf"));
+        assertEquals("50\\%\\_x", CMISQueryBuilder.toLikePattern("50%_x"));
+    }
+
+    @Test
+    public void decodesEscapes() {
+        assertEquals("a.b", CMISQueryBuilder.toLikePattern("a\\.b"));
+        assertEquals("Ab", CMISQueryBuilder.toLikePattern("\\x41b"));
+        assertEquals("Ab", CMISQueryBuilder.toLikePattern("\\0101b"));
+        assertEquals("a.%c", CMISQueryBuilder.toLikePattern("\\Qa.b\\E*c"));
+        assertEquals("word", CMISQueryBuilder.toLikePattern("\\bword\\b"));
+        assertEquals("_z", CMISQueryBuilder.toLikePattern("\\p{Alpha}z"));
+    }
+
+    @Test
+    public void skipsClasses() {
+        assertEquals("_x", CMISQueryBuilder.toLikePattern("[a-z]x"));
+        assertEquals("_x", CMISQueryBuilder.toLikePattern("[^]a]x"));
+        assertEquals("_x", CMISQueryBuilder.toLikePattern("[\\]]x"));
+        assertEquals("x_y", CMISQueryBuilder.toLikePattern("x[a\\Q]\\E]y"));
+    }
+
+    @Test
+    public void nestedClassesAreNotNarrowed() {
+        assertEquals("%x", CMISQueryBuilder.toLikePattern("[a-z&&[^b]]x"));
+        assertEquals("%x", CMISQueryBuilder.toLikePattern("[a[bc]]x"));
+    }
+
+    @Test
+    public void flagsAndAlternativesAreNotNarrowed() {
+        assertEquals("%", CMISQueryBuilder.toLikePattern("(?i).*abc.*"));
+        assertEquals("%", CMISQueryBuilder.toLikePattern("A(?i)bc"));
+        assertEquals("%", CMISQueryBuilder.toLikePattern("a|b"));
+        assertEquals("%T1%", CMISQueryBuilder.toLikePattern(".*(M1|M2).*T1.*"));
+    }
+
+    @Test
+    public void quantifiedAtomsBecomeWildcards() {
+        assertEquals("a%c", CMISQueryBuilder.toLikePattern("ab+c"));
+        assertEquals("%-x", CMISQueryBuilder.toLikePattern("\\d{3}-x"));
+        assertEquals("%c", CMISQueryBuilder.toLikePattern("(ab)*c"));
+        assertEquals("%b", CMISQueryBuilder.toLikePattern("a{2,3}b"));
+    }
+
+    @Test
+    public void likePatternMatchesEveryNameOfTheRegex() {
+        for (String regex : REGEXES) {
+            String like = CMISQueryBuilder.toLikePattern(regex);
+            for (String name : NAMES) {
+                if (Pattern.matches(regex, name))
+                    assertTrue(regex + " -> " + like + " misses " + name, likeMatches(like, name));
+            }
+        }
+    }
+
+    @Test
+    public void buildsWhereClause() {
+        assertEquals(null, CMISQueryBuilder.where("%", null));
+        assertEquals("cmis:name LIKE '%T1%'", CMISQueryBuilder.where("%T1%", ""));
+        assertEquals("cmis:name LIKE 'a' AND IN_TREE('it\\'s')", CMISQueryBuilder.where("a", "it's"));
+    }
+
+    /**
+     * Evaluates a LIKE pattern the way the repository does, with backslash as escape character.
+     */
+    static boolean likeMatches(String like, String name) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length())
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            else if (c == '%')
+                regex.append(".*");
+            else if (c == '_')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL).matcher(name).matches();
+    }
+}
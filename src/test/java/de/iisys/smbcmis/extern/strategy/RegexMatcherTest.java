@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Thomas Winkler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.iisys.smbcmis.extern.strategy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegexMatcherTest {
+
+    @Test
+    public void extractsLiteralsLongestFirst() {
+        assertEquals(Arrays.asList("T123", ".pdf"), RegexMatcher.requiredLiterals(".*T123.*\\.pdf"));
+        assertEquals(Arrays.asList("a", "c"), RegexMatcher.requiredLiterals("ab+c"));
+        assertEquals(Collections.singletonList("50%_x"), RegexMatcher.requiredLiterals("50%_x"));
+    }
+
+    @Test
+    public void unsafeEscapesHaveNoLiterals() {
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("\\x41b"));
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("\\bword\\b"));
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("\\Qa.b\\E*c"));
+        assertEquals(Collections.singletonList("-x"), RegexMatcher.requiredLiterals("\\d{3}-x"));
+    }
+
+    @Test
+    public void flagsAndAlternativesHaveNoLiterals() {
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("(?i).*abc.*"));
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("A(?i)bc"));
+        assertEquals(Collections.emptyList(), RegexMatcher.requiredLiterals("a|b"));
+        assertEquals(Collections.singletonList("T1"), RegexMatcher.requiredLiterals(".*(M1|M2).*T1.*"));
+    }
+
+    @Test
+    public void skipsNestedClasses() {
+        assertEquals(Collections.singletonList("x"), RegexMatcher.requiredLiterals("[a-z&&[^b]]x"));
+        assertEquals(Collections.singletonList("x"), RegexMatcher.requiredLiterals("[a[bc]]x"));
+    }
+
+    @Test
+    public void matchesLikePatternMatches() {
+        for (String regex : CMISQueryBuilderTest.REGEXES) {
+            RegexMatcher matcher = new RegexMatcher(regex);
+            for (String name : CMISQueryBuilderTest.NAMES) {
+                assertEquals(regex + " on " + name, Pattern.matches(regex, name), matcher.matches(name));
+                if (Pattern.matches(regex, name)) {
+                    for (String literal : matcher.getLiterals()) {
+                        assertTrue(regex + " requires " + literal + " in " + name, name.contains(literal));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void multiRegexMatcherMatchesLikeSingleMatchers() {
+        MultiRegexMatcher multi = new MultiRegexMatcher(Arrays.asList(CMISQueryBuilderTest.REGEXES));
+        for (String name : CMISQueryBuilderTest.NAMES) {
+            BitSet expected = new BitSet();
+            for (int i = 0; i < CMISQueryBuilderTest.REGEXES.length; i++) {
+                if (Pattern.matches(CMISQueryBuilderTest.REGEXES[i], name))
+                    expected.set(i);
+            }
+            assertEquals(name, expected, multi.match(name));
+        }
+    }
+}